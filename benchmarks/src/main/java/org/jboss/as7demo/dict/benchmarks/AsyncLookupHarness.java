@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.as7demo.dict.DictionaryConfiguration;
+import org.jboss.as7demo.dict.DictionaryFuture;
+import org.jboss.as7demo.dict.DictionaryService;
+import org.jboss.as7demo.dict.MappedDictionaryFile;
+
+/**
+ * Lookups in cache mode against a data file behind {@link SlowFileLoader}, with 1 to 10000
+ * concurrent callers: blocking find() with a thread per caller, findAsync() without batching
+ * (load-batch-size 1) and findAsync() with the default batches. Each caller keeps one lookup of
+ * a random key outstanding, the cache holds 1% of the keys. Prints the lookups per second, the
+ * mean latency and how many keys the loader got per call, measured after all callers are started
+ * and a second of warm-up.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.jboss.as7demo.dict.benchmarks.AsyncLookupHarness [entries] [latency micros] [seconds]
+ * </pre>
+ *
+ * @author Michal Linhard
+ */
+public class AsyncLookupHarness {
+   private static final int[] CALLERS = { 1, 100, 1000, 10000 };
+   /**
+    * Blocking callers need a thread each, more than this isn't attempted.
+    */
+   private static final int MAX_THREADS = 1000;
+
+   private final String[] keys;
+   private final File dataFile;
+   private final long millis;
+
+   private volatile boolean running;
+   private final AtomicLong lookups = new AtomicLong();
+   private final AtomicLong latencyNanos = new AtomicLong();
+   private final AtomicLong errors = new AtomicLong();
+
+   AsyncLookupHarness(int entries, long millis) throws Exception {
+      this.millis = millis;
+      keys = Entries.keys(entries);
+      String[] values = Entries.values(entries);
+      Map<String, String> content = new HashMap<String, String>();
+      for (int i = 0; i < entries; i++) {
+         content.put(keys[i], values[i]);
+      }
+      dataFile = File.createTempFile("dict-backing", ".bin");
+      dataFile.deleteOnExit();
+      MappedDictionaryFile.write(dataFile, content);
+   }
+
+   public static void main(String[] args) throws Exception {
+      int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+      SlowFileLoader.latencyMicros = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+      long seconds = args.length > 2 ? Long.parseLong(args[2]) : 5;
+      AsyncLookupHarness harness = new AsyncLookupHarness(entries, seconds * 1000);
+      System.out.printf("%d entries, loader latency %d us%n", entries, SlowFileLoader.latencyMicros);
+      System.out.printf("%-10s %8s %12s %10s %12s %10s%n", "mode", "callers", "lookups/s", "mean ms", "loader calls", "keys/call");
+      for (int callers : CALLERS) {
+         if (callers <= MAX_THREADS) {
+            harness.run("sync", callers, 1);
+         }
+         harness.run("async-1", callers, 1);
+         harness.run("async", callers, DictionaryConfiguration.DEFAULT_LOAD_BATCH_SIZE);
+      }
+      boolean ok = harness.errors.get() == 0;
+      System.out.println(ok ? "OK" : "FAILED, " + harness.errors.get() + " lookups without their value");
+      System.exit(ok ? 0 : 1);
+   }
+
+   private void run(String mode, int callers, int batchSize) throws Exception {
+      DictionaryConfiguration configuration = new DictionaryConfiguration();
+      configuration.setCacheSize(keys.length / 100);
+      configuration.setLoaderClass(SlowFileLoader.class.getName());
+      configuration.setLoaderSource(dataFile.getPath());
+      configuration.setLoadBatchSize(batchSize);
+      DictionaryService service = new DictionaryService(configuration);
+      service.start(null);
+      try {
+         lookups(service, mode, callers);
+      } finally {
+         service.stop(null);
+      }
+   }
+
+   /**
+    * Starts the callers, measures them after a warm-up and waits until their last lookups are
+    * complete.
+    */
+   private void lookups(final DictionaryService service, String mode, int callers) throws InterruptedException {
+      running = true;
+      final CountDownLatch go = new CountDownLatch(1);
+      final CountDownLatch finished = new CountDownLatch(callers);
+      if (mode.equals("sync")) {
+         for (int i = 0; i < callers; i++) {
+            final Random random = new Random(i);
+            Thread thread = new Thread() {
+               @Override
+               public void run() {
+                  try {
+                     go.await();
+                  } catch (InterruptedException e) {
+                     return;
+                  }
+                  while (running) {
+                     long start = System.nanoTime();
+                     String value = service.find(keys[random.nextInt(keys.length)]);
+                     record(value, start);
+                  }
+                  finished.countDown();
+               }
+            };
+            thread.setDaemon(true);
+            thread.start();
+         }
+         go.countDown();
+      } else {
+         for (int i = 0; i < callers; i++) {
+            new Caller(service, new Random(i), finished).next();
+         }
+      }
+      Thread.sleep(Math.min(1000, millis));
+      // only the lookups completed within the window count
+      long count = lookups.get();
+      long latency = latencyNanos.get();
+      long calls = SlowFileLoader.calls.get();
+      long loaded = SlowFileLoader.keys.get();
+      long start = System.nanoTime();
+      Thread.sleep(millis);
+      count = lookups.get() - count;
+      latency = latencyNanos.get() - latency;
+      calls = SlowFileLoader.calls.get() - calls;
+      loaded = SlowFileLoader.keys.get() - loaded;
+      double seconds = (System.nanoTime() - start) / 1e9;
+      running = false;
+      if (!finished.await(60, TimeUnit.SECONDS)) {
+         throw new IllegalStateException(finished.getCount() + " lookups not complete");
+      }
+      System.out.printf("%-10s %8d %12.0f %10.2f %12d %10.1f%n", mode, callers, count / seconds,
+               count == 0 ? 0 : latency / 1e6 / count, calls, calls == 0 ? 0 : (double) loaded / calls);
+   }
+
+   private void record(String value, long start) {
+      if (value == null) {
+         errors.incrementAndGet();
+      }
+      lookups.incrementAndGet();
+      latencyNanos.addAndGet(System.nanoTime() - start);
+   }
+
+   /**
+    * Asynchronous caller, issues its next lookup from the callback of the previous one.
+    */
+   private class Caller implements DictionaryFuture.Callback<String> {
+      private final DictionaryService service;
+      private final Random random;
+      private final CountDownLatch finished;
+      private long start;
+
+      Caller(DictionaryService service, Random random, CountDownLatch finished) {
+         this.service = service;
+         this.random = random;
+         this.finished = finished;
+      }
+
+      void next() {
+         while (running) {
+            start = System.nanoTime();
+            DictionaryFuture<String> future = service.findAsync(keys[random.nextInt(keys.length)]);
+            if (!future.isDone()) {
+               future.addCallback(this);
+               return;
+            }
+            // cache hit, no callback to avoid the recursion
+            try {
+               record(future.get(), start);
+            } catch (Exception e) {
+               failed(e);
+               return;
+            }
+         }
+         finished.countDown();
+      }
+
+      @Override
+      public void completed(String value) {
+         record(value, start);
+         next();
+      }
+
+      @Override
+      public void failed(Throwable cause) {
+         errors.incrementAndGet();
+         finished.countDown();
+      }
+
+   }
+
+}
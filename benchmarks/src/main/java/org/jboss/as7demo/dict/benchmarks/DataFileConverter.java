@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.jboss.as7demo.dict.MappedDictionaryFile;
+
+/**
+ * Converts a properties file into a dictionary data file.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.jboss.as7demo.dict.benchmarks.DataFileConverter input.properties dictionary.bin
+ * </pre>
+ *
+ * @author Michal Linhard
+ */
+public class DataFileConverter {
+
+   public static void main(String[] args) throws IOException {
+      if (args.length != 2) {
+         System.err.println("Usage: DataFileConverter <input.properties> <output data file>");
+         System.exit(1);
+      }
+      Properties properties = new Properties();
+      InputStream in = new FileInputStream(args[0]);
+      try {
+         properties.load(in);
+      } finally {
+         in.close();
+      }
+      Map<String, String> entries = new TreeMap<String, String>();
+      for (String name : properties.stringPropertyNames()) {
+         entries.put(name, properties.getProperty(name));
+      }
+      MappedDictionaryFile.write(new File(args[1]), entries);
+   }
+
+}
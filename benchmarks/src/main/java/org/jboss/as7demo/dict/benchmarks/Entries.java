@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+/**
+ * Generated benchmark data, keys are not in insertion order so that ordered structures do real
+ * work.
+ *
+ * @author Michal Linhard
+ */
+final class Entries {
+
+   private Entries() {
+   }
+
+   static String[] keys(int count) {
+      String[] keys = new String[count];
+      for (int i = 0; i < count; i++) {
+         // spread the keys over the key space, multiplication by an odd constant is a bijection
+         keys[i] = String.format("key-%08x", i * 0x9E3779B1);
+      }
+      return keys;
+   }
+
+   static String[] values(int count) {
+      String[] values = new String[count];
+      for (int i = 0; i < count; i++) {
+         values[i] = "value of entry number " + i;
+      }
+      return values;
+   }
+
+}
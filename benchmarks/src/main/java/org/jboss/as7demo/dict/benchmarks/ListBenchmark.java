@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.as7demo.dict.DictionaryConfiguration;
+import org.jboss.as7demo.dict.DictionaryIndex;
+import org.jboss.as7demo.dict.DictionaryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link DictionaryService#list()} and a first page of {@link DictionaryService#list(String, int)}
+ * at different dictionary sizes.
+ *
+ * @author Michal Linhard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ListBenchmark {
+
+   @Param({ "1000", "10000", "100000", "1000000" })
+   public int size;
+
+   @Param({ "skiplist", "trie", "sharded" })
+   public String index;
+
+   private DictionaryService service;
+
+   @Setup
+   public void setup() {
+      DictionaryConfiguration configuration = new DictionaryConfiguration();
+      configuration.setIndexType(DictionaryIndex.Type.forName(index));
+      service = new DictionaryService(configuration);
+      String[] keys = Entries.keys(size);
+      String[] values = Entries.values(size);
+      for (int i = 0; i < size; i++) {
+         service.add(keys[i], values[i]);
+      }
+   }
+
+   @Benchmark
+   public String list() {
+      return service.list();
+   }
+
+   @Benchmark
+   public String firstPage() {
+      return service.list(null, 100);
+   }
+
+}
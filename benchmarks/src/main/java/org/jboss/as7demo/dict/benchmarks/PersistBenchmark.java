@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jboss.as.controller.persistence.SubsystemMarshallingContext;
+import org.jboss.as7demo.dict.DictionaryExtension;
+import org.jboss.as7demo.dict.EntriesFile;
+import org.jboss.dmr.ModelNode;
+import org.jboss.staxmapper.XMLElementWriter;
+import org.jboss.staxmapper.XMLExtendedStreamWriter;
+import org.jboss.staxmapper.XMLMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of persisting a one entry change to disk: the subsystem element written to a file, with
+ * the entries inline or in an {@link EntriesFile} the change is appended to.
+ *
+ * @author Michal Linhard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class PersistBenchmark {
+
+   @Param({ "1000", "10000", "100000", "1000000" })
+   public int entries;
+
+   @Param({ "inline", "external" })
+   public String mode;
+
+   private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+   private XMLMapper mapper;
+   private ModelNode model;
+   private File xmlFile;
+   private File entriesPath;
+   private EntriesFile entriesFile;
+   private int version;
+
+   @Setup
+   public void setup() throws IOException {
+      mapper = XMLMapper.Factory.create();
+      mapper.registerRootElement(new QName(DictionaryExtension.NAMESPACE, "subsystem"), new DictionaryExtension());
+      String[] keys = Entries.keys(entries);
+      String[] values = Entries.values(entries);
+      model = new ModelNode();
+      Map<String, String> initial = new LinkedHashMap<String, String>();
+      for (int i = 0; i < entries; i++) {
+         model.get(DictionaryExtension.ENTRY, keys[i], DictionaryExtension.VALUE).set(values[i]);
+         initial.put(keys[i], values[i]);
+      }
+      xmlFile = File.createTempFile("dict-persist", ".xml");
+      if ("external".equals(mode)) {
+         entriesPath = File.createTempFile("dict-persist", ".entries");
+         entriesFile = new EntriesFile(entriesPath);
+         entriesFile.replaceAll(initial, Collections.<String, Long> emptyMap());
+         model.get(DictionaryExtension.ENTRIES_FILE).set(entriesPath.getPath());
+      }
+   }
+
+   @TearDown
+   public void tearDown() {
+      xmlFile.delete();
+      if (entriesPath != null) {
+         entriesPath.delete();
+      }
+   }
+
+   /**
+    * Changes one entry in the model and persists the configuration like the server does after
+    * the entry add operation.
+    */
+   @Benchmark
+   public void persistEntryChange() throws IOException, XMLStreamException {
+      String value = "changed " + version++;
+      model.get(DictionaryExtension.ENTRY, "changed-key", DictionaryExtension.VALUE).set(value);
+      if (entriesFile != null) {
+         entriesFile.write(Collections.singletonMap("changed-key", value), Collections.<String, Long> emptyMap());
+      }
+      Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(xmlFile), "UTF-8"));
+      try {
+         XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out);
+         mapper.deparseDocument(new XMLElementWriter<ModelNode>() {
+            @Override
+            public void writeContent(XMLExtendedStreamWriter streamWriter, ModelNode value) throws XMLStreamException {
+               new DictionaryExtension().writeContent(streamWriter, new SubsystemMarshallingContext(value, streamWriter));
+            }
+         }, model, writer);
+         writer.close();
+      } finally {
+         out.close();
+      }
+   }
+
+}
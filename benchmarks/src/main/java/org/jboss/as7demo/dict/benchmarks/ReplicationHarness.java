@@ -0,0 +1,269 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.as7demo.dict.DictionaryConfiguration;
+import org.jboss.as7demo.dict.DictionaryService;
+import org.jboss.as7demo.dict.Replicator;
+import org.jboss.as7demo.dict.WriteAheadLog;
+import org.jboss.msc.service.StartException;
+
+/**
+ * Replicated dictionaries of several nodes in one JVM, talking over loopback. Checks that the
+ * nodes converge in three phases and prints how long it took and how much anti-entropy moved:
+ * <ul>
+ * <li>drift: the nodes start with differing entries, as if from differing standalone.xml</li>
+ * <li>live: concurrent adds and removes on random nodes</li>
+ * <li>rejoin: a node is stopped, the others keep changing, the node restarts from its journal and
+ * catches up</li>
+ * </ul>
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.jboss.as7demo.dict.benchmarks.ReplicationHarness [nodes] [entries] [base port]
+ * </pre>
+ *
+ * @author Michal Linhard
+ */
+public class ReplicationHarness {
+   private static final long TIMEOUT = 60000;
+
+   private final int nodes;
+   private final int entries;
+   private final String[] binds;
+   private final String peers;
+   private final File[] journals;
+   private final DictionaryService[] services;
+   private final String[] keys;
+
+   ReplicationHarness(int nodes, int entries, int basePort) throws IOException {
+      this.nodes = nodes;
+      this.entries = entries;
+      binds = new String[nodes];
+      journals = new File[nodes];
+      services = new DictionaryService[nodes];
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < nodes; i++) {
+         binds[i] = "127.0.0.1:" + (basePort + i);
+         sb.append(i == 0 ? "" : ",").append(binds[i]);
+         journals[i] = File.createTempFile("dict-node" + i, ".journal");
+         journals[i].delete();
+      }
+      peers = sb.toString();
+      keys = Entries.keys(entries);
+   }
+
+   public static void main(String[] args) throws Exception {
+      int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+      int entries = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+      int basePort = args.length > 2 ? Integer.parseInt(args[2]) : 17600;
+      ReplicationHarness harness = new ReplicationHarness(nodes, entries, basePort);
+      boolean ok;
+      try {
+         ok = harness.run();
+      } finally {
+         harness.stopAll();
+      }
+      System.out.println(ok ? "OK" : "FAILED");
+      System.exit(ok ? 0 : 1);
+   }
+
+   boolean run() throws Exception {
+      // drift: the same entries with 1% of the values differing per node and some keys of its own
+      for (int i = 0; i < nodes; i++) {
+         Map<String, String> initial = new HashMap<String, String>();
+         Random random = new Random(i);
+         for (int k = 0; k < entries; k++) {
+            initial.put(keys[k], random.nextInt(100) == 0 ? "drifted on node " + i : "value " + k);
+         }
+         for (int k = 0; k < entries / 1000; k++) {
+            initial.put("node-" + i + "-" + k, "own");
+         }
+         start(i, initial);
+      }
+      if (!converge("drift")) {
+         return false;
+      }
+      printStats();
+
+      // live: concurrent changes on random nodes
+      long deltas = sentDeltas();
+      change(4, 2000, -1);
+      if (!converge("live")) {
+         return false;
+      }
+      System.out.printf("live: %d deltas sent%n", sentDeltas() - deltas);
+
+      // rejoin: node 1 misses changes while it's down
+      services[1].stop(null);
+      services[1] = null;
+      change(4, 2000, 1);
+      long exchanged = services[0].getReplicator().getSyncedEntries();
+      start(1, new HashMap<String, String>());
+      if (!converge("rejoin")) {
+         return false;
+      }
+      System.out.printf("rejoin: node 1 accepted %d newer entries for %d live ones, anti-entropy exchanged %d entries%n",
+               services[1].getReplicator().getRepairs(), services[1].size(),
+               services[1].getReplicator().getSyncedEntries() + services[0].getReplicator().getSyncedEntries() - exchanged);
+      printStats();
+      return sameEntries();
+   }
+
+   private void start(int node, Map<String, String> initial) throws StartException {
+      DictionaryConfiguration configuration = new DictionaryConfiguration();
+      configuration.setReplicationBind(binds[node]);
+      configuration.setReplicationPeers(peers);
+      configuration.setReplicationWindow(20);
+      configuration.setAntiEntropyInterval(1);
+      configuration.setJournal(journals[node]);
+      configuration.setDurability(WriteAheadLog.Durability.ASYNC);
+      configuration.setSnapshotInterval(0);
+      DictionaryService service = new DictionaryService("node" + node, configuration);
+      service.setInitialEntries(initial);
+      service.start(null);
+      services[node] = service;
+   }
+
+   /**
+    * Adds and removes random entries on random running nodes with the threads for the duration.
+    */
+   private void change(int threads, final long millis, final int skip) throws InterruptedException {
+      final AtomicBoolean failed = new AtomicBoolean();
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int t = 0; t < threads; t++) {
+         final Random random = new Random(1000 + t);
+         Thread worker = new Thread() {
+            @Override
+            public void run() {
+               long end = System.currentTimeMillis() + millis;
+               try {
+                  while (System.currentTimeMillis() < end) {
+                     int node = random.nextInt(nodes);
+                     if (node == skip) {
+                        continue;
+                     }
+                     String key = keys[random.nextInt(entries)];
+                     if (random.nextInt(4) == 0) {
+                        services[node].remove(key);
+                     } else {
+                        services[node].add(key, "changed " + random.nextInt());
+                     }
+                  }
+               } catch (RuntimeException e) {
+                  e.printStackTrace();
+                  failed.set(true);
+               }
+            }
+         };
+         workers.add(worker);
+         worker.start();
+      }
+      for (Thread worker : workers) {
+         worker.join();
+      }
+      if (failed.get()) {
+         throw new IllegalStateException("Changes failed");
+      }
+   }
+
+   private boolean converge(String phase) throws InterruptedException {
+      long start = System.currentTimeMillis();
+      while (System.currentTimeMillis() - start < TIMEOUT) {
+         boolean same = true;
+         for (int i = 1; i < nodes; i++) {
+            same &= services[i].getReplicator().getDigest() == services[0].getReplicator().getDigest();
+         }
+         if (same) {
+            System.out.printf("%s: converged in %d ms%n", phase, System.currentTimeMillis() - start);
+            return true;
+         }
+         Thread.sleep(10);
+      }
+      System.out.printf("%s: not converged in %d ms%n", phase, TIMEOUT);
+      return false;
+   }
+
+   private boolean sameEntries() {
+      Map<String, String> expected = entries(services[0]);
+      for (int i = 1; i < nodes; i++) {
+         if (!expected.equals(entries(services[i]))) {
+            System.out.printf("node %d differs from node 0%n", i);
+            return false;
+         }
+      }
+      System.out.printf("all %d nodes have the same %d entries%n", nodes, expected.size());
+      return true;
+   }
+
+   private static Map<String, String> entries(DictionaryService service) {
+      Map<String, String> result = new TreeMap<String, String>();
+      Iterator<Map.Entry<String, String>> it = service.iterator(null);
+      while (it.hasNext()) {
+         Map.Entry<String, String> entry = it.next();
+         result.put(entry.getKey(), entry.getValue());
+      }
+      return result;
+   }
+
+   private long sentDeltas() {
+      long sent = 0;
+      for (DictionaryService service : services) {
+         sent += service.getReplicator().getDeltasSent();
+      }
+      return sent;
+   }
+
+   private void printStats() {
+      for (DictionaryService service : services) {
+         Replicator replicator = service.getReplicator();
+         System.out.printf("  %s: %d entries, %d repaired, %d exchanged by anti-entropy%n", service.getName(), service.size(),
+                  replicator.getRepairs(), replicator.getSyncedEntries());
+      }
+   }
+
+   private void stopAll() {
+      for (int i = 0; i < nodes; i++) {
+         if (services[i] != null) {
+            services[i].stop(null);
+         }
+         File[] files = journals[i].listFiles();
+         if (files != null) {
+            for (File file : files) {
+               file.delete();
+            }
+         }
+         journals[i].delete();
+      }
+   }
+
+}
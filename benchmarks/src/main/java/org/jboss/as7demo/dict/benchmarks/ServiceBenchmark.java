@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.as7demo.dict.DictionaryConfiguration;
+import org.jboss.as7demo.dict.DictionaryService;
+import org.jboss.as7demo.dict.DictionaryStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mixed find/add/remove load on an unstarted {@link DictionaryService}. readPercent 90 is the
+ * read-heavy and 10 the write-heavy mix, the thread count is set with -t or {@link ThreadSweep}.
+ *
+ * @author Michal Linhard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+
+   @Param({ "map", "compact" })
+   public String storage;
+
+   @Param({ "100000" })
+   public int size;
+
+   @Param({ "90", "10" })
+   public int readPercent;
+
+   private DictionaryService service;
+   private String[] keys;
+   private String[] values;
+
+   @Setup
+   public void setup() {
+      DictionaryConfiguration configuration = new DictionaryConfiguration();
+      configuration.setStoreType(DictionaryStore.Type.forName(storage));
+      service = new DictionaryService(configuration);
+      keys = Entries.keys(size);
+      values = Entries.values(size);
+      for (int i = 0; i < size; i++) {
+         service.add(keys[i], values[i]);
+      }
+   }
+
+   /**
+    * Per thread xorshift generator, keeps the random numbers out of the measurement.
+    */
+   @State(Scope.Thread)
+   public static class Random {
+      private int seed = (int) System.nanoTime() | 1;
+
+      int next() {
+         seed ^= seed << 13;
+         seed ^= seed >>> 17;
+         seed ^= seed << 5;
+         return seed & Integer.MAX_VALUE;
+      }
+   }
+
+   @Benchmark
+   public String mixed(Random random) {
+      int r = random.next();
+      int i = r % size;
+      if (r % 100 < readPercent) {
+         return service.find(keys[i]);
+      }
+      // half of the writes remove, the other half add the key back
+      if ((r & 1) == 0) {
+         service.remove(keys[i]);
+      } else {
+         service.add(keys[i], values[i]);
+      }
+      return null;
+   }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.as7demo.dict.FileDictionaryLoader;
+
+/**
+ * Data file loader that waits {@link #latencyMicros} per call, standing in for a remote backing
+ * store, and counts the calls and the keys it was asked for.
+ *
+ * @author Michal Linhard
+ */
+public class SlowFileLoader extends FileDictionaryLoader {
+
+   static volatile long latencyMicros = 1000;
+   static final AtomicLong calls = new AtomicLong();
+   static final AtomicLong keys = new AtomicLong();
+
+   @Override
+   public String load(String key) throws IOException {
+      roundTrip(1);
+      return super.load(key);
+   }
+
+   @Override
+   public Map<String, String> loadAll(Collection<String> keys) throws IOException {
+      roundTrip(keys.size());
+      return super.loadAll(keys);
+   }
+
+   private static void roundTrip(int count) throws IOException {
+      calls.incrementAndGet();
+      keys.addAndGet(count);
+      try {
+         TimeUnit.MICROSECONDS.sleep(latencyMicros);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException();
+      }
+   }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks (ServiceBenchmark by default) with 1, 2, 4 ... 64 threads and
+ * prints the score per thread count. Accepts the usual JMH command line options.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.jboss.as7demo.dict.benchmarks.ThreadSweep [jmh options] [regexp]
+ * </pre>
+ *
+ * @author Michal Linhard
+ */
+public class ThreadSweep {
+
+   private static final int MAX_THREADS = 64;
+
+   public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+      CommandLineOptions options = new CommandLineOptions(args);
+      StringBuilder summary = new StringBuilder();
+      for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+         OptionsBuilder builder = new OptionsBuilder();
+         builder.parent(options);
+         if (options.getIncludes().isEmpty()) {
+            builder.include(ServiceBenchmark.class.getSimpleName());
+         }
+         builder.threads(threads);
+         Collection<RunResult> results = new Runner(builder.build()).run();
+         for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            StringBuilder name = new StringBuilder(params.getBenchmark());
+            for (String key : params.getParamsKeys()) {
+               name.append(' ').append(key).append('=').append(params.getParam(key));
+            }
+            summary.append(String.format("%2d threads %s: %.3f %s%n", threads, name,
+                     result.getPrimaryResult().getScore(), result.getPrimaryResult().getScoreUnit()));
+         }
+      }
+      System.out.print(summary);
+   }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.as7demo.dict.DictionaryConfiguration;
+import org.jboss.as7demo.dict.DictionaryService;
+import org.jboss.as7demo.dict.DictionaryTransfer;
+import org.jboss.msc.service.StartException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link DictionaryTransfer} export of a dictionary to a file and import of the file into an
+ * empty dictionary, in both formats.
+ *
+ * @author Michal Linhard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class TransferBenchmark {
+
+   @Param({ "100000", "1000000" })
+   public int entries;
+
+   @Param({ "csv", "binary" })
+   public String format;
+
+   private DictionaryService source;
+   private DictionaryService target;
+   private File file;
+
+   @Setup
+   public void setup() throws IOException, StartException {
+      source = new DictionaryService("transfer-source", new DictionaryConfiguration());
+      source.start(null);
+      String[] keys = Entries.keys(entries);
+      String[] values = Entries.values(entries);
+      for (int i = 0; i < entries; i++) {
+         source.add(keys[i], values[i]);
+      }
+      file = File.createTempFile("dict-transfer", "." + format);
+      new DictionaryTransfer(source, file, DictionaryTransfer.Format.forName(format)).exportEntries(null);
+   }
+
+   @Setup(Level.Invocation)
+   public void createTarget() throws StartException {
+      target = new DictionaryService("transfer-target", new DictionaryConfiguration());
+      target.start(null);
+   }
+
+   @TearDown(Level.Invocation)
+   public void stopTarget() {
+      target.stop(null);
+   }
+
+   @TearDown
+   public void tearDown() {
+      source.stop(null);
+      file.delete();
+   }
+
+   @Benchmark
+   public long exportEntries() throws IOException {
+      return new DictionaryTransfer(source, file, DictionaryTransfer.Format.forName(format)).exportEntries(null);
+   }
+
+   @Benchmark
+   public long importEntries() throws IOException {
+      return new DictionaryTransfer(target, file, DictionaryTransfer.Format.forName(format)).importEntries();
+   }
+
+}
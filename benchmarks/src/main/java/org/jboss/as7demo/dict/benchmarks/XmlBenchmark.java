@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict.benchmarks;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
+import org.jboss.as.controller.operations.common.Util;
+import org.jboss.as.controller.parsing.ParseUtils;
+import org.jboss.as.controller.persistence.SubsystemMarshallingContext;
+import org.jboss.as7demo.dict.DictionaryExtension;
+import org.jboss.as7demo.dict.EntryBuffer;
+import org.jboss.dmr.ModelNode;
+import org.jboss.staxmapper.XMLElementReader;
+import org.jboss.staxmapper.XMLElementWriter;
+import org.jboss.staxmapper.XMLExtendedStreamReader;
+import org.jboss.staxmapper.XMLExtendedStreamWriter;
+import org.jboss.staxmapper.XMLMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and marshalling of generated subsystem configurations through the same staxmapper
+ * entry points the server uses, {@link DictionaryExtension#readElement} and
+ * {@link DictionaryExtension#writeContent}. The parser is compared with the previous one that
+ * required the entry attributes one by one, alone and followed by what the add operation does
+ * with the entries at boot: the entry sub-tree of the model and the initial entries of the
+ * service, once from a single pass into an {@link EntryBuffer} and once with a model lookup per
+ * entry and use.
+ *
+ * @author Michal Linhard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class XmlBenchmark {
+
+   @Param({ "1000", "10000", "100000", "1000000" })
+   public int entries;
+
+   private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+   private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+   private XMLMapper mapper;
+   private XMLMapper modelNodeMapper;
+   private String xml;
+   private ModelNode model;
+
+   @Setup
+   public void setup() throws XMLStreamException {
+      mapper = XMLMapper.Factory.create();
+      mapper.registerRootElement(new QName(DictionaryExtension.NAMESPACE, "subsystem"), new DictionaryExtension());
+      modelNodeMapper = XMLMapper.Factory.create();
+      modelNodeMapper.registerRootElement(new QName(DictionaryExtension.NAMESPACE, "subsystem"), new ModelNodeParser());
+      String[] keys = Entries.keys(entries);
+      String[] values = Entries.values(entries);
+      StringWriter sw = new StringWriter(entries * 64);
+      XMLStreamWriter writer = outputFactory.createXMLStreamWriter(sw);
+      writer.writeStartElement("subsystem");
+      writer.writeDefaultNamespace(DictionaryExtension.NAMESPACE);
+      for (int i = 0; i < entries; i++) {
+         writer.writeEmptyElement(DictionaryExtension.ENTRY);
+         writer.writeAttribute(DictionaryExtension.KEY, keys[i]);
+         writer.writeAttribute(DictionaryExtension.VALUE, values[i]);
+      }
+      writer.writeEndElement();
+      writer.close();
+      xml = sw.toString();
+      // the subsystem model as the server builds it from the parsed add operation
+      model = new ModelNode();
+      for (int i = 0; i < entries; i++) {
+         model.get(DictionaryExtension.ENTRY, keys[i], DictionaryExtension.VALUE).set(values[i]);
+      }
+   }
+
+   @Benchmark
+   public List<ModelNode> readElement() throws XMLStreamException {
+      List<ModelNode> operations = new ArrayList<ModelNode>();
+      mapper.parseDocument(operations, inputFactory.createXMLStreamReader(new StringReader(xml)));
+      return operations;
+   }
+
+   @Benchmark
+   public List<ModelNode> readElementModelNodes() throws XMLStreamException {
+      List<ModelNode> operations = new ArrayList<ModelNode>();
+      modelNodeMapper.parseDocument(operations, inputFactory.createXMLStreamReader(new StringReader(xml)));
+      return operations;
+   }
+
+   /**
+    * Parses the configuration, then creates the entry sub-tree and the map of the initial entries
+    * from the entries of the add operation as the add operation does.
+    */
+   @Benchmark
+   public Map<String, String> boot() throws XMLStreamException {
+      ModelNode operation = readElement().get(0);
+      ModelNode entriesNode = operation.get(DictionaryExtension.ENTRIES);
+      Set<String> keys = entriesNode.keys();
+      EntryBuffer entries = new EntryBuffer(keys.size());
+      for (String key : keys) {
+         entries.add(key, entriesNode.get(key).asString(), -1);
+      }
+      ModelNode subsystemModel = new ModelNode();
+      entries.populate(subsystemModel.get(DictionaryExtension.ENTRY).setEmptyObject());
+      return entries.toMap();
+   }
+
+   @Benchmark
+   public Map<String, String> bootModelNodes() throws XMLStreamException {
+      ModelNode operation = readElementModelNodes().get(0);
+      ModelNode entries = operation.get(DictionaryExtension.ENTRIES);
+      ModelNode subsystemModel = new ModelNode();
+      ModelNode entryModel = subsystemModel.get(DictionaryExtension.ENTRY).setEmptyObject();
+      Map<String, String> result = new HashMap<String, String>();
+      for (String key : entries.keys()) {
+         entryModel.get(key).get(DictionaryExtension.VALUE).set(entries.get(key));
+         result.put(key, entries.get(key).asString());
+      }
+      return result;
+   }
+
+   @Benchmark
+   public long writeContent() throws XMLStreamException {
+      CountingWriter out = new CountingWriter();
+      XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out);
+      mapper.deparseDocument(new XMLElementWriter<ModelNode>() {
+         @Override
+         public void writeContent(XMLExtendedStreamWriter streamWriter, ModelNode value) throws XMLStreamException {
+            new DictionaryExtension().writeContent(streamWriter, new SubsystemMarshallingContext(value, streamWriter));
+         }
+      }, model, writer);
+      writer.close();
+      return out.count;
+   }
+
+   /**
+    * The entry parsing as it was before the single attribute pass: the attributes required one by
+    * one, a duplicate check and a model node per entry in the entries parameter.
+    */
+   private static class ModelNodeParser implements XMLElementReader<List<ModelNode>> {
+
+      @Override
+      public void readElement(XMLExtendedStreamReader reader, List<ModelNode> operations) throws XMLStreamException {
+         ModelNode address = new ModelNode();
+         address.add(ModelDescriptionConstants.SUBSYSTEM, DictionaryExtension.SUBSYSTEM_NAME);
+         ModelNode subsystem = Util.getEmptyOperation(ModelDescriptionConstants.ADD, address);
+         operations.add(subsystem);
+         ModelNode entries = subsystem.get(DictionaryExtension.ENTRIES).setEmptyObject();
+         while (reader.hasNext() && reader.nextTag() != XMLStreamConstants.END_ELEMENT) {
+            String[] attributes = ParseUtils.requireAttributes(reader, DictionaryExtension.KEY, DictionaryExtension.VALUE);
+            if (entries.has(attributes[0])) {
+               throw ParseUtils.duplicateNamedElement(reader, attributes[0]);
+            }
+            entries.get(attributes[0]).set(attributes[1]);
+            ParseUtils.requireNoContent(reader);
+         }
+      }
+   }
+
+   /**
+    * Discards the output so that only the marshalling is measured.
+    */
+   private static class CountingWriter extends Writer {
+      long count;
+
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+         count += len;
+      }
+
+      @Override
+      public void write(String str, int off, int len) {
+         count += len;
+      }
+
+      @Override
+      public void write(int c) {
+         count++;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the dictionary keys, answers "definitely absent" for most of the keys that were
+ * never put. Thread safe, a put is visible to the lookups that start after it returns. Keys can't
+ * be taken out, the owner replaces the filter once enough of its keys were removed.
+ *
+ * @author Michal Linhard
+ */
+public class BloomFilter {
+   private static final double LN2 = Math.log(2);
+
+   private final AtomicLongArray words;
+   private final long bitCount;
+   private final int hashes;
+   private final long capacity;
+   private final StripedCounter puts = new StripedCounter();
+
+   /**
+    * @param capacity number of keys the filter is sized for
+    * @param fpRate false positive rate at the capacity, between 0 and 1
+    */
+   public BloomFilter(long capacity, double fpRate) {
+      if (capacity <= 0) {
+         throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+      }
+      if (!(fpRate > 0 && fpRate < 1)) {
+         throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + fpRate);
+      }
+      long bits = (long) Math.ceil(-capacity * Math.log(fpRate) / (LN2 * LN2));
+      int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + 63) >>> 6));
+      this.words = new AtomicLongArray(wordCount);
+      this.bitCount = (long) wordCount << 6;
+      this.hashes = Math.max(1, (int) Math.round((double) bitCount / capacity * LN2));
+      this.capacity = capacity;
+   }
+
+   public void put(String key) {
+      long h = hash(key);
+      long h1 = h >>> 32;
+      long h2 = h & 0xffffffffL;
+      for (int i = 0; i < hashes; i++) {
+         long bit = (h1 + i * h2) % bitCount;
+         int word = (int) (bit >>> 6);
+         long mask = 1L << bit;
+         long current = words.get(word);
+         while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+            current = words.get(word);
+         }
+      }
+      puts.increment();
+   }
+
+   /**
+    * @return false if the key was never put, true if it probably was
+    */
+   public boolean mightContain(String key) {
+      long h = hash(key);
+      long h1 = h >>> 32;
+      long h2 = h & 0xffffffffL;
+      for (int i = 0; i < hashes; i++) {
+         long bit = (h1 + i * h2) % bitCount;
+         if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @return number of puts, repeated puts of a key included
+    */
+   public long getPuts() {
+      return puts.sum();
+   }
+
+   public long getCapacity() {
+      return capacity;
+   }
+
+   public int getHashes() {
+      return hashes;
+   }
+
+   /**
+    * @return bytes of the bit array
+    */
+   public long getMemory() {
+      return bitCount >>> 3;
+   }
+
+   /**
+    * 64 bit FNV-1a of the characters with the murmur3 finalizer, String.hashCode() has too few
+    * bits for large filters.
+    */
+   static long hash(String key) {
+      long h = 0xcbf29ce484222325L;
+      for (int i = 0; i < key.length(); i++) {
+         h = (h ^ key.charAt(i)) * 0x100000001b3L;
+      }
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      // the low half is the probe step, never 0
+      return h | 1;
+   }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Delivers the dictionary changes to the listeners. Each listener has its own map of pending
+ * changes where repeated changes of a key overwrite each other, the map is handed to the listener
+ * one window after its first change on a small bounded pool, at most one delivery per listener at
+ * a time. Writers only put into the pending maps, a listener that can't keep up loses its pending
+ * changes once they exceed the capacity and is told so by
+ * {@link DictionaryListener#changesDropped()}.
+ *
+ * @author Michal Linhard
+ */
+public class ChangeNotifier {
+   private static final Logger log = Logger.getLogger(ChangeNotifier.class.getPackage().getName());
+   private static final int THREADS = 2;
+   private static final int QUEUE_SIZE = 1024;
+   private static final Subscription[] NONE = new Subscription[0];
+
+   private final long window;
+   private final int capacity;
+   private volatile Subscription[] subscriptions = NONE;
+   private volatile ScheduledExecutorService timer;
+   private volatile ThreadPoolExecutor delivery;
+
+   /**
+    * @param window coalescing window in milliseconds
+    * @param capacity maximum number of pending keys per listener
+    */
+   public ChangeNotifier(long window, int capacity) {
+      this.window = window;
+      this.capacity = capacity;
+   }
+
+   /**
+    * Starts the delivery threads, changes made before aren't delivered.
+    */
+   public void open(final String name) {
+      final AtomicInteger count = new AtomicInteger();
+      ThreadFactory threadFactory = new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-notifier-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+      ThreadPoolExecutor newDelivery = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+               new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), threadFactory);
+      newDelivery.allowCoreThreadTimeOut(true);
+      delivery = newDelivery;
+      timer = new ScheduledThreadPoolExecutor(1, threadFactory);
+   }
+
+   public void close() {
+      if (timer != null) {
+         timer.shutdownNow();
+         timer = null;
+      }
+      if (delivery != null) {
+         delivery.shutdownNow();
+         delivery = null;
+      }
+      for (Subscription subscription : subscriptions) {
+         subscription.reset();
+      }
+   }
+
+   public synchronized void addListener(DictionaryListener listener) {
+      Subscription[] current = subscriptions;
+      Subscription[] updated = new Subscription[current.length + 1];
+      System.arraycopy(current, 0, updated, 0, current.length);
+      updated[current.length] = new Subscription(listener);
+      subscriptions = updated;
+   }
+
+   public synchronized void removeListener(DictionaryListener listener) {
+      Subscription[] current = subscriptions;
+      for (int i = 0; i < current.length; i++) {
+         if (current[i].listener == listener) {
+            Subscription[] updated = new Subscription[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, i);
+            System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+            subscriptions = updated;
+            return;
+         }
+      }
+   }
+
+   /**
+    * Called by the writer holding the key's lock, so that the pending maps keep the last value.
+    *
+    * @param value new value, null for a removal
+    */
+   public void changed(String key, String value) {
+      if (timer == null) {
+         return;
+      }
+      for (Subscription subscription : subscriptions) {
+         subscription.changed(key, value);
+      }
+   }
+
+   /**
+    * @param changes new values by key, null values for removals
+    */
+   public void changed(Map<String, String> changes) {
+      if (timer == null) {
+         return;
+      }
+      for (Subscription subscription : subscriptions) {
+         for (Map.Entry<String, String> change : changes.entrySet()) {
+            subscription.changed(change.getKey(), change.getValue());
+         }
+      }
+   }
+
+   private class Subscription implements Runnable {
+      private final DictionaryListener listener;
+      private Map<String, String> pending = new LinkedHashMap<String, String>();
+      private boolean dropped;
+      /**
+       * Whether a delivery is scheduled or running.
+       */
+      private boolean scheduled;
+
+      Subscription(DictionaryListener listener) {
+         this.listener = listener;
+      }
+
+      synchronized void changed(String key, String value) {
+         if (dropped) {
+            return;
+         }
+         if (pending.size() >= capacity && !pending.containsKey(key)) {
+            dropped = true;
+            pending.clear();
+         } else {
+            pending.put(key, value);
+         }
+         if (!scheduled) {
+            scheduled = schedule();
+         }
+      }
+
+      synchronized void reset() {
+         pending.clear();
+         dropped = false;
+         scheduled = false;
+      }
+
+      /**
+       * @return false if the notifier is closed
+       */
+      private boolean schedule() {
+         ScheduledExecutorService currentTimer = timer;
+         if (currentTimer == null) {
+            return false;
+         }
+         try {
+            currentTimer.schedule(new Runnable() {
+               @Override
+               public void run() {
+                  submit();
+               }
+            }, window, TimeUnit.MILLISECONDS);
+            return true;
+         } catch (RejectedExecutionException e) {
+            return false;
+         }
+      }
+
+      private void submit() {
+         ThreadPoolExecutor currentDelivery = delivery;
+         try {
+            if (currentDelivery != null) {
+               currentDelivery.execute(this);
+               return;
+            }
+         } catch (RejectedExecutionException e) {
+            // the pool is busy, keep coalescing and try again later
+         }
+         synchronized (this) {
+            scheduled = schedule();
+         }
+      }
+
+      @Override
+      public void run() {
+         Map<String, String> changes;
+         boolean wasDropped;
+         synchronized (this) {
+            changes = pending;
+            wasDropped = dropped;
+            pending = new LinkedHashMap<String, String>();
+            dropped = false;
+         }
+         try {
+            if (wasDropped) {
+               listener.changesDropped();
+            } else if (!changes.isEmpty()) {
+               listener.entriesChanged(Collections.unmodifiableMap(changes));
+            }
+         } catch (Throwable t) {
+            log.error("Dictionary listener " + listener + " failed", t);
+         }
+         synchronized (this) {
+            scheduled = (!pending.isEmpty() || dropped) && schedule();
+         }
+      }
+   }
+
+}
@@ -0,0 +1,389 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Store packing the keys and values as UTF-8 bytes into per segment arenas, either on the heap
+ * or off-heap in direct buffers. Each segment has an open addressing (linear probing) table of
+ * record offsets, so an entry costs its encoded bytes plus about 20 bytes instead of several objects.
+ * <p>
+ * Record layout in the arena: key length int, value length int, key bytes, value bytes. Replaced
+ * and removed records become garbage that is reclaimed by compacting the arena when it has to
+ * grow.
+ *
+ * @author Michal Linhard
+ */
+public class CompactStore implements DictionaryStore {
+   private static final int SEGMENT_BITS = 5;
+   private static final int INITIAL_SLOTS = 64;
+   private static final int INITIAL_ARENA = 4096;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+   public CompactStore(boolean direct) {
+      for (int i = 0; i < segments.length; i++) {
+         segments[i] = new Segment(direct);
+      }
+   }
+
+   @Override
+   public String get(String key) {
+      int hash = hash(key);
+      return segmentFor(hash).get(key.getBytes(UTF8), hash);
+   }
+
+   @Override
+   public boolean put(String key, String value) {
+      int hash = hash(key);
+      return segmentFor(hash).put(key.getBytes(UTF8), value.getBytes(UTF8), hash);
+   }
+
+   @Override
+   public boolean remove(String key) {
+      int hash = hash(key);
+      return segmentFor(hash).remove(key.getBytes(UTF8), hash);
+   }
+
+   @Override
+   public int size() {
+      int size = 0;
+      for (Segment segment : segments) {
+         size += segment.count;
+      }
+      return size;
+   }
+
+   @Override
+   public Iterator<String> keys() {
+      return new KeyIterator();
+   }
+
+   @Override
+   public long getPayloadSize() {
+      long payload = 0;
+      for (Segment segment : segments) {
+         payload += segment.payload;
+      }
+      return payload;
+   }
+
+   @Override
+   public long getMemoryFootprint() {
+      long footprint = 0;
+      for (Segment segment : segments) {
+         footprint += segment.getFootprint();
+      }
+      return footprint;
+   }
+
+   private static int hash(String key) {
+      int h = key.hashCode();
+      return h ^ (h >>> 16);
+   }
+
+   private Segment segmentFor(int hash) {
+      return segments[hash >>> (32 - SEGMENT_BITS)];
+   }
+
+   private static final class Segment {
+      private final ReadWriteLock lock = new ReentrantReadWriteLock();
+      private final boolean direct;
+      /** record offset + 1, 0 marks an empty slot */
+      private int[] slots = new int[INITIAL_SLOTS];
+      private int[] hashes = new int[INITIAL_SLOTS];
+      private ByteBuffer arena;
+      private int top;
+      private int garbage;
+      volatile int count;
+      volatile long payload;
+
+      Segment(boolean direct) {
+         this.direct = direct;
+         this.arena = allocate(INITIAL_ARENA);
+      }
+
+      String get(byte[] key, int hash) {
+         lock.readLock().lock();
+         try {
+            int slot = find(key, hash);
+            if (slot < 0) {
+               return null;
+            }
+            int offset = slots[slot] - 1;
+            int keyLength = arena.getInt(offset);
+            return decode(offset + 8 + keyLength, arena.getInt(offset + 4));
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      boolean put(byte[] key, byte[] value, int hash) {
+         lock.writeLock().lock();
+         try {
+            int slot = find(key, hash);
+            if (slot >= 0) {
+               int offset = slots[slot] - 1;
+               int oldLength = arena.getInt(offset + 4);
+               payload += value.length - oldLength;
+               if (oldLength == value.length) {
+                  write(offset + 8 + key.length, value);
+               } else {
+                  // append first, compaction would reset the garbage counter
+                  slots[slot] = append(key, value) + 1;
+                  garbage += 8 + key.length + oldLength;
+               }
+               return false;
+            }
+            if ((count + 1) * 4L > slots.length * 3L) {
+               rehash(slots.length * 2);
+               slot = find(key, hash);
+            }
+            slot = -slot - 1;
+            slots[slot] = append(key, value) + 1;
+            hashes[slot] = hash;
+            count++;
+            payload += key.length + value.length;
+            return true;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      boolean remove(byte[] key, int hash) {
+         lock.writeLock().lock();
+         try {
+            int slot = find(key, hash);
+            if (slot < 0) {
+               return false;
+            }
+            int offset = slots[slot] - 1;
+            int size = 8 + arena.getInt(offset) + arena.getInt(offset + 4);
+            garbage += size;
+            payload -= size - 8;
+            count--;
+            deleteSlot(slot);
+            return true;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      void collectKeys(List<String> keys) {
+         lock.readLock().lock();
+         try {
+            for (int slot : slots) {
+               if (slot != 0) {
+                  keys.add(decode(slot - 1 + 8, arena.getInt(slot - 1)));
+               }
+            }
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      long getFootprint() {
+         lock.readLock().lock();
+         try {
+            return arena.capacity() + 8L * slots.length;
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      /**
+       * @return slot of the key or (-(free slot) - 1)
+       */
+      private int find(byte[] key, int hash) {
+         int mask = slots.length - 1;
+         int i = hash & mask;
+         while (slots[i] != 0) {
+            if (hashes[i] == hash && keyEquals(slots[i] - 1, key)) {
+               return i;
+            }
+            i = (i + 1) & mask;
+         }
+         return -i - 1;
+      }
+
+      private boolean keyEquals(int offset, byte[] key) {
+         if (arena.getInt(offset) != key.length) {
+            return false;
+         }
+         int start = offset + 8;
+         for (int i = 0; i < key.length; i++) {
+            if (arena.get(start + i) != key[i]) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      /**
+       * Backward shift deletion, keeps the probe sequences intact without tombstones.
+       */
+      private void deleteSlot(int slot) {
+         int mask = slots.length - 1;
+         int i = slot;
+         int j = slot;
+         while (true) {
+            j = (j + 1) & mask;
+            if (slots[j] == 0) {
+               break;
+            }
+            int home = hashes[j] & mask;
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+               slots[i] = slots[j];
+               hashes[i] = hashes[j];
+               i = j;
+            }
+         }
+         slots[i] = 0;
+         hashes[i] = 0;
+      }
+
+      private void rehash(int capacity) {
+         int[] oldSlots = slots;
+         int[] oldHashes = hashes;
+         slots = new int[capacity];
+         hashes = new int[capacity];
+         int mask = capacity - 1;
+         for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != 0) {
+               int j = oldHashes[i] & mask;
+               while (slots[j] != 0) {
+                  j = (j + 1) & mask;
+               }
+               slots[j] = oldSlots[i];
+               hashes[j] = oldHashes[i];
+            }
+         }
+      }
+
+      private int append(byte[] key, byte[] value) {
+         int size = 8 + key.length + value.length;
+         if (top + size > arena.capacity()) {
+            grow(size);
+         }
+         int offset = top;
+         arena.putInt(offset, key.length);
+         arena.putInt(offset + 4, value.length);
+         write(offset + 8, key);
+         write(offset + 8 + key.length, value);
+         top += size;
+         return offset;
+      }
+
+      /**
+       * Makes room for a record, reclaiming the garbage when it makes up at least half of the
+       * arena.
+       */
+      private void grow(int size) {
+         int live = top - garbage;
+         long capacity = arena.capacity();
+         if (garbage < capacity / 2 || live + size > capacity) {
+            capacity = Math.max(capacity * 2, (long) live + size);
+         }
+         if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Dictionary segment is full");
+         }
+         ByteBuffer target = allocate((int) capacity);
+         int position = 0;
+         for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != 0) {
+               int offset = slots[i] - 1;
+               int recordSize = 8 + arena.getInt(offset) + arena.getInt(offset + 4);
+               for (int b = 0; b < recordSize; b++) {
+                  target.put(position + b, arena.get(offset + b));
+               }
+               slots[i] = position + 1;
+               position += recordSize;
+            }
+         }
+         arena = target;
+         top = position;
+         garbage = 0;
+      }
+
+      private void write(int offset, byte[] bytes) {
+         for (int i = 0; i < bytes.length; i++) {
+            arena.put(offset + i, bytes[i]);
+         }
+      }
+
+      private String decode(int offset, int length) {
+         byte[] bytes = new byte[length];
+         for (int i = 0; i < length; i++) {
+            bytes[i] = arena.get(offset + i);
+         }
+         return new String(bytes, UTF8);
+      }
+
+      private ByteBuffer allocate(int capacity) {
+         return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+      }
+   }
+
+   /**
+    * Decodes the keys one segment at a time, so only the keys of a single segment are held in
+    * memory. Weakly consistent like the other stores, each segment is read under its read lock.
+    */
+   private final class KeyIterator implements Iterator<String> {
+      private final List<String> keys = new ArrayList<String>();
+      private int segment;
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+         while (next == keys.size() && segment < segments.length) {
+            keys.clear();
+            next = 0;
+            segments[segment++].collectKeys(keys);
+         }
+         return next < keys.size();
+      }
+
+      @Override
+      public String next() {
+         if (!hasNext()) {
+            throw new NoSuchElementException();
+         }
+         return keys.get(next++);
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+}
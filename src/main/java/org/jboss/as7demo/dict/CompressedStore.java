@@ -0,0 +1,445 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Store compressing the values with raw deflate and a preset dictionary shared by all entries, so
+ * that long similar values (URLs, JSON fragments) only pay for what differs between them. The
+ * dictionary is trained from the first values of at least threshold characters: the sample
+ * segments sharing the most substrings with the other samples are concatenated, the most useful
+ * last where deflate finds them closest. Values shorter than the threshold, values written before
+ * the training and values that don't shrink are kept as strings.
+ * <p>
+ * Packed value layout: character count varint, UTF-8 length varint, deflated UTF-8 bytes. The
+ * last decoded values are kept in a small direct-mapped cache checked by the identity of the
+ * packed array, so a replaced value is never served from it.
+ *
+ * @author Michal Linhard
+ */
+public class CompressedStore implements DictionaryStore {
+   public static final int DEFAULT_THRESHOLD = 64;
+   public static final int DEFAULT_CACHE_SIZE = 1024;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+   /**
+    * Maximum size of the trained dictionary, deflate can refer 32 KB back.
+    */
+   static final int DICTIONARY_SIZE = 16 * 1024;
+   private static final int SAMPLES = 256;
+   private static final int SAMPLE_BYTES = 256 * 1024;
+   /**
+    * Length of the substrings counted by the training.
+    */
+   private static final int GRAM = 8;
+   /**
+    * Length of the sample segments the dictionary is made of.
+    */
+   private static final int SEGMENT = 64;
+
+   /**
+    * Values by key, either strings or packed byte arrays.
+    */
+   private final ConcurrentMap<String, Object> map = new ConcurrentHashMap<String, Object>();
+   private final int threshold;
+   private final Hot[] hot;
+   private final LatencyHistogram decodeLatency;
+   private volatile byte[] dictionary;
+   private final Object training = new Object();
+   /**
+    * Values collected for the training, null once the dictionary is trained.
+    */
+   private List<byte[]> samples = new ArrayList<byte[]>();
+   private int sampleBytes;
+   private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+   private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+   private final AtomicLong keyChars = new AtomicLong();
+   private final AtomicLong rawChars = new AtomicLong();
+   private final AtomicLong packedChars = new AtomicLong();
+   private final AtomicLong packedBytes = new AtomicLong();
+   private final AtomicLong packedOriginalBytes = new AtomicLong();
+
+   public CompressedStore() {
+      this(DEFAULT_THRESHOLD, DEFAULT_CACHE_SIZE, new LatencyHistogram());
+   }
+
+   /**
+    * @param threshold minimum length of the compressed values in characters
+    * @param cacheSize number of decoded values cached, rounded up to a power of two
+    * @param decodeLatency records the decoding of the values missing in the cache
+    */
+   public CompressedStore(int threshold, int cacheSize, LatencyHistogram decodeLatency) {
+      this.threshold = threshold;
+      this.hot = new Hot[cacheSize <= 1 ? 1 : Integer.highestOneBit(cacheSize - 1) << 1];
+      this.decodeLatency = decodeLatency;
+   }
+
+   @Override
+   public String get(String key) {
+      Object stored = map.get(key);
+      if (!(stored instanceof byte[])) {
+         return (String) stored;
+      }
+      byte[] packed = (byte[]) stored;
+      int slot = hash(key) & (hot.length - 1);
+      Hot cached = hot[slot];
+      if (cached != null && cached.packed == packed) {
+         return cached.value;
+      }
+      long start = System.nanoTime();
+      String value = decode(packed);
+      decodeLatency.record(System.nanoTime() - start);
+      hot[slot] = new Hot(packed, value);
+      return value;
+   }
+
+   @Override
+   public boolean put(String key, String value) {
+      byte[] dict = dictionary;
+      Object encoded = encode(value, dict);
+      Object old = map.put(key, encoded);
+      if (old == null) {
+         keyChars.addAndGet(key.length());
+      } else {
+         account(old, -1);
+      }
+      account(encoded, 1);
+      if (dict == null && encoded == value && value.length() >= threshold && dictionary != null) {
+         // trained by a concurrent writer after this value was encoded
+         recompress(key, value);
+      }
+      return old == null;
+   }
+
+   @Override
+   public boolean remove(String key) {
+      Object old = map.remove(key);
+      if (old != null) {
+         keyChars.addAndGet(-key.length());
+         account(old, -1);
+      }
+      return old != null;
+   }
+
+   @Override
+   public int size() {
+      return map.size();
+   }
+
+   @Override
+   public Iterator<String> keys() {
+      return map.keySet().iterator();
+   }
+
+   @Override
+   public long getPayloadSize() {
+      return keyChars.get() + rawChars.get() + packedChars.get();
+   }
+
+   @Override
+   public long getMemoryFootprint() {
+      byte[] dict = dictionary;
+      return (long) map.size() * MapStore.ENTRY_OVERHEAD + 2 * (keyChars.get() + rawChars.get()) + packedBytes.get()
+               + (dict == null ? 0 : dict.length);
+   }
+
+   /**
+    * @return UTF-8 size of the values divided by their stored size, raw values counted by their
+    *         length in both
+    */
+   public double getCompressionRatio() {
+      long raw = rawChars.get();
+      long stored = raw + packedBytes.get();
+      return stored == 0 ? 1 : (double) (raw + packedOriginalBytes.get()) / stored;
+   }
+
+   /**
+    * @return size of the trained dictionary, 0 before the training
+    */
+   public int getDictionarySize() {
+      byte[] dict = dictionary;
+      return dict == null ? 0 : dict.length;
+   }
+
+   private void account(Object stored, int sign) {
+      if (stored instanceof byte[]) {
+         byte[] packed = (byte[]) stored;
+         int[] header = readHeader(packed);
+         packedChars.addAndGet(sign * header[0]);
+         packedOriginalBytes.addAndGet(sign * header[1]);
+         packedBytes.addAndGet(sign * packed.length);
+      } else {
+         rawChars.addAndGet(sign * ((String) stored).length());
+      }
+   }
+
+   /**
+    * @return packed bytes, or the value itself if it stays a string
+    */
+   private Object encode(String value, byte[] dict) {
+      if (value.length() < threshold) {
+         return value;
+      }
+      byte[] bytes = value.getBytes(UTF8);
+      if (dict == null) {
+         sample(bytes);
+         return value;
+      }
+      byte[] packed = compress(value.length(), bytes, dict);
+      return packed != null ? packed : value;
+   }
+
+   private void sample(byte[] bytes) {
+      synchronized (training) {
+         if (samples == null) {
+            return;
+         }
+         samples.add(bytes);
+         sampleBytes += bytes.length;
+         if (samples.size() < SAMPLES && sampleBytes < SAMPLE_BYTES) {
+            return;
+         }
+         dictionary = train(samples);
+         samples = null;
+      }
+      for (Map.Entry<String, Object> entry : map.entrySet()) {
+         if (entry.getValue() instanceof String) {
+            recompress(entry.getKey(), (String) entry.getValue());
+         }
+      }
+   }
+
+   /**
+    * Replaces the string value by the packed one unless a writer changed it meanwhile.
+    */
+   private void recompress(String key, String value) {
+      Object encoded = encode(value, dictionary);
+      if (encoded != value && map.replace(key, value, encoded)) {
+         account(value, -1);
+         account(encoded, 1);
+      }
+   }
+
+   /**
+    * @return packed value, null if it isn't smaller than the UTF-8 bytes
+    */
+   private byte[] compress(int chars, byte[] bytes, byte[] dict) {
+      if (bytes.length < 16) {
+         return null;
+      }
+      Deflater deflater = deflaters.poll();
+      if (deflater == null) {
+         deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      }
+      try {
+         deflater.setDictionary(dict);
+         deflater.setInput(bytes);
+         deflater.finish();
+         byte[] buffer = new byte[bytes.length];
+         int offset = writeVarInt(buffer, writeVarInt(buffer, 0, chars), bytes.length);
+         while (!deflater.finished()) {
+            if (offset == buffer.length) {
+               return null;
+            }
+            offset += deflater.deflate(buffer, offset, buffer.length - offset);
+         }
+         byte[] packed = new byte[offset];
+         System.arraycopy(buffer, 0, packed, 0, offset);
+         return packed;
+      } finally {
+         deflater.reset();
+         deflaters.offer(deflater);
+      }
+   }
+
+   private String decode(byte[] packed) {
+      int[] header = readHeader(packed);
+      Inflater inflater = inflaters.poll();
+      if (inflater == null) {
+         inflater = new Inflater(true);
+      }
+      try {
+         inflater.setDictionary(dictionary);
+         inflater.setInput(packed, header[2], packed.length - header[2]);
+         byte[] bytes = new byte[header[1]];
+         int offset = 0;
+         while (offset < bytes.length) {
+            int n = inflater.inflate(bytes, offset, bytes.length - offset);
+            if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+               throw new IllegalStateException("Truncated compressed value");
+            }
+            offset += n;
+         }
+         return new String(bytes, UTF8);
+      } catch (DataFormatException e) {
+         throw new IllegalStateException("Corrupt compressed value", e);
+      } finally {
+         inflater.reset();
+         inflaters.offer(inflater);
+      }
+   }
+
+   /**
+    * @return character count, UTF-8 length and offset of the deflated data
+    */
+   private static int[] readHeader(byte[] packed) {
+      int[] header = new int[3];
+      int offset = 0;
+      for (int i = 0; i < 2; i++) {
+         int value = 0;
+         int shift = 0;
+         byte b;
+         do {
+            b = packed[offset++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+         } while (b < 0);
+         header[i] = value;
+      }
+      header[2] = offset;
+      return header;
+   }
+
+   private static int writeVarInt(byte[] buffer, int offset, int value) {
+      while ((value & ~0x7f) != 0) {
+         buffer[offset++] = (byte) ((value & 0x7f) | 0x80);
+         value >>>= 7;
+      }
+      buffer[offset++] = (byte) value;
+      return offset;
+   }
+
+   private static int hash(String key) {
+      int h = key.hashCode();
+      return h ^ (h >>> 16);
+   }
+
+   /**
+    * Greedy selection of the sample segments covering the most substrings shared by several
+    * samples, each substring counted once.
+    */
+   static byte[] train(List<byte[]> samples) {
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      List<String> texts = new ArrayList<String>(samples.size());
+      for (byte[] sample : samples) {
+         // one char per byte
+         String text = new String(sample, LATIN1);
+         texts.add(text);
+         Set<String> seen = new HashSet<String>();
+         for (int i = 0; i + GRAM <= text.length(); i++) {
+            String gram = text.substring(i, i + GRAM);
+            if (seen.add(gram)) {
+               Integer count = counts.get(gram);
+               counts.put(gram, count == null ? 1 : count + 1);
+            }
+         }
+      }
+      PriorityQueue<Segment> queue = new PriorityQueue<Segment>();
+      for (String text : texts) {
+         for (int start = 0; start < text.length(); start += SEGMENT) {
+            Segment segment = new Segment(text.substring(start, Math.min(text.length(), start + SEGMENT)));
+            segment.score(counts);
+            if (segment.score > 0) {
+               queue.add(segment);
+            }
+         }
+      }
+      List<String> selected = new ArrayList<String>();
+      int size = 0;
+      while (!queue.isEmpty() && size < DICTIONARY_SIZE) {
+         Segment segment = queue.poll();
+         // the scores only drop as the substrings get covered, recompute lazily
+         segment.score(counts);
+         if (segment.score == 0) {
+            continue;
+         }
+         if (!queue.isEmpty() && segment.score < queue.peek().score) {
+            queue.add(segment);
+            continue;
+         }
+         String text = segment.text.length() > DICTIONARY_SIZE - size ? segment.text.substring(0, DICTIONARY_SIZE - size) : segment.text;
+         selected.add(text);
+         size += text.length();
+         for (int i = 0; i + GRAM <= segment.text.length(); i++) {
+            counts.remove(segment.text.substring(i, i + GRAM));
+         }
+      }
+      Collections.reverse(selected);
+      StringBuilder sb = new StringBuilder(size);
+      for (String text : selected) {
+         sb.append(text);
+      }
+      return sb.toString().getBytes(LATIN1);
+   }
+
+   private static final class Segment implements Comparable<Segment> {
+      private final String text;
+      private int score;
+
+      Segment(String text) {
+         this.text = text;
+      }
+
+      void score(Map<String, Integer> counts) {
+         score = 0;
+         for (int i = 0; i + GRAM <= text.length(); i++) {
+            Integer count = counts.get(text.substring(i, i + GRAM));
+            if (count != null) {
+               score += count - 1;
+            }
+         }
+      }
+
+      @Override
+      public int compareTo(Segment other) {
+         return other.score < score ? -1 : (other.score == score ? 0 : 1);
+      }
+   }
+
+   private static final class Hot {
+      final byte[] packed;
+      final String value;
+
+      Hot(byte[] packed, String value) {
+         this.packed = packed;
+         this.value = value;
+      }
+   }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Running dictionaries, for deployments that can't declare a service dependency. The dictionary
+ * services register here when they start and unregister when they stop.
+ *
+ * @author Michal Linhard
+ */
+public final class Dictionaries {
+   /**
+    * Registry key of the default dictionary, named dictionaries are registered by their name.
+    */
+   private static final String DEFAULT = "";
+
+   private static final ConcurrentMap<String, DictionaryClient> running = new ConcurrentHashMap<String, DictionaryClient>();
+
+   private Dictionaries() {
+   }
+
+   /**
+    * @return the default dictionary, null if it isn't running
+    */
+   public static DictionaryClient get() {
+      return running.get(DEFAULT);
+   }
+
+   /**
+    * @param name dictionary name, null for the default dictionary
+    * @return the dictionary, null if it isn't running
+    */
+   public static DictionaryClient get(String name) {
+      return running.get(name == null ? DEFAULT : name);
+   }
+
+   static void register(String name, DictionaryClient dictionary) {
+      running.put(name == null ? DEFAULT : name, dictionary);
+   }
+
+   static void unregister(String name, DictionaryClient dictionary) {
+      running.remove(name == null ? DEFAULT : name, dictionary);
+   }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Locale;
+
+/**
+ * Bounded cache of the values loaded by a {@link DictionaryLoader}.
+ *
+ * @author Michal Linhard
+ */
+public interface DictionaryCache {
+
+   String get(String key);
+
+   void put(String key, String value);
+
+   void invalidate(String key);
+
+   int size();
+
+   long getEvictions();
+
+   enum Type {
+      LRU {
+         @Override
+         public DictionaryCache create(int capacity) {
+            return new LruCache(capacity);
+         }
+      },
+      TINYLFU {
+         @Override
+         public DictionaryCache create(int capacity) {
+            return new TinyLfuCache(capacity);
+         }
+      };
+
+      public abstract DictionaryCache create(int capacity);
+
+      public String getName() {
+         return name().toLowerCase(Locale.ENGLISH);
+      }
+
+      public static Type forName(String name) {
+         return valueOf(name.toUpperCase(Locale.ENGLISH));
+      }
+   }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Typed in-VM access to a dictionary for deployments. The value of the dictionary service
+ * implements it, so it can be injected with a dependency on
+ * {@link DictionaryService#getServiceName(String)}, or looked up in {@link Dictionaries} while the
+ * service is up. Lookups include the data file and, in cache mode, the loader.
+ *
+ * @author Michal Linhard
+ */
+public interface DictionaryClient {
+
+   /**
+    * @return value of the key, null if there is none
+    */
+   String get(String key);
+
+   /**
+    * Looks up a batch of keys at once, with the snapshot storage all of the entries are read from
+    * the same version.
+    *
+    * @return values of the keys that were found, in the order of the keys
+    */
+   Map<String, String> getAll(Collection<String> keys);
+
+   /**
+    * Looks the key up without blocking. In cache mode the keys missing in the cache are loaded in
+    * batches shared by the concurrent lookups, a key already being loaded isn't loaded again. The
+    * other lookups are complete right away.
+    *
+    * @return future of the value, null if there is none
+    */
+   DictionaryFuture<String> findAsync(String key);
+
+   /**
+    * Looks the keys up without blocking, see {@link #findAsync(String)}.
+    *
+    * @return future of the values of the keys that were found, in the order of the keys
+    */
+   DictionaryFuture<Map<String, String>> findAllAsync(Collection<String> keys);
+
+   boolean containsKey(String key);
+
+   String getOrDefault(String key, String defaultValue);
+
+   /**
+    * @param prefix key prefix, null or empty string for all entries
+    * @return weakly consistent iterator over the entries whose key starts with the prefix, in key
+    *         order
+    */
+   Iterator<Map.Entry<String, String>> iterator(String prefix);
+
+   /**
+    * Subscribes the listener to the changes made by add, remove and the batch operations. The
+    * changes are delivered asynchronously in batches, repeated changes of a key within the
+    * notification window are coalesced into the last one.
+    */
+   void addListener(DictionaryListener listener);
+
+   void removeListener(DictionaryListener listener);
+
+}
@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.io.File;
+
+/**
+ * Settings of a {@link DictionaryService}, created from the subsystem model.
+ *
+ * @author Michal Linhard
+ */
+public class DictionaryConfiguration {
+   public static final int DEFAULT_SNAPSHOT_INTERVAL = 300;
+   public static final int DEFAULT_NOTIFICATION_WINDOW = 100;
+   public static final int DEFAULT_NOTIFICATION_CAPACITY = 10000;
+   public static final int DEFAULT_REPLICATION_WINDOW = 50;
+   public static final int DEFAULT_ANTI_ENTROPY_INTERVAL = 30;
+   public static final int DEFAULT_COMPRESSION_THRESHOLD = CompressedStore.DEFAULT_THRESHOLD;
+   public static final int DEFAULT_COMPRESSION_CACHE = CompressedStore.DEFAULT_CACHE_SIZE;
+   public static final int DEFAULT_SHARDS = 16;
+   public static final int DEFAULT_LOAD_BATCH_SIZE = 64;
+
+   private DictionaryIndex.Type indexType = DictionaryIndex.Type.SKIPLIST;
+   private DictionaryStore.Type storeType = DictionaryStore.Type.MAP;
+   private File dataFile;
+   private int cacheSize;
+   private DictionaryCache.Type cacheType = DictionaryCache.Type.LRU;
+   private String loaderClass = FileDictionaryLoader.class.getName();
+   private String loaderSource;
+   private File journal;
+   private WriteAheadLog.Durability durability = WriteAheadLog.Durability.GROUP_COMMIT;
+   private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+   private int notificationWindow = DEFAULT_NOTIFICATION_WINDOW;
+   private int notificationCapacity = DEFAULT_NOTIFICATION_CAPACITY;
+   private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+   private int compressionCache = DEFAULT_COMPRESSION_CACHE;
+   private String replicationBind;
+   private String replicationPeers;
+   private int replicationWindow = DEFAULT_REPLICATION_WINDOW;
+   private int replicationNodeId;
+   private int antiEntropyInterval = DEFAULT_ANTI_ENTROPY_INTERVAL;
+   private int shards = DEFAULT_SHARDS;
+   private double bloomFilterFpRate;
+   private int defaultTtl;
+   private int loadBatchSize = DEFAULT_LOAD_BATCH_SIZE;
+   private int loadBatchWindow;
+
+   public DictionaryIndex.Type getIndexType() {
+      return indexType;
+   }
+
+   public void setIndexType(DictionaryIndex.Type indexType) {
+      this.indexType = indexType;
+   }
+
+   public DictionaryStore.Type getStoreType() {
+      return storeType;
+   }
+
+   public void setStoreType(DictionaryStore.Type storeType) {
+      this.storeType = storeType;
+   }
+
+   /**
+    * @return optional read-only data file
+    */
+   public File getDataFile() {
+      return dataFile;
+   }
+
+   public void setDataFile(File dataFile) {
+      this.dataFile = dataFile;
+   }
+
+   /**
+    * @return maximum number of loaded values kept in memory, 0 disables the cache mode
+    */
+   public int getCacheSize() {
+      return cacheSize;
+   }
+
+   public void setCacheSize(int cacheSize) {
+      this.cacheSize = cacheSize;
+   }
+
+   public DictionaryCache.Type getCacheType() {
+      return cacheType;
+   }
+
+   public void setCacheType(DictionaryCache.Type cacheType) {
+      this.cacheType = cacheType;
+   }
+
+   /**
+    * @return class name of the {@link DictionaryLoader} used in cache mode
+    */
+   public String getLoaderClass() {
+      return loaderClass;
+   }
+
+   public void setLoaderClass(String loaderClass) {
+      this.loaderClass = loaderClass;
+   }
+
+   /**
+    * @return location of the backing store passed to the loader
+    */
+   public String getLoaderSource() {
+      return loaderSource;
+   }
+
+   public void setLoaderSource(String loaderSource) {
+      this.loaderSource = loaderSource;
+   }
+
+   /**
+    * @return optional journal directory, the runtime changes are only kept in memory without it
+    */
+   public File getJournal() {
+      return journal;
+   }
+
+   public void setJournal(File journal) {
+      this.journal = journal;
+   }
+
+   public WriteAheadLog.Durability getDurability() {
+      return durability;
+   }
+
+   public void setDurability(WriteAheadLog.Durability durability) {
+      this.durability = durability;
+   }
+
+   /**
+    * @return seconds between the journal snapshots, 0 disables the periodic snapshots
+    */
+   public int getSnapshotInterval() {
+      return snapshotInterval;
+   }
+
+   public void setSnapshotInterval(int snapshotInterval) {
+      this.snapshotInterval = snapshotInterval;
+   }
+
+   /**
+    * @return milliseconds the changes are collected before they're delivered to a listener
+    */
+   public int getNotificationWindow() {
+      return notificationWindow;
+   }
+
+   public void setNotificationWindow(int notificationWindow) {
+      this.notificationWindow = notificationWindow;
+   }
+
+   /**
+    * @return maximum number of changed keys pending for a listener before its changes are dropped
+    */
+   public int getNotificationCapacity() {
+      return notificationCapacity;
+   }
+
+   public void setNotificationCapacity(int notificationCapacity) {
+      this.notificationCapacity = notificationCapacity;
+   }
+
+   /**
+    * @return minimum length of the values compressed by the compressed storage
+    */
+   public int getCompressionThreshold() {
+      return compressionThreshold;
+   }
+
+   public void setCompressionThreshold(int compressionThreshold) {
+      this.compressionThreshold = compressionThreshold;
+   }
+
+   /**
+    * @return number of decoded values cached by the compressed storage
+    */
+   public int getCompressionCache() {
+      return compressionCache;
+   }
+
+   public void setCompressionCache(int compressionCache) {
+      this.compressionCache = compressionCache;
+   }
+
+   /**
+    * @return host:port the replication listens on, null if the dictionary isn't replicated
+    */
+   public String getReplicationBind() {
+      return replicationBind;
+   }
+
+   public void setReplicationBind(String replicationBind) {
+      this.replicationBind = replicationBind;
+   }
+
+   /**
+    * @return comma separated host:port of the other nodes
+    */
+   public String getReplicationPeers() {
+      return replicationPeers;
+   }
+
+   public void setReplicationPeers(String replicationPeers) {
+      this.replicationPeers = replicationPeers;
+   }
+
+   /**
+    * @return milliseconds the local changes are batched before they're sent to the peers
+    */
+   public int getReplicationWindow() {
+      return replicationWindow;
+   }
+
+   public void setReplicationWindow(int replicationWindow) {
+      this.replicationWindow = replicationWindow;
+   }
+
+   /**
+    * @return id of the node in the replication versions, 0 if derived from the replication-bind
+    *         address
+    */
+   public int getReplicationNodeId() {
+      return replicationNodeId;
+   }
+
+   public void setReplicationNodeId(int replicationNodeId) {
+      this.replicationNodeId = replicationNodeId;
+   }
+
+   /**
+    * @return seconds between the anti-entropy rounds with the peers
+    */
+   public int getAntiEntropyInterval() {
+      return antiEntropyInterval;
+   }
+
+   public void setAntiEntropyInterval(int antiEntropyInterval) {
+      this.antiEntropyInterval = antiEntropyInterval;
+   }
+
+   /**
+    * @return number of shards of the sharded index
+    */
+   public int getShards() {
+      return shards;
+   }
+
+   public void setShards(int shards) {
+      this.shards = shards;
+   }
+
+   /**
+    * @return false positive rate of the bloom filter in front of the lookups, 0 without a filter
+    */
+   public double getBloomFilterFpRate() {
+      return bloomFilterFpRate;
+   }
+
+   public void setBloomFilterFpRate(double bloomFilterFpRate) {
+      this.bloomFilterFpRate = bloomFilterFpRate;
+   }
+
+   /**
+    * @return seconds the entries added without their own ttl live, 0 if they don't expire
+    */
+   public int getDefaultTtl() {
+      return defaultTtl;
+   }
+
+   public void setDefaultTtl(int defaultTtl) {
+      this.defaultTtl = defaultTtl;
+   }
+
+   /**
+    * @return maximum number of keys of the asynchronous lookups loaded in one batch in cache mode
+    */
+   public int getLoadBatchSize() {
+      return loadBatchSize;
+   }
+
+   public void setLoadBatchSize(int loadBatchSize) {
+      this.loadBatchSize = loadBatchSize;
+   }
+
+   /**
+    * @return milliseconds a load batch waits for more keys, 0 to load the queued keys right away
+    */
+   public int getLoadBatchWindow() {
+      return loadBatchWindow;
+   }
+
+   public void setLoadBatchWindow(int loadBatchWindow) {
+      this.loadBatchWindow = loadBatchWindow;
+   }
+
+}
@@ -26,6 +26,7 @@ import java.util.ResourceBundle;
 
 import org.jboss.as.controller.descriptions.DescriptionProvider;
 import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
+import org.jboss.as.controller.registry.AttributeAccess;
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.ModelType;
 
@@ -50,6 +51,13 @@ public class DictionaryDescriptions {
       }
    };
 
+   public static final DescriptionProvider NAMED_DICTIONARY_DESCRIPTION_PROVIDER = new DescriptionProvider() {
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return getNamedDictionaryDescription(locale);
+      }
+   };
+
    public static ModelNode getDictionarySubsystemDescription(Locale locale) {
       ResourceBundle res = getResources(locale);
       ModelNode description = new ModelNode();
@@ -57,12 +65,14 @@ public class DictionaryDescriptions {
       description.get(ModelDescriptionConstants.HEAD_COMMENT_ALLOWED).set(true);
       description.get(ModelDescriptionConstants.TAIL_COMMENT_ALLOWED).set(true);
       description.get(ModelDescriptionConstants.NAMESPACE).set(DictionaryExtension.NAMESPACE);
+      ModelNode attributes = description.get(ModelDescriptionConstants.ATTRIBUTES);
+      addSubsystemAttributeDescriptions(attributes, res);
+      addMetricDescriptions(attributes, res);
       return description;
    }
 
    public static ModelNode getDictionarySubsystemAddDescription(Locale locale) {
-      ResourceBundle res = getResources(locale);
-      return createOperationDescription(ModelDescriptionConstants.ADD, res.getString("dict.add"), null, null);
+      return getDictionaryAddDescription(locale, "dict.add");
    }
 
    public static ModelNode getDictionarySubsystemDescribeDescription(Locale locale) {
@@ -70,6 +80,146 @@ public class DictionaryDescriptions {
       return createOperationDescription(ModelDescriptionConstants.DESCRIBE, res.getString("dict.describe"), null, null);
    }
 
+   public static ModelNode getNamedDictionaryDescription(Locale locale) {
+      ResourceBundle res = getResources(locale);
+      ModelNode description = new ModelNode();
+      description.get(ModelDescriptionConstants.DESCRIPTION).set(res.getString("dict.dictionary"));
+      ModelNode attributes = description.get(ModelDescriptionConstants.ATTRIBUTES);
+      addSubsystemAttributeDescriptions(attributes, res);
+      addMetricDescriptions(attributes, res);
+      return description;
+   }
+
+   public static ModelNode getNamedDictionaryAddDescription(Locale locale) {
+      return getDictionaryAddDescription(locale, "dict.dictionary.add");
+   }
+
+   public static ModelNode getNamedDictionaryRemoveDescription(Locale locale) {
+      ResourceBundle res = getResources(locale);
+      return createOperationDescription(ModelDescriptionConstants.REMOVE, res.getString("dict.dictionary.remove"), null, null);
+   }
+
+   /**
+    * @param operation start or stop
+    */
+   public static ModelNode getDictionarySetModeDescription(Locale locale, String operation) {
+      ResourceBundle res = getResources(locale);
+      return createOperationDescription(operation, res.getString("dict." + operation), null, null);
+   }
+
+   public static ModelNode getDictionaryFindKeysDescription(Locale locale) {
+      ResourceBundle res = getResources(locale);
+      ModelNode reqProps = new ModelNode();
+      addOptionalParameter(reqProps, DictionaryExtension.PREFIX, ModelType.STRING, res.getString("dict.find-keys.prefix"));
+      addOptionalParameter(reqProps, DictionaryExtension.FROM, ModelType.STRING, res.getString("dict.find-keys.from"));
+      addOptionalParameter(reqProps, DictionaryExtension.TO, ModelType.STRING, res.getString("dict.find-keys.to"));
+      addOptionalParameter(reqProps, DictionaryExtension.LIMIT, ModelType.INT, res.getString("dict.find-keys.limit"));
+      ModelNode repProps = new ModelNode();
+      repProps.get("type").set(ModelType.LIST);
+      repProps.get("value-type").set(ModelType.STRING);
+      repProps.get("description").set(res.getString("dict.find-keys.reply"));
+      return createOperationDescription(DictionaryExtension.FIND_KEYS, res.getString("dict.find-keys"), reqProps, repProps);
+   }
+
+   public static ModelNode getDictionaryAddEntriesDescription(Locale locale) {
+      ResourceBundle res = getResources(locale);
+      ModelNode reqProps = new ModelNode();
+      ModelNode entriesArg = reqProps.get(DictionaryExtension.ENTRIES);
+      entriesArg.get("type").set(ModelType.OBJECT);
+      entriesArg.get("value-type").set(ModelType.STRING);
+      entriesArg.get("description").set(res.getString("dict.add-entries.entries"));
+      entriesArg.get("required").set(true);
+      ModelNode expiresArg = reqProps.get(DictionaryExtension.EXPIRES);
+      expiresArg.get("type").set(ModelType.OBJECT);
+      expiresArg.get("value-type").set(ModelType.LONG);
+      expiresArg.get("description").set(res.getString("dict.add-entries.expires"));
+      expiresArg.get("required").set(false);
+      return createOperationDescription(DictionaryExtension.ADD_ENTRIES, res.getString("dict.add-entries"), reqProps, null);
+   }
+
+   public static ModelNode getDictionaryReplaceAllDescription(Locale locale) {
+      ResourceBundle res = getResources(locale);
+      ModelNode reqProps = new ModelNode();
+      ModelNode entriesArg = reqProps.get(DictionaryExtension.ENTRIES);
+      entriesArg.get("type").set(ModelType.OBJECT);
+      entriesArg.get("value-type").set(ModelType.STRING);
+      entriesArg.get("description").set(res.getString("dict.replace-all.entries"));
+      entriesArg.get("required").set(true);
+      ModelNode expiresArg = reqProps.get(DictionaryExtension.EXPIRES);
+      expiresArg.get("type").set(ModelType.OBJECT);
+      expiresArg.get("value-type").set(ModelType.LONG);
+      expiresArg.get("description").set(res.getString("dict.replace-all.expires"));
+      expiresArg.get("required").set(false);
+      return createOperationDescription(DictionaryExtension.REPLACE_ALL, res.getString("dict.replace-all"), reqProps, null);
+   }
+
+   public static ModelNode getDictionaryImportDescription(Locale locale) {
+      ResourceBundle res = getResources(locale);
+      ModelNode reqProps = new ModelNode();
+      addTransferParameters(reqProps, res);
+      addOptionalParameter(reqProps, DictionaryExtension.CHUNK_SIZE, ModelType.INT, res.getString("dict.import.chunk-size"));
+      reqProps.get(DictionaryExtension.CHUNK_SIZE, "default").set(DictionaryTransfer.DEFAULT_CHUNK_SIZE);
+      ModelNode repProps = new ModelNode();
+      repProps.get("type").set(ModelType.LONG);
+      repProps.get("description").set(res.getString("dict.import.reply"));
+      return createOperationDescription(DictionaryExtension.IMPORT, res.getString("dict.import"), reqProps, repProps);
+   }
+
+   public static ModelNode getDictionaryExportDescription(Locale locale) {
+      ResourceBundle res = getResources(locale);
+      ModelNode reqProps = new ModelNode();
+      addTransferParameters(reqProps, res);
+      addOptionalParameter(reqProps, DictionaryExtension.PREFIX, ModelType.STRING, res.getString("dict.export.prefix"));
+      ModelNode repProps = new ModelNode();
+      repProps.get("type").set(ModelType.LONG);
+      repProps.get("description").set(res.getString("dict.export.reply"));
+      return createOperationDescription(DictionaryExtension.EXPORT, res.getString("dict.export"), reqProps, repProps);
+   }
+
+   private static ModelNode getDictionaryAddDescription(Locale locale, String descrKey) {
+      ResourceBundle res = getResources(locale);
+      ModelNode reqProps = new ModelNode();
+      addSubsystemAttributeDescriptions(reqProps, res);
+      ModelNode entriesArg = reqProps.get(DictionaryExtension.ENTRIES);
+      entriesArg.get("type").set(ModelType.OBJECT);
+      entriesArg.get("value-type").set(ModelType.STRING);
+      entriesArg.get("description").set(res.getString("dict.add.entries"));
+      entriesArg.get("required").set(false);
+      ModelNode ttlsArg = reqProps.get(DictionaryExtension.TTLS);
+      ttlsArg.get("type").set(ModelType.OBJECT);
+      ttlsArg.get("value-type").set(ModelType.INT);
+      ttlsArg.get("description").set(res.getString("dict.add.ttls"));
+      ttlsArg.get("required").set(false);
+      ModelNode expiresArg = reqProps.get(DictionaryExtension.EXPIRES);
+      expiresArg.get("type").set(ModelType.OBJECT);
+      expiresArg.get("value-type").set(ModelType.LONG);
+      expiresArg.get("description").set(res.getString("dict.add.expires"));
+      expiresArg.get("required").set(false);
+      return createOperationDescription(ModelDescriptionConstants.ADD, res.getString(descrKey), reqProps, null);
+   }
+
+   private static void addTransferParameters(ModelNode reqProps, ResourceBundle res) {
+      ModelNode pathArg = reqProps.get(DictionaryExtension.PATH);
+      pathArg.get("type").set(ModelType.STRING);
+      pathArg.get("description").set(res.getString("dict.transfer.path"));
+      pathArg.get("required").set(true);
+      addOptionalParameter(reqProps, DictionaryExtension.RELATIVE_TO, ModelType.STRING, res.getString("dict.relative-to"));
+      reqProps.get(DictionaryExtension.RELATIVE_TO, "default").set(DictionaryExtension.DEFAULT_RELATIVE_TO);
+      addOptionalParameter(reqProps, DictionaryExtension.FORMAT, ModelType.STRING, res.getString("dict.transfer.format"));
+      reqProps.get(DictionaryExtension.FORMAT, "default").set(DictionaryTransfer.Format.CSV.getName());
+   }
+
+   public static ModelNode getDictionaryRemoveEntriesDescription(Locale locale) {
+      ResourceBundle res = getResources(locale);
+      ModelNode reqProps = new ModelNode();
+      ModelNode keysArg = reqProps.get(DictionaryExtension.KEYS);
+      keysArg.get("type").set(ModelType.LIST);
+      keysArg.get("value-type").set(ModelType.STRING);
+      keysArg.get("description").set(res.getString("dict.remove-entries.keys"));
+      keysArg.get("required").set(true);
+      return createOperationDescription(DictionaryExtension.REMOVE_ENTRIES, res.getString("dict.remove-entries"), reqProps, null);
+   }
+
    public static ModelNode getDictionaryEntryDescription(Locale locale) {
       ResourceBundle res = getResources(locale);
       ModelNode description = new ModelNode();
@@ -84,6 +234,8 @@ public class DictionaryDescriptions {
       valueArg.get("type").set(ModelType.STRING);
       valueArg.get("description").set(res.getString("dict.entry.add.value"));
       valueArg.get("required").set(true);
+      addOptionalParameter(reqProps, DictionaryExtension.TTL, ModelType.INT, res.getString("dict.entry.add.ttl"));
+      addOptionalParameter(reqProps, DictionaryExtension.EXPIRES, ModelType.LONG, res.getString("dict.entry.add.expires"));
       return createOperationDescription(ModelDescriptionConstants.ADD, res.getString("dict.entry.add"), reqProps, null);
    }
 
@@ -92,6 +244,85 @@ public class DictionaryDescriptions {
       return createOperationDescription(ModelDescriptionConstants.REMOVE, res.getString("dict.entry.remove"), null, null);
    }
 
+   private static void addSubsystemAttributeDescriptions(ModelNode parent, ResourceBundle res) {
+      addOptionalParameter(parent, DictionaryExtension.INDEX, ModelType.STRING, res.getString("dict.index"));
+      parent.get(DictionaryExtension.INDEX, "default").set(DictionaryIndex.Type.SKIPLIST.getName());
+      addOptionalParameter(parent, DictionaryExtension.STORAGE, ModelType.STRING, res.getString("dict.storage"));
+      parent.get(DictionaryExtension.STORAGE, "default").set(DictionaryStore.Type.MAP.getName());
+      addOptionalParameter(parent, DictionaryExtension.DATA_FILE, ModelType.STRING, res.getString("dict.data-file"));
+      addOptionalParameter(parent, DictionaryExtension.RELATIVE_TO, ModelType.STRING, res.getString("dict.relative-to"));
+      parent.get(DictionaryExtension.RELATIVE_TO, "default").set(DictionaryExtension.DEFAULT_RELATIVE_TO);
+      addOptionalParameter(parent, DictionaryExtension.CACHE_SIZE, ModelType.INT, res.getString("dict.cache-size"));
+      parent.get(DictionaryExtension.CACHE_SIZE, "default").set(0);
+      addOptionalParameter(parent, DictionaryExtension.EVICTION, ModelType.STRING, res.getString("dict.eviction"));
+      parent.get(DictionaryExtension.EVICTION, "default").set(DictionaryCache.Type.LRU.getName());
+      addOptionalParameter(parent, DictionaryExtension.LOADER, ModelType.STRING, res.getString("dict.loader"));
+      parent.get(DictionaryExtension.LOADER, "default").set(FileDictionaryLoader.class.getName());
+      addOptionalParameter(parent, DictionaryExtension.LOADER_SOURCE, ModelType.STRING, res.getString("dict.loader-source"));
+      addOptionalParameter(parent, DictionaryExtension.JOURNAL, ModelType.STRING, res.getString("dict.journal"));
+      addOptionalParameter(parent, DictionaryExtension.DURABILITY, ModelType.STRING, res.getString("dict.durability"));
+      parent.get(DictionaryExtension.DURABILITY, "default").set(WriteAheadLog.Durability.GROUP_COMMIT.getName());
+      addOptionalParameter(parent, DictionaryExtension.SNAPSHOT_INTERVAL, ModelType.INT, res.getString("dict.snapshot-interval"));
+      parent.get(DictionaryExtension.SNAPSHOT_INTERVAL, "default").set(DictionaryConfiguration.DEFAULT_SNAPSHOT_INTERVAL);
+      addOptionalParameter(parent, DictionaryExtension.NOTIFICATION_WINDOW, ModelType.INT, res.getString("dict.notification-window"));
+      parent.get(DictionaryExtension.NOTIFICATION_WINDOW, "default").set(DictionaryConfiguration.DEFAULT_NOTIFICATION_WINDOW);
+      addOptionalParameter(parent, DictionaryExtension.NOTIFICATION_CAPACITY, ModelType.INT, res.getString("dict.notification-capacity"));
+      parent.get(DictionaryExtension.NOTIFICATION_CAPACITY, "default").set(DictionaryConfiguration.DEFAULT_NOTIFICATION_CAPACITY);
+      addOptionalParameter(parent, DictionaryExtension.COMPRESSION_THRESHOLD, ModelType.INT, res.getString("dict.compression-threshold"));
+      parent.get(DictionaryExtension.COMPRESSION_THRESHOLD, "default").set(DictionaryConfiguration.DEFAULT_COMPRESSION_THRESHOLD);
+      addOptionalParameter(parent, DictionaryExtension.COMPRESSION_CACHE, ModelType.INT, res.getString("dict.compression-cache"));
+      parent.get(DictionaryExtension.COMPRESSION_CACHE, "default").set(DictionaryConfiguration.DEFAULT_COMPRESSION_CACHE);
+      addOptionalParameter(parent, DictionaryExtension.ENTRIES_FILE, ModelType.STRING, res.getString("dict.entries-file"));
+      addOptionalParameter(parent, DictionaryExtension.REPLICATION_BIND, ModelType.STRING, res.getString("dict.replication-bind"));
+      addOptionalParameter(parent, DictionaryExtension.REPLICATION_PEERS, ModelType.STRING, res.getString("dict.replication-peers"));
+      addOptionalParameter(parent, DictionaryExtension.REPLICATION_WINDOW, ModelType.INT, res.getString("dict.replication-window"));
+      parent.get(DictionaryExtension.REPLICATION_WINDOW, "default").set(DictionaryConfiguration.DEFAULT_REPLICATION_WINDOW);
+      addOptionalParameter(parent, DictionaryExtension.REPLICATION_NODE_ID, ModelType.INT, res.getString("dict.replication-node-id"));
+      addOptionalParameter(parent, DictionaryExtension.ANTI_ENTROPY_INTERVAL, ModelType.INT, res.getString("dict.anti-entropy-interval"));
+      parent.get(DictionaryExtension.ANTI_ENTROPY_INTERVAL, "default").set(DictionaryConfiguration.DEFAULT_ANTI_ENTROPY_INTERVAL);
+      addOptionalParameter(parent, DictionaryExtension.SHARDS, ModelType.INT, res.getString("dict.shards"));
+      parent.get(DictionaryExtension.SHARDS, "default").set(DictionaryConfiguration.DEFAULT_SHARDS);
+      addOptionalParameter(parent, DictionaryExtension.BLOOM_FILTER_FP_RATE, ModelType.DOUBLE, res.getString("dict.bloom-filter-fp-rate"));
+      parent.get(DictionaryExtension.BLOOM_FILTER_FP_RATE, "default").set(0.0);
+      addOptionalParameter(parent, DictionaryExtension.DEFAULT_TTL, ModelType.INT, res.getString("dict.default-ttl"));
+      parent.get(DictionaryExtension.DEFAULT_TTL, "default").set(0);
+      addOptionalParameter(parent, DictionaryExtension.LOAD_BATCH_SIZE, ModelType.INT, res.getString("dict.load-batch-size"));
+      parent.get(DictionaryExtension.LOAD_BATCH_SIZE, "default").set(DictionaryConfiguration.DEFAULT_LOAD_BATCH_SIZE);
+      addOptionalParameter(parent, DictionaryExtension.LOAD_BATCH_WINDOW, ModelType.INT, res.getString("dict.load-batch-window"));
+      parent.get(DictionaryExtension.LOAD_BATCH_WINDOW, "default").set(0);
+   }
+
+   private static void addMetricDescriptions(ModelNode parent, ResourceBundle res) {
+      addMetric(parent, DictionaryExtension.LOOKUP_HITS, ModelType.LONG, res.getString("dict.lookup-hits"));
+      addMetric(parent, DictionaryExtension.LOOKUP_MISSES, ModelType.LONG, res.getString("dict.lookup-misses"));
+      addMetric(parent, DictionaryExtension.HIT_RATIO, ModelType.DOUBLE, res.getString("dict.hit-ratio"));
+      addMetric(parent, DictionaryExtension.ENTRY_COUNT, ModelType.INT, res.getString("dict.entry-count"));
+      addMetric(parent, DictionaryExtension.MEMORY_FOOTPRINT, ModelType.LONG, res.getString("dict.memory-footprint"));
+      addMetric(parent, DictionaryExtension.VERSION, ModelType.LONG, res.getString("dict.version"));
+      addMetric(parent, DictionaryExtension.COMPRESSION_RATIO, ModelType.DOUBLE, res.getString("dict.compression-ratio"));
+      for (DictionaryMetrics.Operation op : DictionaryMetrics.Operation.values()) {
+         ModelNode metric = addMetric(parent, op.getName() + DictionaryExtension.LATENCY_SUFFIX, ModelType.OBJECT,
+                  res.getString("dict.latency").replace("{0}", op.getName()));
+         metric.get("value-type").set(ModelType.LONG);
+      }
+   }
+
+   private static ModelNode addMetric(ModelNode parent, String name, ModelType type, String descrString) {
+      ModelNode metric = parent.get(name);
+      metric.get("type").set(type);
+      metric.get("description").set(descrString);
+      metric.get(ModelDescriptionConstants.ACCESS_TYPE).set(AttributeAccess.AccessType.METRIC.toString());
+      metric.get(ModelDescriptionConstants.STORAGE).set(AttributeAccess.Storage.RUNTIME.toString());
+      return metric;
+   }
+
+   private static void addOptionalParameter(ModelNode parent, String name, ModelType type, String descrString) {
+      ModelNode param = parent.get(name);
+      param.get("type").set(type);
+      param.get("description").set(descrString);
+      param.get("required").set(false);
+   }
+
    private static ResourceBundle getResources(Locale locale) {
       return ResourceBundle.getBundle(DictionaryDescriptions.class.getName(), (locale == null) ? Locale.getDefault() : locale);
    }
@@ -21,8 +21,19 @@
  */
 package org.jboss.as7demo.dict;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -33,6 +44,7 @@ import org.jboss.as.controller.ExtensionContext;
 import org.jboss.as.controller.ModelAddOperationHandler;
 import org.jboss.as.controller.ModelQueryOperationHandler;
 import org.jboss.as.controller.ModelRemoveOperationHandler;
+import org.jboss.as.controller.ModelUpdateOperationHandler;
 import org.jboss.as.controller.OperationContext;
 import org.jboss.as.controller.OperationFailedException;
 import org.jboss.as.controller.OperationResult;
@@ -55,6 +67,7 @@ import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.Property;
 import org.jboss.logging.Logger;
 import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
 import org.jboss.staxmapper.XMLElementReader;
 import org.jboss.staxmapper.XMLElementWriter;
 import org.jboss.staxmapper.XMLExtendedStreamReader;
@@ -72,13 +85,94 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
    public static final String ENTRY = "entry";
    public static final String KEY = "key";
    public static final String VALUE = "value";
+   public static final String TTL = "ttl";
+   public static final String EXPIRES = "expires";
+   public static final String INDEX = "index";
+   public static final String STORAGE = "storage";
+   public static final String DATA_FILE = "data-file";
+   public static final String RELATIVE_TO = "relative-to";
+   public static final String CACHE_SIZE = "cache-size";
+   public static final String EVICTION = "eviction";
+   public static final String LOADER = "loader";
+   public static final String LOADER_SOURCE = "loader-source";
+   public static final String JOURNAL = "journal";
+   public static final String DURABILITY = "durability";
+   public static final String SNAPSHOT_INTERVAL = "snapshot-interval";
+   public static final String NOTIFICATION_WINDOW = "notification-window";
+   public static final String NOTIFICATION_CAPACITY = "notification-capacity";
+   public static final String COMPRESSION_THRESHOLD = "compression-threshold";
+   public static final String COMPRESSION_CACHE = "compression-cache";
+   public static final String ENTRIES_FILE = "entries-file";
+   public static final String REPLICATION_BIND = "replication-bind";
+   public static final String REPLICATION_PEERS = "replication-peers";
+   public static final String REPLICATION_WINDOW = "replication-window";
+   public static final String REPLICATION_NODE_ID = "replication-node-id";
+   public static final String ANTI_ENTROPY_INTERVAL = "anti-entropy-interval";
+   public static final String SHARDS = "shards";
+   public static final String BLOOM_FILTER_FP_RATE = "bloom-filter-fp-rate";
+   public static final String DEFAULT_TTL = "default-ttl";
+   public static final String LOAD_BATCH_SIZE = "load-batch-size";
+   public static final String LOAD_BATCH_WINDOW = "load-batch-window";
+   public static final String DEFAULT_RELATIVE_TO = "jboss.server.data.dir";
+   public static final String FIND_KEYS = "find-keys";
+   public static final String PREFIX = "prefix";
+   public static final String FROM = "from";
+   public static final String TO = "to";
+   public static final String LIMIT = "limit";
+   public static final int DEFAULT_LIMIT = 100;
+   public static final String ADD_ENTRIES = "add-entries";
+   public static final String REMOVE_ENTRIES = "remove-entries";
+   public static final String REPLACE_ALL = "replace-all";
+   public static final String IMPORT = "import";
+   public static final String EXPORT = "export";
+   public static final String PATH = "path";
+   public static final String FORMAT = "format";
+   public static final String CHUNK_SIZE = "chunk-size";
+   public static final String ENTRIES = "entries";
+   public static final String TTLS = "ttls";
+   public static final String KEYS = "keys";
+   public static final String LOOKUP_HITS = "lookup-hits";
+   public static final String LOOKUP_MISSES = "lookup-misses";
+   public static final String HIT_RATIO = "hit-ratio";
+   public static final String ENTRY_COUNT = "entry-count";
+   public static final String MEMORY_FOOTPRINT = "memory-footprint";
+   public static final String VERSION = "version";
+   public static final String COMPRESSION_RATIO = "compression-ratio";
+   public static final String LATENCY_SUFFIX = "-latency";
+   public static final String COUNT = "count";
+   public static final String MEAN = "mean";
+   public static final String MAX = "max";
+   public static final String DICTIONARY = "dictionary";
+   public static final String NAME = "name";
+   public static final String START = "start";
+   public static final String STOP = "stop";
 
    private static final PathElement entryPath = PathElement.pathElement(ENTRY);
+   private static final PathElement dictionaryPath = PathElement.pathElement(DICTIONARY);
+   /**
+    * Simple attributes of the subsystem element, in the order they are written.
+    */
+   private static final String[] SUBSYSTEM_ATTRIBUTES = { INDEX, STORAGE, DATA_FILE, RELATIVE_TO, CACHE_SIZE, EVICTION, LOADER,
+            LOADER_SOURCE, JOURNAL, DURABILITY, SNAPSHOT_INTERVAL, NOTIFICATION_WINDOW, NOTIFICATION_CAPACITY,
+            COMPRESSION_THRESHOLD, COMPRESSION_CACHE, ENTRIES_FILE, REPLICATION_BIND, REPLICATION_PEERS, REPLICATION_WINDOW,
+            REPLICATION_NODE_ID, ANTI_ENTROPY_INTERVAL, SHARDS, BLOOM_FILTER_FP_RATE, DEFAULT_TTL, LOAD_BATCH_SIZE,
+            LOAD_BATCH_WINDOW };
 
    private SubsystemAdd subsystemAdd = new SubsystemAdd();
    private SubsystemDescribe subsystemDescribe = new SubsystemDescribe();
+   private FindKeys findKeys = new FindKeys();
+   private AddEntries addEntries = new AddEntries();
+   private RemoveEntries removeEntries = new RemoveEntries();
+   private ReplaceAll replaceAll = new ReplaceAll();
+   private ImportEntries importEntries = new ImportEntries();
+   private ExportEntries exportEntries = new ExportEntries();
    private EntryAdd entryAdd = new EntryAdd();
    private EntryRemove entryRemove = new EntryRemove();
+   private ReadMetric readMetric = new ReadMetric();
+   private DictionaryAdd dictionaryAdd = new DictionaryAdd();
+   private DictionaryRemove dictionaryRemove = new DictionaryRemove();
+   private SetMode start = new SetMode(START, ServiceController.Mode.ACTIVE, STOP);
+   private SetMode stop = new SetMode(STOP, ServiceController.Mode.NEVER, START);
 
    @Override
    public void initialize(ExtensionContext context) {
@@ -90,12 +184,177 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
       ModelNodeRegistration subsystemReg = subsystem.registerSubsystemModel(DictionaryDescriptions.SUBSYSTEM_DESCRIPTION_PROVIDER);
       subsystemReg.registerOperationHandler(ModelDescriptionConstants.ADD, subsystemAdd, subsystemAdd, false);
       subsystemReg.registerOperationHandler(ModelDescriptionConstants.DESCRIBE, subsystemDescribe, subsystemDescribe, false, EntryType.PRIVATE);
+      registerDictionary(subsystemReg);
 
-      ModelNodeRegistration containers = subsystemReg.registerSubModel(entryPath, DictionaryDescriptions.ENTRY_DESCRIPTION_PROVIDER);
+      // named dictionaries, each with its own service
+      ModelNodeRegistration dictionaries = subsystemReg.registerSubModel(dictionaryPath, DictionaryDescriptions.NAMED_DICTIONARY_DESCRIPTION_PROVIDER);
+      dictionaries.registerOperationHandler(ModelDescriptionConstants.ADD, dictionaryAdd, dictionaryAdd, false);
+      dictionaries.registerOperationHandler(ModelDescriptionConstants.REMOVE, dictionaryRemove, dictionaryRemove, false);
+      registerDictionary(dictionaries);
+   }
+
+   /**
+    * Registers the operations, metrics and entries common to the default and the named
+    * dictionaries.
+    */
+   private void registerDictionary(ModelNodeRegistration registration) {
+      registration.registerOperationHandler(FIND_KEYS, findKeys, findKeys, false);
+      registration.registerOperationHandler(ADD_ENTRIES, addEntries, addEntries, false);
+      registration.registerOperationHandler(REMOVE_ENTRIES, removeEntries, removeEntries, false);
+      registration.registerOperationHandler(REPLACE_ALL, replaceAll, replaceAll, false);
+      registration.registerOperationHandler(IMPORT, importEntries, importEntries, false);
+      registration.registerOperationHandler(EXPORT, exportEntries, exportEntries, false);
+      registration.registerOperationHandler(START, start, start, false);
+      registration.registerOperationHandler(STOP, stop, stop, false);
+      for (String metric : ReadMetric.getMetricNames()) {
+         registration.registerMetric(metric, readMetric);
+      }
+
+      ModelNodeRegistration containers = registration.registerSubModel(entryPath, DictionaryDescriptions.ENTRY_DESCRIPTION_PROVIDER);
       containers.registerOperationHandler(ModelDescriptionConstants.ADD, entryAdd, entryAdd, false);
       containers.registerOperationHandler(ModelDescriptionConstants.REMOVE, entryRemove, entryRemove, false);
    }
 
+   /**
+    * @return name of the dictionary the operation address points into, null for the default
+    *         dictionary
+    */
+   static String getDictionaryName(ModelNode operation) {
+      for (PathElement element : PathAddress.pathAddress(operation.require(ModelDescriptionConstants.OP_ADDR))) {
+         if (DICTIONARY.equals(element.getKey())) {
+            return element.getValue();
+         }
+      }
+      return null;
+   }
+
+   /**
+    * @return service of the dictionary the operation address points into
+    */
+   static ServiceName getServiceName(ModelNode operation) {
+      return DictionaryService.getServiceName(getDictionaryName(operation));
+   }
+
+   /**
+    * @throws OperationFailedException if the service isn't installed or isn't up, a stopped
+    *            service has no value
+    */
+   static DictionaryService getRunningService(RuntimeTaskContext context, ServiceName serviceName) throws OperationFailedException {
+      ServiceController<?> serviceController = context.getServiceRegistry().getService(serviceName);
+      if (serviceController == null) {
+         throw new OperationFailedException(new ModelNode().set("No dictionary service " + serviceName));
+      }
+      if (serviceController.getState() != ServiceController.State.UP) {
+         throw new OperationFailedException(new ModelNode().set("Dictionary service " + serviceName + " is " + serviceController.getState()));
+      }
+      return (DictionaryService) serviceController.getValue();
+   }
+
+   /**
+    * Rejects a write to a dictionary whose service isn't running before the model is changed,
+    * the stopped service wouldn't get the change. Without a runtime only the model is written.
+    *
+    * @throws OperationFailedException if the dictionary is stopped
+    */
+   static void checkRunning(OperationContext context, ModelNode operation) throws OperationFailedException {
+      String name = getDictionaryName(operation);
+      if (context.getRuntimeContext() != null && Dictionaries.get(name) == null) {
+         throw new OperationFailedException(new ModelNode().set("Dictionary service " + DictionaryService.getServiceName(name) + " isn't running"));
+      }
+   }
+
+   /**
+    * Collects the expiration times of a batch of entries, an entry's own from the expires
+    * parameter of the operation, 0 for none, the others the one the default ttl gives.
+    *
+    * @param defaultExpires time in milliseconds the default ttl expires an entry added now at, 0
+    *           if it doesn't
+    * @return expiration times of the keys, 0 for the ones that don't expire, empty if the operation
+    *         has none and the dictionary no default ttl
+    */
+   static Map<String, Long> readExpires(ModelNode operation, Collection<String> keys, long defaultExpires) throws OperationFailedException {
+      Map<String, Long> expires = new HashMap<String, Long>();
+      ModelNode own = operation.hasDefined(EXPIRES) ? operation.get(EXPIRES) : null;
+      if (own == null && defaultExpires == 0) {
+         return expires;
+      }
+      for (String key : keys) {
+         expires.put(key, own != null && own.hasDefined(key) ? SubsystemAdd.getLong(own.get(key), EXPIRES + " of entry " + key) : defaultExpires);
+      }
+      return expires;
+   }
+
+   /**
+    * @param expires expiration times by key from {@link #readExpires}
+    * @return milliseconds the keys have left, 0 for the ones that don't expire, empty for the
+    *         default ttl
+    */
+   static Map<String, Long> getTtls(Map<String, Long> expires) {
+      long now = System.currentTimeMillis();
+      Map<String, Long> ttls = new HashMap<String, Long>();
+      for (Map.Entry<String, Long> entry : expires.entrySet()) {
+         ttls.put(entry.getKey(), EntryBuffer.toTtl(entry.getValue(), now));
+      }
+      return ttls;
+   }
+
+   /**
+    * @param expires expiration times by key from {@link #readExpires}
+    * @return expiration times of the keys that expire
+    */
+   static Map<String, Long> getExpiring(Map<String, Long> expires) {
+      Map<String, Long> expiring = new HashMap<String, Long>();
+      for (Map.Entry<String, Long> entry : expires.entrySet()) {
+         if (entry.getValue() > 0) {
+            expiring.put(entry.getKey(), entry.getValue());
+         }
+      }
+      return expiring;
+   }
+
+   /**
+    * Puts the expiration times of existing entries into an operation that adds them again, an
+    * entry without one gets an explicit 0 if the default ttl would expire it.
+    *
+    * @param defaultExpires time in milliseconds the default ttl expires an entry added now at, 0
+    *           if it doesn't
+    */
+   static void setExpires(ModelNode operation, ModelNode entryModel, Collection<String> keys, long defaultExpires) {
+      for (String key : keys) {
+         ModelNode entry = entryModel.get(key);
+         if (entry.hasDefined(EXPIRES)) {
+            operation.get(EXPIRES, key).set(entry.get(EXPIRES));
+         } else if (defaultExpires > 0) {
+            operation.get(EXPIRES, key).set(0L);
+         }
+      }
+   }
+
+   /**
+    * Writes the changes to the entries file of the dictionary, if it has one. Called by the
+    * runtime task once the service is updated, or right away without a runtime.
+    *
+    * @param name dictionary name, null for the default dictionary
+    * @param changes new values by key, null values for removals
+    * @param expires expiration times of the added entries that have one
+    * @param replace whether the changes are all the entries of the dictionary
+    */
+   static void writeEntriesFile(String name, Map<String, String> changes, Map<String, Long> expires, boolean replace) throws OperationFailedException {
+      EntriesFile file = EntriesFile.get(name);
+      if (file == null) {
+         return;
+      }
+      try {
+         if (replace) {
+            file.replaceAll(changes, expires);
+         } else {
+            file.write(changes, expires);
+         }
+      } catch (IOException e) {
+         throw new OperationFailedException(new ModelNode().set("Couldn't write entries file " + file.getFile() + ": " + e.getMessage()));
+      }
+   }
+
    @Override
    public void initializeParsers(ExtensionParsingContext context) {
       context.setSubsystemXmlMapping(NAMESPACE, this);
@@ -112,19 +371,26 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
       public OperationResult execute(OperationContext context, ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
          log.info("Activating Dictionary demo subsystem.");
 
-         populate(operation, context.getSubModel());
+         final DictionaryConfiguration configuration = createConfiguration(operation);
+         final EntriesFile entriesFile = getEntriesFile(operation);
+         final Map<String, String> fileChanges = new LinkedHashMap<String, String>();
+         final Map<String, Long> fileExpires = new HashMap<String, Long>();
+         final EntryBuffer entries = readEntries(operation, entriesFile, fileChanges, fileExpires);
+         populate(operation, entries, context.getSubModel());
 
          RuntimeOperationContext runtime = context.getRuntimeContext();
          if (runtime != null) {
              RuntimeTask task = new RuntimeTask() {
                  @Override
                  public void execute(RuntimeTaskContext context) throws OperationFailedException {
-                    DictionaryService.addService(context.getServiceTarget());
+                    DictionaryService.addService(context.getServiceTarget(), null, configuration, entries.toMap(), entries.getTtls(System.currentTimeMillis()));
+                    registerEntriesFile(null, entriesFile, fileChanges, fileExpires);
                  }
              };
 
              runtime.setRuntimeTask(task);
          } else {
+             registerEntriesFile(null, entriesFile, fileChanges, fileExpires);
          }
          BasicOperationResult operationResult = new BasicOperationResult(Util.getResourceRemoveOperation(operation.require(ModelDescriptionConstants.OP_ADDR)));
          resultHandler.handleResultComplete();
@@ -133,12 +399,348 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
 
       static ModelNode createOperation(ModelNode address, ModelNode existing) {
          ModelNode operation = Util.getEmptyOperation(ModelDescriptionConstants.ADD, address);
-         populate(existing, operation);
+         for (String attribute : SUBSYSTEM_ATTRIBUTES) {
+            if (existing.hasDefined(attribute)) {
+               operation.get(attribute).set(existing.get(attribute));
+            }
+         }
+         if (existing.hasDefined(ENTRY)) {
+            ModelNode entries = operation.get(ENTRIES);
+            ModelNode entryModel = existing.get(ENTRY);
+            for (String key : entryModel.keys()) {
+               entries.get(key).set(entryModel.get(key).get(VALUE));
+               if (entryModel.get(key).hasDefined(EXPIRES)) {
+                  operation.get(EXPIRES, key).set(entryModel.get(key).get(EXPIRES));
+               }
+            }
+         }
          return operation;
      }
 
-     private static void populate(ModelNode source, ModelNode target) {
-         target.get(ENTRY).setEmptyObject();
+     /**
+      * Copies the subsystem attributes to the model and creates the entry sub-tree from the
+      * entries of the operation. Entries read from an entries file are included, the entry
+      * resources are what the entry operations address.
+      */
+     static void populate(ModelNode source, EntryBuffer entries, ModelNode target) {
+         for (String attribute : SUBSYSTEM_ATTRIBUTES) {
+            if (source.hasDefined(attribute)) {
+               target.get(attribute).set(source.get(attribute));
+            }
+         }
+         entries.populate(target.get(ENTRY).setEmptyObject());
+     }
+
+     /**
+      * Resolves a relative path against the directory named by the relative-to system property.
+      */
+     static File resolvePath(String path, String relativeTo) {
+         File file = new File(path);
+         if (file.isAbsolute() || relativeTo == null || System.getProperty(relativeTo) == null) {
+            return file;
+         }
+         return new File(System.getProperty(relativeTo), path);
+     }
+
+     private static int getInt(ModelNode operation, String name) throws OperationFailedException {
+         try {
+            int value = operation.get(name).asInt();
+            if (value >= 0) {
+               return value;
+            }
+         } catch (IllegalArgumentException e) {
+            // reported below
+         }
+         throw new OperationFailedException(new ModelNode().set("Invalid " + name + " " + operation.get(name).asString()));
+     }
+
+     static String getRelativeTo(ModelNode operation) {
+         return operation.hasDefined(RELATIVE_TO) ? operation.get(RELATIVE_TO).asString() : DEFAULT_RELATIVE_TO;
+     }
+
+     /**
+      * @return time in milliseconds an entry added now without its own ttl expires at, 0 if it
+      *         doesn't
+      */
+     static long getDefaultExpires(ModelNode dictionary, long now) {
+         return dictionary.hasDefined(DEFAULT_TTL) ? EntryBuffer.toExpires(dictionary.get(DEFAULT_TTL).asLong(), now) : 0;
+     }
+
+     /**
+      * Collects the entries of the operation with their ttls or expiration times, in a single
+      * pass over the entries and without copying the keys and values.
+      */
+     static EntryBuffer readEntries(ModelNode operation) throws OperationFailedException {
+         if (!operation.hasDefined(ENTRIES)) {
+            return new EntryBuffer();
+         }
+         ModelNode entries = operation.get(ENTRIES);
+         Set<String> keys = entries.keys();
+         EntryBuffer buffer = new EntryBuffer(keys.size());
+         ModelNode ttls = operation.hasDefined(TTLS) ? operation.get(TTLS) : new ModelNode();
+         ModelNode expires = operation.hasDefined(EXPIRES) ? operation.get(EXPIRES) : new ModelNode();
+         boolean timed = ttls.isDefined() || expires.isDefined();
+         long now = System.currentTimeMillis();
+         for (String key : keys) {
+            long time = -1;
+            if (timed) {
+               if (expires.hasDefined(key)) {
+                  time = getLong(expires.get(key), EXPIRES + " of entry " + key);
+               } else if (ttls.hasDefined(key)) {
+                  time = EntryBuffer.toExpires(getLong(ttls.get(key), TTL + " of entry " + key), now);
+               }
+            }
+            buffer.add(key, entries.get(key).asString(), time);
+         }
+         return buffer;
+     }
+
+     /**
+      * @param what the value's name for the error message
+      */
+     static long getLong(ModelNode value, String what) throws OperationFailedException {
+         long result = -1;
+         try {
+            result = value.asLong();
+         } catch (IllegalArgumentException e) {
+            // reported below
+         }
+         if (result < 0) {
+            throw new OperationFailedException(new ModelNode().set("Invalid " + what + " " + value.asString()));
+         }
+         return result;
+     }
+
+     /**
+      * @return the entries file the operation names, not loaded yet, null if the entries are in
+      *         the XML
+      */
+     static EntriesFile getEntriesFile(ModelNode operation) {
+         if (!operation.hasDefined(ENTRIES_FILE)) {
+            return null;
+         }
+         return new EntriesFile(resolvePath(operation.get(ENTRIES_FILE).asString(), getRelativeTo(operation)));
+     }
+
+     /**
+      * Collects the entries of the dictionary, from the operation and the entries file if there is
+      * one, leaving out the entries that already expired. The file isn't changed, the differences
+      * to the collected entries (the entry elements when moving them out of the XML, expiration
+      * times the default ttl gave, expired entries) are collected into fileChanges and
+      * fileExpires for {@link #registerEntriesFile}.
+      */
+     static EntryBuffer readEntries(ModelNode operation, EntriesFile file, Map<String, String> fileChanges, Map<String, Long> fileExpires) throws OperationFailedException {
+         EntryBuffer operationEntries = readEntries(operation);
+         Map<String, String> entries = Collections.emptyMap();
+         Map<String, Long> expires = new HashMap<String, Long>();
+         if (file != null) {
+            try {
+               entries = file.load(expires);
+            } catch (IOException e) {
+               throw new OperationFailedException(new ModelNode().set("Couldn't read entries file " + file.getFile() + ": " + e.getMessage()));
+            }
+         }
+         EntryBuffer result = operationEntries;
+         if (!entries.isEmpty()) {
+            Map<String, Integer> indexes = new HashMap<String, Integer>();
+            for (int i = 0; i < operationEntries.size(); i++) {
+               indexes.put(operationEntries.getKey(i), i);
+            }
+            result = new EntryBuffer();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+               String key = entry.getKey();
+               Integer i = indexes.get(key);
+               if (i == null || (operationEntries.getExpires(i) < 0 && operationEntries.getValue(i).equals(entry.getValue()))) {
+                  result.add(key, entry.getValue(), expires.containsKey(key) ? expires.get(key) : -1);
+               } else {
+                  result.add(key, operationEntries.getValue(i), operationEntries.getExpires(i));
+               }
+            }
+            for (int i = 0; i < operationEntries.size(); i++) {
+               if (!entries.containsKey(operationEntries.getKey(i))) {
+                  result.add(operationEntries.getKey(i), operationEntries.getValue(i), operationEntries.getExpires(i));
+               }
+            }
+         }
+         long now = System.currentTimeMillis();
+         int expired = result.resolve(getDefaultExpires(operation, now), now);
+         if (expired > 0) {
+            log.debugf("Skipped %d expired entries of dictionary %s", expired, getDictionaryName(operation));
+         }
+         if (file != null) {
+            Set<String> keys = new HashSet<String>();
+            for (int i = 0; i < result.size(); i++) {
+               String key = result.getKey(i);
+               long time = result.getExpires(i);
+               keys.add(key);
+               if (!result.getValue(i).equals(entries.get(key)) || time != (expires.containsKey(key) ? expires.get(key) : -1)) {
+                  fileChanges.put(key, result.getValue(i));
+                  if (time >= 0) {
+                     fileExpires.put(key, time);
+                  }
+               }
+            }
+            for (String key : entries.keySet()) {
+               if (!keys.contains(key)) {
+                  fileChanges.put(key, null);
+               }
+            }
+         }
+         return result;
+     }
+
+     /**
+      * Appends the changes to the entries file and makes it the file the management operations of
+      * the dictionary write to, or forgets the previous file if the dictionary has none.
+      *
+      * @param name dictionary name, null for the default dictionary
+      */
+     static void registerEntriesFile(String name, EntriesFile file, Map<String, String> changes, Map<String, Long> expires) throws OperationFailedException {
+         if (file == null) {
+            EntriesFile.close(name);
+            return;
+         }
+         try {
+            file.write(changes, expires);
+         } catch (IOException e) {
+            file.close();
+            throw new OperationFailedException(new ModelNode().set("Couldn't write entries file " + file.getFile() + ": " + e.getMessage()));
+         }
+         EntriesFile.register(name, file);
+     }
+
+     static DictionaryConfiguration createConfiguration(ModelNode operation) throws OperationFailedException {
+         DictionaryConfiguration configuration = new DictionaryConfiguration();
+         if (operation.hasDefined(INDEX)) {
+            String name = operation.get(INDEX).asString();
+            try {
+               configuration.setIndexType(DictionaryIndex.Type.forName(name));
+            } catch (IllegalArgumentException e) {
+               throw new OperationFailedException(new ModelNode().set("Unknown index type " + name));
+            }
+         }
+         if (operation.hasDefined(STORAGE)) {
+            String name = operation.get(STORAGE).asString();
+            try {
+               configuration.setStoreType(DictionaryStore.Type.forName(name));
+            } catch (IllegalArgumentException e) {
+               throw new OperationFailedException(new ModelNode().set("Unknown storage " + name));
+            }
+         }
+         if (operation.hasDefined(DATA_FILE)) {
+            configuration.setDataFile(resolvePath(operation.get(DATA_FILE).asString(), getRelativeTo(operation)));
+         }
+         if (operation.hasDefined(CACHE_SIZE)) {
+            configuration.setCacheSize(getInt(operation, CACHE_SIZE));
+         }
+         if (operation.hasDefined(EVICTION)) {
+            String name = operation.get(EVICTION).asString();
+            try {
+               configuration.setCacheType(DictionaryCache.Type.forName(name));
+            } catch (IllegalArgumentException e) {
+               throw new OperationFailedException(new ModelNode().set("Unknown eviction " + name));
+            }
+         }
+         if (operation.hasDefined(LOADER)) {
+            configuration.setLoaderClass(operation.get(LOADER).asString());
+         }
+         if (operation.hasDefined(LOADER_SOURCE)) {
+            String source = operation.get(LOADER_SOURCE).asString();
+            if (FileDictionaryLoader.class.getName().equals(configuration.getLoaderClass())) {
+               source = resolvePath(source, getRelativeTo(operation)).getPath();
+            }
+            configuration.setLoaderSource(source);
+         }
+         if (operation.hasDefined(JOURNAL)) {
+            configuration.setJournal(resolvePath(operation.get(JOURNAL).asString(), getRelativeTo(operation)));
+         }
+         if (operation.hasDefined(DURABILITY)) {
+            String name = operation.get(DURABILITY).asString();
+            try {
+               configuration.setDurability(WriteAheadLog.Durability.forName(name));
+            } catch (IllegalArgumentException e) {
+               throw new OperationFailedException(new ModelNode().set("Unknown durability " + name));
+            }
+         }
+         if (operation.hasDefined(SNAPSHOT_INTERVAL)) {
+            configuration.setSnapshotInterval(getInt(operation, SNAPSHOT_INTERVAL));
+         }
+         if (operation.hasDefined(NOTIFICATION_WINDOW)) {
+            configuration.setNotificationWindow(getInt(operation, NOTIFICATION_WINDOW));
+         }
+         if (operation.hasDefined(NOTIFICATION_CAPACITY)) {
+            configuration.setNotificationCapacity(getInt(operation, NOTIFICATION_CAPACITY));
+         }
+         if (operation.hasDefined(COMPRESSION_THRESHOLD)) {
+            configuration.setCompressionThreshold(getInt(operation, COMPRESSION_THRESHOLD));
+         }
+         if (operation.hasDefined(COMPRESSION_CACHE)) {
+            configuration.setCompressionCache(getInt(operation, COMPRESSION_CACHE));
+         }
+         try {
+            if (operation.hasDefined(REPLICATION_BIND)) {
+               String bind = operation.get(REPLICATION_BIND).asString();
+               Replicator.parseAddress(bind);
+               configuration.setReplicationBind(bind);
+            }
+            if (operation.hasDefined(REPLICATION_PEERS)) {
+               String peers = operation.get(REPLICATION_PEERS).asString();
+               for (String peer : peers.split(",")) {
+                  Replicator.parseAddress(peer.trim());
+               }
+               configuration.setReplicationPeers(peers);
+            }
+         } catch (IllegalArgumentException e) {
+            throw new OperationFailedException(new ModelNode().set(e.getMessage()));
+         }
+         if (operation.hasDefined(REPLICATION_WINDOW)) {
+            configuration.setReplicationWindow(getInt(operation, REPLICATION_WINDOW));
+         }
+         if (operation.hasDefined(REPLICATION_NODE_ID)) {
+            int nodeId = getInt(operation, REPLICATION_NODE_ID);
+            if (nodeId < 1 || nodeId > Replicator.MAX_NODE_ID) {
+               throw new OperationFailedException(new ModelNode().set("Invalid " + REPLICATION_NODE_ID + " " + nodeId
+                        + ", expected 1 to " + Replicator.MAX_NODE_ID));
+            }
+            configuration.setReplicationNodeId(nodeId);
+         }
+         if (operation.hasDefined(ANTI_ENTROPY_INTERVAL)) {
+            configuration.setAntiEntropyInterval(getInt(operation, ANTI_ENTROPY_INTERVAL));
+         }
+         if (operation.hasDefined(SHARDS)) {
+            int shards = getInt(operation, SHARDS);
+            if (shards == 0) {
+               throw new OperationFailedException(new ModelNode().set("Invalid " + SHARDS + " " + shards));
+            }
+            configuration.setShards(shards);
+         }
+         if (operation.hasDefined(BLOOM_FILTER_FP_RATE)) {
+            String rate = operation.get(BLOOM_FILTER_FP_RATE).asString();
+            double value = -1;
+            try {
+               value = Double.parseDouble(rate);
+            } catch (NumberFormatException e) {
+               // reported below
+            }
+            if (!(value >= 0 && value < 1)) {
+               throw new OperationFailedException(new ModelNode().set("Invalid " + BLOOM_FILTER_FP_RATE + " " + rate));
+            }
+            configuration.setBloomFilterFpRate(value);
+         }
+         if (operation.hasDefined(DEFAULT_TTL)) {
+            configuration.setDefaultTtl(getInt(operation, DEFAULT_TTL));
+         }
+         if (operation.hasDefined(LOAD_BATCH_SIZE)) {
+            int size = getInt(operation, LOAD_BATCH_SIZE);
+            if (size == 0) {
+               throw new OperationFailedException(new ModelNode().set("Invalid " + LOAD_BATCH_SIZE + " " + size));
+            }
+            configuration.setLoadBatchSize(size);
+         }
+         if (operation.hasDefined(LOAD_BATCH_WINDOW)) {
+            configuration.setLoadBatchWindow(getInt(operation, LOAD_BATCH_WINDOW));
+         }
+         return configuration;
      }
 
    }
@@ -162,13 +764,14 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
          PathAddress rootAddress = PathAddress.pathAddress(PathAddress.pathAddress(operation.require(ModelDescriptionConstants.OP_ADDR)).getLastElement());
          ModelNode subModel = context.getSubModel();
 
+         // the entries are described in bulk as a part of the subsystem and dictionary add operations
          result.add(SubsystemAdd.createOperation(rootAddress.toModelNode(), subModel));
-
-         if (subModel.hasDefined(ENTRY)) {
-            for (Property entry : subModel.get(ENTRY).asPropertyList()) {
+         if (subModel.hasDefined(DICTIONARY)) {
+            ModelNode dictionaries = subModel.get(DICTIONARY);
+            for (String name : dictionaries.keys()) {
                ModelNode address = rootAddress.toModelNode();
-               address.add(ENTRY, entry.getName());
-               result.add(EntryAdd.createOperation(address, entry.getValue()));
+               address.add(DICTIONARY, name);
+               result.add(SubsystemAdd.createOperation(address, dictionaries.get(name)));
             }
          }
 
@@ -179,6 +782,550 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
 
    }
 
+   /**
+    * Adds a named dictionary with the same attributes and bulk entries as the subsystem add, the
+    * dictionary gets its own service.
+    */
+   public static class DictionaryAdd implements ModelAddOperationHandler, DescriptionProvider {
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getNamedDictionaryAddDescription(locale);
+      }
+
+      @Override
+      public OperationResult execute(OperationContext context, ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
+         ModelNode opAddr = operation.require(ModelDescriptionConstants.OP_ADDR);
+         final String name = PathAddress.pathAddress(opAddr).getLastElement().getValue();
+         final DictionaryConfiguration configuration = SubsystemAdd.createConfiguration(operation);
+         final EntriesFile entriesFile = SubsystemAdd.getEntriesFile(operation);
+         final Map<String, String> fileChanges = new LinkedHashMap<String, String>();
+         final Map<String, Long> fileExpires = new HashMap<String, Long>();
+         final EntryBuffer entries = SubsystemAdd.readEntries(operation, entriesFile, fileChanges, fileExpires);
+         SubsystemAdd.populate(operation, entries, context.getSubModel());
+
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    DictionaryService.addService(context.getServiceTarget(), name, configuration, entries.toMap(), entries.getTtls(System.currentTimeMillis()));
+                    SubsystemAdd.registerEntriesFile(name, entriesFile, fileChanges, fileExpires);
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             SubsystemAdd.registerEntriesFile(name, entriesFile, fileChanges, fileExpires);
+             resultHandler.handleResultComplete();
+         }
+
+         return new BasicOperationResult(Util.getResourceRemoveOperation(opAddr));
+      }
+
+   }
+
+   public static class DictionaryRemove implements ModelRemoveOperationHandler, DescriptionProvider {
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getNamedDictionaryRemoveDescription(locale);
+      }
+
+      @Override
+      public OperationResult execute(OperationContext context, ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
+         ModelNode opAddr = operation.require(ModelDescriptionConstants.OP_ADDR);
+         ModelNode restoreOperation = SubsystemAdd.createOperation(opAddr, context.getSubModel());
+
+         final String name = getDictionaryName(operation);
+         final ServiceName serviceName = getServiceName(operation);
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    ServiceController<?> serviceController = context.getServiceRegistry().getService(serviceName);
+                    if (serviceController != null) {
+                       serviceController.setMode(ServiceController.Mode.REMOVE);
+                    }
+                    EntriesFile.close(name);
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             EntriesFile.close(name);
+             resultHandler.handleResultComplete();
+         }
+
+         return new BasicOperationResult(restoreOperation);
+      }
+
+   }
+
+   /**
+    * Starts or stops the service of a dictionary, the dictionary stays in the model. The stopped
+    * service keeps its entries and serves them again once started, the entry operations are
+    * rejected meanwhile.
+    */
+   public static class SetMode implements ModelUpdateOperationHandler, DescriptionProvider {
+      private final String operationName;
+      private final ServiceController.Mode mode;
+      private final String compensatingOperationName;
+
+      SetMode(String operationName, ServiceController.Mode mode, String compensatingOperationName) {
+         this.operationName = operationName;
+         this.mode = mode;
+         this.compensatingOperationName = compensatingOperationName;
+      }
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getDictionarySetModeDescription(locale, operationName);
+      }
+
+      @Override
+      public OperationResult execute(OperationContext context, ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
+         ModelNode compensatingOperation = Util.getEmptyOperation(compensatingOperationName, operation.require(ModelDescriptionConstants.OP_ADDR));
+
+         final ServiceName serviceName = getServiceName(operation);
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    ServiceController<?> serviceController = context.getServiceRegistry().getService(serviceName);
+                    if (serviceController == null) {
+                       throw new OperationFailedException(new ModelNode().set("No dictionary service " + serviceName));
+                    }
+                    serviceController.setMode(mode);
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             resultHandler.handleResultComplete();
+         }
+
+         return new BasicOperationResult(compensatingOperation);
+      }
+
+   }
+
+   /**
+    * Reads a runtime metric of the dictionary service, the latency metrics are objects with the
+    * count, mean, percentiles and max in nanoseconds.
+    */
+   public static class ReadMetric implements ModelQueryOperationHandler {
+
+      static List<String> getMetricNames() {
+         List<String> names = new ArrayList<String>();
+         names.add(LOOKUP_HITS);
+         names.add(LOOKUP_MISSES);
+         names.add(HIT_RATIO);
+         names.add(ENTRY_COUNT);
+         names.add(MEMORY_FOOTPRINT);
+         names.add(VERSION);
+         names.add(COMPRESSION_RATIO);
+         for (DictionaryMetrics.Operation op : DictionaryMetrics.Operation.values()) {
+            names.add(op.getName() + LATENCY_SUFFIX);
+         }
+         return names;
+      }
+
+      @Override
+      public OperationResult execute(OperationContext context, ModelNode operation, final ResultHandler resultHandler) throws OperationFailedException {
+         final String name = operation.require(ModelDescriptionConstants.NAME).asString();
+         final ServiceName serviceName = getServiceName(operation);
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    ServiceController<?> serviceController = context.getServiceRegistry().getService(serviceName);
+                    if (serviceController == null || serviceController.getState() != ServiceController.State.UP) {
+                       // no metrics of a dictionary that isn't running
+                       resultHandler.handleResultFragment(Util.NO_LOCATION, new ModelNode());
+                    } else {
+                       DictionaryService service = (DictionaryService) serviceController.getValue();
+                       resultHandler.handleResultFragment(Util.NO_LOCATION, readMetric(service, name));
+                    }
+                    resultHandler.handleResultComplete();
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             resultHandler.handleResultFragment(Util.NO_LOCATION, new ModelNode());
+             resultHandler.handleResultComplete();
+         }
+         return new BasicOperationResult();
+      }
+
+      static ModelNode readMetric(DictionaryService service, String name) throws OperationFailedException {
+         DictionaryMetrics metrics = service.getMetrics();
+         ModelNode result = new ModelNode();
+         if (LOOKUP_HITS.equals(name)) {
+            result.set(metrics.getHits());
+         } else if (LOOKUP_MISSES.equals(name)) {
+            result.set(metrics.getMisses());
+         } else if (HIT_RATIO.equals(name)) {
+            result.set(metrics.getHitRatio());
+         } else if (ENTRY_COUNT.equals(name)) {
+            result.set(service.size());
+         } else if (MEMORY_FOOTPRINT.equals(name)) {
+            result.set(service.getMemoryFootprint());
+         } else if (VERSION.equals(name)) {
+            result.set(service.getVersion());
+         } else if (COMPRESSION_RATIO.equals(name)) {
+            result.set(service.getCompressionRatio());
+         } else if (name.endsWith(LATENCY_SUFFIX)) {
+            LatencyHistogram latency;
+            try {
+               latency = metrics.getLatency(DictionaryMetrics.Operation.forName(name.substring(0, name.length() - LATENCY_SUFFIX.length())));
+            } catch (IllegalArgumentException e) {
+               throw new OperationFailedException(new ModelNode().set("Unknown metric " + name));
+            }
+            result.get(COUNT).set(latency.getCount());
+            result.get(MEAN).set(latency.getMean());
+            for (double percentile : DictionaryMetrics.PERCENTILES) {
+               result.get("p" + DictionaryMetrics.percentileName(percentile)).set(latency.getValueAtPercentile(percentile));
+            }
+            result.get(MAX).set(latency.getMax());
+         } else {
+            throw new OperationFailedException(new ModelNode().set("Unknown metric " + name));
+         }
+         return result;
+      }
+
+   }
+
+   public static class FindKeys implements ModelQueryOperationHandler, DescriptionProvider {
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getDictionaryFindKeysDescription(locale);
+      }
+
+      @Override
+      public OperationResult execute(OperationContext context, ModelNode operation, final ResultHandler resultHandler) throws OperationFailedException {
+         final String prefix = operation.hasDefined(PREFIX) ? operation.get(PREFIX).asString() : null;
+         final String from = operation.hasDefined(FROM) ? operation.get(FROM).asString() : null;
+         final String to = operation.hasDefined(TO) ? operation.get(TO).asString() : null;
+         final int limit = operation.get(LIMIT).asInt(DEFAULT_LIMIT);
+         if (limit <= 0) {
+            throw new OperationFailedException(new ModelNode().set("Invalid limit " + limit));
+         }
+
+         final ServiceName serviceName = getServiceName(operation);
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    DictionaryService service = getRunningService(context, serviceName);
+                    ModelNode result = new ModelNode();
+                    result.setEmptyList();
+                    for (String key : service.findKeys(prefix, from, to, limit)) {
+                       result.add(key);
+                    }
+                    resultHandler.handleResultFragment(Util.NO_LOCATION, result);
+                    resultHandler.handleResultComplete();
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             resultHandler.handleResultFragment(Util.NO_LOCATION, new ModelNode().setEmptyList());
+             resultHandler.handleResultComplete();
+         }
+         return new BasicOperationResult();
+      }
+
+   }
+
+   /**
+    * Adds a batch of new entries with a single model update and a single runtime task.
+    */
+   public static class AddEntries implements ModelUpdateOperationHandler, DescriptionProvider {
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getDictionaryAddEntriesDescription(locale);
+      }
+
+      @Override
+      public OperationResult execute(OperationContext context, ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
+         checkRunning(context, operation);
+         ModelNode opAddr = operation.require(ModelDescriptionConstants.OP_ADDR);
+         ModelNode entryModel = context.getSubModel().get(ENTRY);
+         final Map<String, String> batch = new LinkedHashMap<String, String>();
+         for (Property entry : operation.require(ENTRIES).asPropertyList()) {
+            String key = entry.getName();
+            if (entryModel.hasDefined(key) || batch.containsKey(key)) {
+               throw new OperationFailedException(new ModelNode().set("Duplicate entry " + key));
+            }
+            batch.put(key, entry.getValue().asString());
+         }
+         // the default ttl counts from now, not from the next boot
+         final Map<String, Long> expires = readExpires(operation, batch.keySet(), SubsystemAdd.getDefaultExpires(context.getSubModel(), System.currentTimeMillis()));
+         for (Map.Entry<String, String> entry : batch.entrySet()) {
+            entryModel.get(entry.getKey()).get(VALUE).set(entry.getValue());
+            Long time = expires.get(entry.getKey());
+            if (time != null && time > 0) {
+               entryModel.get(entry.getKey()).get(EXPIRES).set(time);
+            }
+         }
+         ModelNode compensatingOperation = RemoveEntries.createOperation(opAddr, batch.keySet());
+
+         final String name = getDictionaryName(operation);
+         final ServiceName serviceName = getServiceName(operation);
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    DictionaryService service = getRunningService(context, serviceName);
+                    service.addAll(batch, getTtls(expires));
+                    writeEntriesFile(name, batch, getExpiring(expires), false);
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             writeEntriesFile(name, batch, getExpiring(expires), false);
+             resultHandler.handleResultComplete();
+         }
+
+         return new BasicOperationResult(compensatingOperation);
+      }
+
+      static ModelNode createOperation(ModelNode address, Map<String, String> entries) {
+         ModelNode operation = Util.getEmptyOperation(ADD_ENTRIES, address);
+         ModelNode entriesNode = operation.get(ENTRIES).setEmptyObject();
+         for (Map.Entry<String, String> entry : entries.entrySet()) {
+            entriesNode.get(entry.getKey()).set(entry.getValue());
+         }
+         return operation;
+      }
+
+   }
+
+   /**
+    * Removes a batch of existing entries with a single model update and a single runtime task.
+    */
+   public static class RemoveEntries implements ModelUpdateOperationHandler, DescriptionProvider {
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getDictionaryRemoveEntriesDescription(locale);
+      }
+
+      @Override
+      public OperationResult execute(OperationContext context, ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
+         checkRunning(context, operation);
+         ModelNode opAddr = operation.require(ModelDescriptionConstants.OP_ADDR);
+         ModelNode entryModel = context.getSubModel().get(ENTRY);
+         final Map<String, String> removed = new LinkedHashMap<String, String>();
+         for (ModelNode keyNode : operation.require(KEYS).asList()) {
+            String key = keyNode.asString();
+            if (!entryModel.hasDefined(key)) {
+               throw new OperationFailedException(new ModelNode().set("No entry " + key));
+            }
+            removed.put(key, entryModel.get(key).get(VALUE).asString());
+         }
+         ModelNode compensatingOperation = AddEntries.createOperation(opAddr, removed);
+         setExpires(compensatingOperation, entryModel, removed.keySet(), SubsystemAdd.getDefaultExpires(context.getSubModel(), System.currentTimeMillis()));
+         for (String key : removed.keySet()) {
+            entryModel.remove(key);
+         }
+         final Map<String, String> changes = new LinkedHashMap<String, String>();
+         for (String key : removed.keySet()) {
+            changes.put(key, null);
+         }
+
+         final String name = getDictionaryName(operation);
+         final ServiceName serviceName = getServiceName(operation);
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    DictionaryService service = getRunningService(context, serviceName);
+                    service.removeAll(removed.keySet());
+                    writeEntriesFile(name, changes, Collections.<String, Long> emptyMap(), false);
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             writeEntriesFile(name, changes, Collections.<String, Long> emptyMap(), false);
+             resultHandler.handleResultComplete();
+         }
+
+         return new BasicOperationResult(compensatingOperation);
+      }
+
+      static ModelNode createOperation(ModelNode address, Collection<String> keys) {
+         ModelNode operation = Util.getEmptyOperation(REMOVE_ENTRIES, address);
+         ModelNode keysNode = operation.get(KEYS).setEmptyList();
+         for (String key : keys) {
+            keysNode.add(key);
+         }
+         return operation;
+      }
+
+   }
+
+   /**
+    * Replaces all the entries of a dictionary with a single model update and a single runtime
+    * task, the compensating operation restores the previous entries and their expiration times.
+    */
+   public static class ReplaceAll implements ModelUpdateOperationHandler, DescriptionProvider {
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getDictionaryReplaceAllDescription(locale);
+      }
+
+      @Override
+      public OperationResult execute(OperationContext context, ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
+         checkRunning(context, operation);
+         ModelNode opAddr = operation.require(ModelDescriptionConstants.OP_ADDR);
+         ModelNode model = context.getSubModel();
+         final Map<String, String> entries = new LinkedHashMap<String, String>();
+         for (Property entry : operation.require(ENTRIES).asPropertyList()) {
+            entries.put(entry.getName(), entry.getValue().asString());
+         }
+         long defaultExpires = SubsystemAdd.getDefaultExpires(model, System.currentTimeMillis());
+         final Map<String, Long> expires = readExpires(operation, entries.keySet(), defaultExpires);
+         ModelNode compensatingOperation = Util.getEmptyOperation(REPLACE_ALL, opAddr);
+         ModelNode previous = compensatingOperation.get(ENTRIES).setEmptyObject();
+         if (model.hasDefined(ENTRY)) {
+            ModelNode entryModel = model.get(ENTRY);
+            for (String key : entryModel.keys()) {
+               previous.get(key).set(entryModel.get(key).get(VALUE));
+            }
+            setExpires(compensatingOperation, entryModel, entryModel.keys(), defaultExpires);
+         }
+         ModelNode entryModel = model.get(ENTRY).setEmptyObject();
+         for (Map.Entry<String, String> entry : entries.entrySet()) {
+            entryModel.get(entry.getKey()).get(VALUE).set(entry.getValue());
+            Long time = expires.get(entry.getKey());
+            if (time != null && time > 0) {
+               entryModel.get(entry.getKey()).get(EXPIRES).set(time);
+            }
+         }
+
+         final String name = getDictionaryName(operation);
+         final ServiceName serviceName = getServiceName(operation);
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    DictionaryService service = getRunningService(context, serviceName);
+                    service.replaceAll(entries, getTtls(expires));
+                    writeEntriesFile(name, entries, getExpiring(expires), true);
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             writeEntriesFile(name, entries, getExpiring(expires), true);
+             resultHandler.handleResultComplete();
+         }
+
+         return new BasicOperationResult(compensatingOperation);
+      }
+
+   }
+
+   /**
+    * Imports entries from a file into the running dictionary or exports them to a file, see
+    * {@link ImportEntries} and {@link ExportEntries}.
+    */
+   abstract static class Transfer implements DescriptionProvider {
+      private final boolean importing;
+
+      Transfer(boolean importing) {
+         this.importing = importing;
+      }
+
+      public OperationResult execute(OperationContext context, ModelNode operation, final ResultHandler resultHandler) throws OperationFailedException {
+         final File file = SubsystemAdd.resolvePath(operation.require(PATH).asString(), SubsystemAdd.getRelativeTo(operation));
+         final DictionaryTransfer.Format format;
+         String formatName = operation.hasDefined(FORMAT) ? operation.get(FORMAT).asString() : DictionaryTransfer.Format.CSV.getName();
+         try {
+            format = DictionaryTransfer.Format.forName(formatName);
+         } catch (IllegalArgumentException e) {
+            throw new OperationFailedException(new ModelNode().set("Unknown format " + formatName));
+         }
+         final int chunkSize = operation.get(CHUNK_SIZE).asInt(DictionaryTransfer.DEFAULT_CHUNK_SIZE);
+         if (chunkSize <= 0) {
+            throw new OperationFailedException(new ModelNode().set("Invalid " + CHUNK_SIZE + " " + chunkSize));
+         }
+         final String prefix = operation.hasDefined(PREFIX) ? operation.get(PREFIX).asString() : null;
+
+         final ServiceName serviceName = getServiceName(operation);
+         RuntimeOperationContext runtime = context.getRuntimeContext();
+         if (runtime != null) {
+             RuntimeTask task = new RuntimeTask() {
+                 @Override
+                 public void execute(RuntimeTaskContext context) throws OperationFailedException {
+                    DictionaryService service = getRunningService(context, serviceName);
+                    DictionaryTransfer transfer = new DictionaryTransfer(service, file, format, chunkSize);
+                    long count;
+                    try {
+                       count = importing ? transfer.importEntries() : transfer.exportEntries(prefix);
+                    } catch (IOException e) {
+                       throw new OperationFailedException(new ModelNode().set("Couldn't " + (importing ? IMPORT : EXPORT) + " "
+                                + file + " after " + transfer.getEntries() + " entries: " + e.getMessage()));
+                    } catch (RuntimeException e) {
+                       // a journal failure, or the service stopping meanwhile
+                       throw new OperationFailedException(new ModelNode().set("Couldn't " + (importing ? IMPORT : EXPORT) + " "
+                                + file + " after " + transfer.getEntries() + " entries: " + e));
+                    }
+                    resultHandler.handleResultFragment(Util.NO_LOCATION, new ModelNode().set(count));
+                    resultHandler.handleResultComplete();
+                 }
+             };
+             runtime.setRuntimeTask(task);
+         } else {
+             resultHandler.handleResultFragment(Util.NO_LOCATION, new ModelNode());
+             resultHandler.handleResultComplete();
+         }
+         return new BasicOperationResult();
+      }
+
+   }
+
+   /**
+    * Imports entries from a file into the running dictionary. An update rather than a query, it
+    * changes the dictionary, but like the MBean writes the imported entries aren't added to the
+    * model, the journal keeps them, so there is no compensating operation.
+    */
+   public static class ImportEntries extends Transfer implements ModelUpdateOperationHandler {
+
+      ImportEntries() {
+         super(true);
+      }
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getDictionaryImportDescription(locale);
+      }
+
+   }
+
+   /**
+    * Exports the entries of the running dictionary to a file.
+    */
+   public static class ExportEntries extends Transfer implements ModelQueryOperationHandler {
+
+      ExportEntries() {
+         super(false);
+      }
+
+      @Override
+      public ModelNode getModelDescription(Locale locale) {
+         return DictionaryDescriptions.getDictionaryExportDescription(locale);
+      }
+
+   }
+
    public static class EntryAdd implements ModelAddOperationHandler, DescriptionProvider {
 
       @Override
@@ -188,24 +1335,40 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
 
       @Override
       public OperationResult execute(OperationContext context, final ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
+         checkRunning(context, operation);
          ModelNode opAddr = operation.require(ModelDescriptionConstants.OP_ADDR);
          final String key = PathAddress.pathAddress(opAddr).getLastElement().getValue();
          ModelNode removeOperation = Util.getResourceRemoveOperation(opAddr);
+         final long expires = getExpires(context, operation);
 
-         populate(operation, context.getSubModel());
+         ModelNode model = context.getSubModel();
+         model.get(VALUE).set(operation.require(VALUE));
+         if (expires >= 0) {
+            model.get(EXPIRES).set(expires);
+         }
+         final Map<String, Long> fileExpires = expires >= 0 ? Collections.singletonMap(key, expires) : Collections.<String, Long> emptyMap();
 
+         final String name = getDictionaryName(operation);
+         final ServiceName serviceName = getServiceName(operation);
          RuntimeOperationContext runtime = context.getRuntimeContext();
          if (runtime != null) {
              RuntimeTask task = new RuntimeTask() {
                  @Override
                  public void execute(RuntimeTaskContext context) throws OperationFailedException {
-                    ServiceController<?> serviceController = context.getServiceRegistry().getService(DictionaryService.getServiceName());
-                    DictionaryService service = (DictionaryService) serviceController.getValue();
-                    service.add(key, operation.get(VALUE).asString());
+                    long start = System.nanoTime();
+                    DictionaryService service = getRunningService(context, serviceName);
+                    if (expires >= 0) {
+                       service.add(key, operation.get(VALUE).asString(), EntryBuffer.toTtl(expires, System.currentTimeMillis()));
+                    } else {
+                       service.add(key, operation.get(VALUE).asString());
+                    }
+                    service.getMetrics().record(DictionaryMetrics.Operation.ENTRY_ADD, start);
+                    writeEntriesFile(name, Collections.singletonMap(key, operation.get(VALUE).asString()), fileExpires, false);
                  }
              };
              runtime.setRuntimeTask(task);
          } else {
+             writeEntriesFile(name, Collections.singletonMap(key, operation.get(VALUE).asString()), fileExpires, false);
              resultHandler.handleResultComplete();
          }
 
@@ -214,12 +1377,28 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
 
       static ModelNode createOperation(ModelNode address, ModelNode existing) {
          ModelNode operation = Util.getEmptyOperation(ModelDescriptionConstants.ADD, address);
-         populate(existing, operation);
+         operation.get(VALUE).set(existing.require(VALUE));
+         if (existing.hasDefined(EXPIRES)) {
+            operation.get(EXPIRES).set(existing.get(EXPIRES));
+         }
          return operation;
       }
 
-      private static void populate(ModelNode source, ModelNode target) {
-         target.get(VALUE).set(source.require(VALUE));
+      /**
+       * @return time in milliseconds the entry expires at, from its expires or ttl parameter or
+       *         the default ttl of the dictionary, -1 if none of them is set
+       */
+      private static long getExpires(OperationContext context, ModelNode operation) throws OperationFailedException {
+         if (operation.hasDefined(EXPIRES)) {
+            return SubsystemAdd.getLong(operation.get(EXPIRES), EXPIRES);
+         }
+         long now = System.currentTimeMillis();
+         if (operation.hasDefined(TTL)) {
+            return EntryBuffer.toExpires(SubsystemAdd.getLong(operation.get(TTL), TTL), now);
+         }
+         PathAddress address = PathAddress.pathAddress(operation.require(ModelDescriptionConstants.OP_ADDR));
+         long defaultExpires = SubsystemAdd.getDefaultExpires(context.getSubModel(address.subAddress(0, address.size() - 1)), now);
+         return defaultExpires > 0 ? defaultExpires : -1;
       }
 
    }
@@ -233,22 +1412,28 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
 
       @Override
       public OperationResult execute(OperationContext opContext, ModelNode operation, ResultHandler resultHandler) throws OperationFailedException {
+         checkRunning(opContext, operation);
          ModelNode opAddr = operation.require(ModelDescriptionConstants.OP_ADDR);
          final String key = PathAddress.pathAddress(opAddr).getLastElement().getValue();
          ModelNode restoreOperation = EntryAdd.createOperation(opAddr, opContext.getSubModel());
 
+         final String name = getDictionaryName(operation);
+         final ServiceName serviceName = getServiceName(operation);
          RuntimeOperationContext runtime = opContext.getRuntimeContext();
          if (runtime != null) {
              RuntimeTask task = new RuntimeTask() {
                  @Override
                  public void execute(RuntimeTaskContext context) throws OperationFailedException {
-                    ServiceController<?> serviceController = context.getServiceRegistry().getService(DictionaryService.getServiceName());
-                    DictionaryService service = (DictionaryService) serviceController.getValue();
+                    long start = System.nanoTime();
+                    DictionaryService service = getRunningService(context, serviceName);
                     service.remove(key);
+                    service.getMetrics().record(DictionaryMetrics.Operation.ENTRY_REMOVE, start);
+                    writeEntriesFile(name, Collections.<String, String> singletonMap(key, null), Collections.<String, Long> emptyMap(), false);
                  }
              };
              runtime.setRuntimeTask(task);
          } else {
+             writeEntriesFile(name, Collections.<String, String> singletonMap(key, null), Collections.<String, Long> emptyMap(), false);
              resultHandler.handleResultComplete();
          }
 
@@ -261,17 +1446,44 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
    public void writeContent(XMLExtendedStreamWriter writer, SubsystemMarshallingContext context) throws XMLStreamException {
       context.startSubsystemElement(NAMESPACE, false);
       ModelNode model = context.getModelNode();
-      if (model.isDefined()) {
-         for (Property entry : model.get(ENTRY).asPropertyList()) {
-            writer.writeStartElement(ENTRY);
-            writer.writeAttribute(KEY, entry.getName());
-            writer.writeAttribute(VALUE, entry.getValue().get(VALUE).asString());
+      writeDictionary(writer, model);
+      if (model.hasDefined(DICTIONARY)) {
+         ModelNode dictionaries = model.get(DICTIONARY);
+         for (String name : dictionaries.keys()) {
+            writer.writeStartElement(DICTIONARY);
+            writer.writeAttribute(NAME, name);
+            writeDictionary(writer, dictionaries.get(name));
             writer.writeEndElement();
          }
       }
       writer.writeEndElement();
    }
 
+   /**
+    * Writes the attributes and the entries of the subsystem or a dictionary element. The entries
+    * are streamed from the model without copying them, with an entries file they aren't written
+    * at all.
+    */
+   private void writeDictionary(XMLExtendedStreamWriter writer, ModelNode model) throws XMLStreamException {
+      for (String attribute : SUBSYSTEM_ATTRIBUTES) {
+         if (model.hasDefined(attribute)) {
+            writer.writeAttribute(attribute, model.get(attribute).asString());
+         }
+      }
+      if (model.hasDefined(ENTRY) && !model.hasDefined(ENTRIES_FILE)) {
+         ModelNode entries = model.get(ENTRY);
+         for (String key : entries.keys()) {
+            writer.writeStartElement(ENTRY);
+            writer.writeAttribute(KEY, key);
+            writer.writeAttribute(VALUE, entries.get(key).get(VALUE).asString());
+            if (entries.get(key).hasDefined(EXPIRES)) {
+               writer.writeAttribute(EXPIRES, entries.get(key).get(EXPIRES).asString());
+            }
+            writer.writeEndElement();
+         }
+      }
+   }
+
    @Override
    public void readElement(XMLExtendedStreamReader reader, List<ModelNode> operations) throws XMLStreamException {
       ModelNode address = new ModelNode();
@@ -279,30 +1491,117 @@ public class DictionaryExtension implements Extension, XMLElementReader<List<Mod
       address.protect();
       ModelNode subsystem = Util.getEmptyOperation(ModelDescriptionConstants.ADD, address);
       operations.add(subsystem);
+      parseAttributes(reader, subsystem, false);
 
-      ParseUtils.requireNoAttributes(reader);
+      subsystem.get(ENTRIES).setEmptyObject();
+      Set<String> dictionaries = new HashSet<String>();
+      while (reader.hasNext() && reader.nextTag() != XMLStreamConstants.END_ELEMENT) {
+         if (!NAMESPACE.equals(reader.getNamespaceURI())) {
+            throw ParseUtils.unexpectedElement(reader);
+         }
+         if (ENTRY.equals(reader.getLocalName())) {
+            parseEntry(reader, subsystem);
+         } else if (DICTIONARY.equals(reader.getLocalName())) {
+            operations.add(parseDictionary(reader, address, dictionaries));
+         } else {
+            throw ParseUtils.unexpectedElement(reader);
+         }
+      }
+   }
 
-      while (reader.hasNext()) {
-         if (reader.nextTag() == XMLStreamConstants.END_ELEMENT) {
-            if (ENTRY.equals(reader.getLocalName())) {
-               continue;
-            } else {
-               break;
-            }
+   /**
+    * Copies the dictionary attributes of the current element to the operation.
+    *
+    * @param named whether the element has the name attribute
+    * @return value of the name attribute
+    */
+   private String parseAttributes(XMLExtendedStreamReader reader, ModelNode operation, boolean named) throws XMLStreamException {
+      String dictionaryName = null;
+      for (int i = 0; i < reader.getAttributeCount(); i++) {
+         ParseUtils.requireNoNamespaceAttribute(reader, i);
+         String name = reader.getAttributeLocalName(i);
+         if (named && NAME.equals(name)) {
+            dictionaryName = reader.getAttributeValue(i);
+         } else if (Arrays.asList(SUBSYSTEM_ATTRIBUTES).contains(name)) {
+            operation.get(name).set(reader.getAttributeValue(i));
+         } else {
+            throw ParseUtils.unexpectedAttribute(reader, i);
          }
+      }
+      if (named && dictionaryName == null) {
+         throw ParseUtils.missingRequired(reader, Collections.singleton(NAME));
+      }
+      return dictionaryName;
+   }
+
+   /**
+    * @return add operation of the named dictionary with its entries
+    */
+   private ModelNode parseDictionary(XMLExtendedStreamReader reader, ModelNode subsystemAddress, Set<String> names) throws XMLStreamException {
+      ModelNode dictionary = Util.getEmptyOperation(ModelDescriptionConstants.ADD, new ModelNode());
+      String name = parseAttributes(reader, dictionary, true);
+      if (!names.add(name)) {
+         throw ParseUtils.duplicateNamedElement(reader, name);
+      }
+      ModelNode address = subsystemAddress.clone();
+      address.add(DICTIONARY, name);
+      dictionary.get(ModelDescriptionConstants.OP_ADDR).set(address);
+
+      dictionary.get(ENTRIES).setEmptyObject();
+      while (reader.hasNext() && reader.nextTag() != XMLStreamConstants.END_ELEMENT) {
          if (!NAMESPACE.equals(reader.getNamespaceURI()) || !ENTRY.equals(reader.getLocalName())) {
             throw ParseUtils.unexpectedElement(reader);
          }
-         operations.add(parseEntry(reader, address));
+         parseEntry(reader, dictionary);
       }
+      return dictionary;
    }
 
-   private ModelNode parseEntry(XMLExtendedStreamReader reader, ModelNode address) throws XMLStreamException {
-      ModelNode entry = Util.getEmptyOperation(ModelDescriptionConstants.ADD, address);
-      ParseUtils.requireAttributes(reader, KEY, VALUE);
-      entry.get(ModelDescriptionConstants.OP_ADDR).add(ENTRY, reader.getAttributeValue(null, KEY));
-      entry.get(VALUE).set(reader.getAttributeValue(null, VALUE));
-      return entry;
+   /**
+    * Collects the entry into the add operation of the subsystem or dictionary element instead of
+    * creating an add operation per entry, the whole dictionary is then installed with the service
+    * in a single runtime task. The attributes are read in a single pass, the optional expiration
+    * time goes to a separate map of the operation.
+    */
+   private void parseEntry(XMLExtendedStreamReader reader, ModelNode operation) throws XMLStreamException {
+      String key = null;
+      String value = null;
+      long expires = -1;
+      int count = reader.getAttributeCount();
+      for (int i = 0; i < count; i++) {
+         String name = reader.getAttributeLocalName(i);
+         if (KEY.equals(name)) {
+            key = reader.getAttributeValue(i);
+         } else if (VALUE.equals(name)) {
+            value = reader.getAttributeValue(i);
+         } else if (TTL.equals(name) || EXPIRES.equals(name)) {
+            long time = -1;
+            try {
+               time = Long.parseLong(reader.getAttributeValue(i));
+            } catch (NumberFormatException e) {
+               // reported below
+            }
+            if (time < 0) {
+               throw ParseUtils.invalidAttributeValue(reader, i);
+            }
+            // a ttl counts from now, the writer stores the time it ends at
+            expires = TTL.equals(name) ? EntryBuffer.toExpires(time, System.currentTimeMillis()) : time;
+         } else {
+            throw ParseUtils.unexpectedAttribute(reader, i);
+         }
+      }
+      if (key == null || value == null) {
+         throw ParseUtils.missingRequired(reader, Collections.singleton(key == null ? KEY : VALUE));
+      }
+      ModelNode entries = operation.get(ENTRIES);
+      if (entries.has(key)) {
+         throw ParseUtils.duplicateNamedElement(reader, key);
+      }
+      entries.get(key).set(value);
+      if (expires >= 0) {
+         operation.get(EXPIRES, key).set(expires);
+      }
+      ParseUtils.requireNoContent(reader);
    }
 
 }
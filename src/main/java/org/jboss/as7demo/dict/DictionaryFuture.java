@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Result of an asynchronous dictionary lookup. The callbacks run on the thread completing the
+ * future, or right away on the registering thread once it's complete, so they mustn't block. The
+ * future can't be cancelled, concurrent lookups of the same key share it.
+ *
+ * @author Michal Linhard
+ */
+public class DictionaryFuture<V> implements Future<V> {
+   private static final Logger log = Logger.getLogger(DictionaryFuture.class.getPackage().getName());
+
+   public interface Callback<V> {
+
+      /**
+       * @param value result of the lookup, null for a missing key
+       */
+      void completed(V value);
+
+      void failed(Throwable cause);
+
+   }
+
+   private final CountDownLatch done = new CountDownLatch(1);
+   private V value;
+   private Throwable failure;
+   /**
+    * Guarded by this, null once complete.
+    */
+   private List<Callback<? super V>> callbacks = new ArrayList<Callback<? super V>>(1);
+
+   static <V> DictionaryFuture<V> completed(V value) {
+      DictionaryFuture<V> future = new DictionaryFuture<V>();
+      future.complete(value);
+      return future;
+   }
+
+   /**
+    * @return false if the future was already complete
+    */
+   boolean complete(V value) {
+      return finish(value, null);
+   }
+
+   /**
+    * @return false if the future was already complete
+    */
+   boolean fail(Throwable cause) {
+      return finish(null, cause);
+   }
+
+   private boolean finish(V result, Throwable cause) {
+      List<Callback<? super V>> pending;
+      synchronized (this) {
+         if (callbacks == null) {
+            return false;
+         }
+         value = result;
+         failure = cause;
+         pending = callbacks;
+         callbacks = null;
+      }
+      done.countDown();
+      for (Callback<? super V> callback : pending) {
+         invoke(callback);
+      }
+      return true;
+   }
+
+   public void addCallback(Callback<? super V> callback) {
+      synchronized (this) {
+         if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+         }
+      }
+      invoke(callback);
+   }
+
+   private void invoke(Callback<? super V> callback) {
+      try {
+         if (failure == null) {
+            callback.completed(value);
+         } else {
+            callback.failed(failure);
+         }
+      } catch (RuntimeException e) {
+         log.warn("Dictionary lookup callback failed", e);
+      }
+   }
+
+   @Override
+   public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+   }
+
+   @Override
+   public boolean isCancelled() {
+      return false;
+   }
+
+   @Override
+   public boolean isDone() {
+      return done.getCount() == 0;
+   }
+
+   @Override
+   public V get() throws InterruptedException, ExecutionException {
+      done.await();
+      return result();
+   }
+
+   @Override
+   public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!done.await(timeout, unit)) {
+         throw new TimeoutException();
+      }
+      return result();
+   }
+
+   private V result() throws ExecutionException {
+      if (failure != null) {
+         throw new ExecutionException(failure);
+      }
+      return value;
+   }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Ordered index of the dictionary keys. Implementations must allow lock-free reads concurrent with
+ * writes, iterators are weakly consistent.
+ *
+ * @author Michal Linhard
+ */
+public interface DictionaryIndex {
+
+   void insert(String key);
+
+   void delete(String key);
+
+   /**
+    * @param from lower bound, null to iterate all keys
+    * @param inclusive whether the lower bound itself is returned
+    * @return ascending iterator over the keys
+    */
+   Iterator<String> keys(String from, boolean inclusive);
+
+   /**
+    * Walks the whole index, meant for on demand reports.
+    *
+    * @param sharedKeys whether the indexed keys are the string instances the store keeps anyway
+    * @return estimated heap bytes occupied by the index
+    */
+   long getMemoryFootprint(boolean sharedKeys);
+
+   enum Type {
+      SKIPLIST {
+         @Override
+         public DictionaryIndex create(DictionaryStore store, DictionaryConfiguration configuration) {
+            return new SkipListIndex();
+         }
+      },
+      TRIE {
+         @Override
+         public DictionaryIndex create(DictionaryStore store, DictionaryConfiguration configuration) {
+            return new PrefixTrieIndex();
+         }
+      },
+      SHARDED {
+         @Override
+         public DictionaryIndex create(DictionaryStore store, DictionaryConfiguration configuration) {
+            return new ShardedIndex(configuration.getShards());
+         }
+      },
+      NONE {
+         @Override
+         public DictionaryIndex create(DictionaryStore store, DictionaryConfiguration configuration) {
+            return new SortingIndex(store);
+         }
+      };
+
+      /**
+       * @param store store the index is maintained for
+       */
+      public abstract DictionaryIndex create(DictionaryStore store, DictionaryConfiguration configuration);
+
+      public String getName() {
+         return name().toLowerCase(Locale.ENGLISH);
+      }
+
+      public static Type forName(String name) {
+         return valueOf(name.toUpperCase(Locale.ENGLISH));
+      }
+   }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Map;
+
+/**
+ * Receives the changes of a dictionary, see {@link DictionaryClient#addListener}. The methods are
+ * called asynchronously, never concurrently for the same listener.
+ *
+ * @author Michal Linhard
+ */
+public interface DictionaryListener {
+
+   /**
+    * @param changes new values by key, null for removed keys. Only the last change of a key made
+    *           within the coalescing window is included.
+    */
+   void entriesChanged(Map<String, String> changes);
+
+   /**
+    * The listener fell behind by more changed keys than the notification capacity and the changes
+    * were dropped, the dictionary has to be read again. Later changes are delivered as usual.
+    */
+   void changesDropped();
+
+}
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.io.IOException;
+
+/**
+ * Backing store consulted by {@link DictionaryService} in cache mode when a key is not found.
+ * Implementations are looked up with {@link java.util.ServiceLoader} in the dictionary module,
+ * list them in <code>META-INF/services/org.jboss.as7demo.dict.DictionaryLoader</code>.
+ *
+ * @author Michal Linhard
+ */
+public interface DictionaryLoader {
+
+   /**
+    * @param source loader specific location of the backing store, e.g. a file path
+    */
+   void start(String source) throws IOException;
+
+   /**
+    * Called concurrently, but never concurrently for the same key.
+    *
+    * @return value of the key or null if the backing store doesn't have it
+    */
+   String load(String key) throws IOException;
+
+   void stop();
+
+}
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Locale;
+
+/**
+ * Counters and latency histograms of the dictionary operations.
+ *
+ * @author Michal Linhard
+ */
+public class DictionaryMetrics {
+
+   public enum Operation {
+      FIND,
+      /** batch lookup of the client API */
+      GET_ALL,
+      /** asynchronous lookup of the client API, until its value is available */
+      FIND_ASYNC,
+      ADD, REMOVE, LIST,
+      /** runtime task of the entry add management operation */
+      ENTRY_ADD,
+      /** runtime task of the entry remove management operation */
+      ENTRY_REMOVE,
+      /** decompression of a value missing in the hot cache of the compressed storage */
+      DECODE;
+
+      public String getName() {
+         return name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+      }
+
+      public static Operation forName(String name) {
+         return valueOf(name.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+      }
+   }
+
+   /**
+    * Percentiles included in the reports.
+    */
+   static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+   private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+   private final StripedCounter hits = new StripedCounter();
+   private final StripedCounter misses = new StripedCounter();
+
+   public DictionaryMetrics() {
+      for (int i = 0; i < latencies.length; i++) {
+         latencies[i] = new LatencyHistogram();
+      }
+   }
+
+   /**
+    * Records an operation that started at startNanos, a {@link System#nanoTime()} value.
+    */
+   public void record(Operation operation, long startNanos) {
+      latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+   }
+
+   public void recordLookup(boolean found) {
+      (found ? hits : misses).increment();
+   }
+
+   public LatencyHistogram getLatency(Operation operation) {
+      return latencies[operation.ordinal()];
+   }
+
+   public long getCount(Operation operation) {
+      return latencies[operation.ordinal()].getCount();
+   }
+
+   public long getHits() {
+      return hits.sum();
+   }
+
+   public long getMisses() {
+      return misses.sum();
+   }
+
+   /**
+    * @return found lookups / all lookups, 0 before the first lookup
+    */
+   public double getHitRatio() {
+      long h = hits.sum();
+      long total = h + misses.sum();
+      return total == 0 ? 0 : (double) h / total;
+   }
+
+   public String report() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("hits: %d, misses: %d, hit ratio: %.4f%n", getHits(), getMisses(), getHitRatio()));
+      for (Operation operation : Operation.values()) {
+         LatencyHistogram latency = getLatency(operation);
+         sb.append(operation.getName()).append(": count ").append(latency.getCount());
+         sb.append(", mean ").append(latency.getMean());
+         for (double percentile : PERCENTILES) {
+            sb.append(", p").append(percentileName(percentile)).append(" ").append(latency.getValueAtPercentile(percentile));
+         }
+         sb.append(", max ").append(latency.getMax()).append(" ns\n");
+      }
+      return sb.toString();
+   }
+
+   /**
+    * @return 50 for 50, 999 for 99.9
+    */
+   static String percentileName(double percentile) {
+      String name = Double.toString(percentile);
+      return name.endsWith(".0") ? name.substring(0, name.length() - 2) : name.replace(".", "");
+   }
+
+}
@@ -21,16 +21,45 @@
  */
 package org.jboss.as7demo.dict;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.AbstractMap;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.ServiceLoader;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanNotificationInfo;
 import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 
 import org.jboss.logging.Logger;
@@ -46,21 +75,242 @@ import org.jboss.msc.service.StopContext;
  * 
  * @author Michal Linhard
  */
-public class DictionaryService implements Service<DictionaryService>, DictionaryServiceMBean {
+public class DictionaryService implements Service<DictionaryService>, DictionaryServiceMBean, DictionaryClient, NotificationEmitter {
+   /**
+    * Type of the JMX notifications of changed entries, the user data is a map of the new values
+    * by key, null for removed keys.
+    */
+   public static final String ENTRIES_CHANGED = "dictionary.entries.changed";
+   /**
+    * Type of the JMX notification sent when the changes were dropped for slow listeners.
+    */
+   public static final String CHANGES_DROPPED = "dictionary.changes.dropped";
    private static final ServiceName SERVICE_NAME = ServiceName
             .of(DictionaryExtension.SUBSYSTEM_NAME);
 
    private static final Logger log = Logger.getLogger(DictionaryExtension.class.getPackage()
             .getName());
-   private Map<String, String> dictionary = new ConcurrentHashMap<String, String>();
+   private static final int LOCK_STRIPES = 64;
+   /**
+    * Smallest capacity of the bloom filter, also the removals tolerated before it's rebuilt.
+    */
+   private static final int MIN_FILTER_CAPACITY = 1024;
+   /**
+    * Milliseconds per tick of the expiration wheel, the expired entries are removed this often.
+    */
+   private static final long EXPIRY_TICK_MILLIS = 100;
+   /**
+    * Expired entries removed in one journal write.
+    */
+   private static final int EXPIRY_BATCH = 1024;
+
+   /**
+    * Name of the dictionary, null for the default dictionary of the subsystem.
+    */
+   private final String name;
+   private final DictionaryStore dictionary;
+   /**
+    * Ordered index of the keys, maintained on every write so that ordered queries don't have to
+    * sort the whole dictionary.
+    */
+   private final DictionaryIndex index;
+   /**
+    * Writers of the same key serialize on one stripe to keep {@link #dictionary} and {@link #index}
+    * consistent, readers take no locks.
+    */
+   private final Object[] locks = new Object[LOCK_STRIPES];
+   /**
+    * Snapshot storage only, null otherwise. Single writes hold it shared, so the store can publish
+    * concurrent ones together, batches hold it exclusively so no single write interleaves with
+    * their journal records.
+    */
+   private final ReadWriteLock batchLock;
+   private final DictionaryConfiguration configuration;
+   /**
+    * Optional read-only data file, the entries of {@link #dictionary} override its content.
+    */
+   private final File dataFilePath;
+   private volatile MappedDictionaryFile dataFile;
+   /**
+    * Number of data file entries overridden by {@link #dictionary}.
+    */
+   private final AtomicInteger shadowed = new AtomicInteger();
+   /**
+    * Values loaded from the {@link #loader} in cache mode, null otherwise.
+    */
+   private final DictionaryCache cache;
+   private volatile DictionaryLoader loader;
+   /**
+    * Loads in progress, synchronous or batched, concurrent misses of the same key wait for the same
+    * load.
+    */
+   private final ConcurrentMap<String, DictionaryFuture<String>> loading = new ConcurrentHashMap<String, DictionaryFuture<String>>();
+   /**
+    * Batches the loads of the asynchronous lookups in cache mode.
+    */
+   private volatile LoadBatcher batcher;
+   private final AtomicLong cacheHits = new AtomicLong();
+   private final AtomicLong cacheMisses = new AtomicLong();
+   private final DictionaryMetrics metrics = new DictionaryMetrics();
+   /**
+    * Entries from the configuration, applied at the first start unless the journal has content.
+    */
+   private Map<String, String> initialEntries = Collections.emptyMap();
+   private Map<String, Long> initialTtls = Collections.emptyMap();
+   /**
+    * Journal of the changes while the service is up, null without a journal directory.
+    */
+   private volatile WriteAheadLog journal;
+   /**
+    * Replication to the other nodes, null unless configured.
+    */
+   private volatile Replicator replicator;
+   /**
+    * Bloom filter of the keys of the store and the data file, lookups of most absent keys skip
+    * both. Null unless configured and started.
+    */
+   private volatile BloomFilter filter;
+   /**
+    * Whether {@link #filter} also holds the keys of a {@link ListableDictionaryLoader}, then a key
+    * it rules out skips the cache and the loader as well.
+    */
+   private volatile boolean filterCoversLoader;
+   /**
+    * Replacement of {@link #filter} being built, the writers put new keys into both.
+    */
+   private volatile BloomFilter filterBuilding;
+   /**
+    * Rebuilds the filter when it's full or its removed keys raise the false positives.
+    */
+   private volatile ThreadPoolExecutor filterRebuilder;
+   private final AtomicBoolean filterRebuildScheduled = new AtomicBoolean();
+   /**
+    * Keys in the filter when it was built, keys added and removed since.
+    */
+   private volatile long filterBuilt;
+   private final AtomicLong filterInserts = new AtomicLong();
+   private final AtomicLong filterRemovals = new AtomicLong();
+   private final StripedCounter filterRejects = new StripedCounter();
+   private final StripedCounter filterFalsePositives = new StripedCounter();
+   /**
+    * Expiration times of the entries that have a ttl, in milliseconds. Changed under the key's
+    * lock together with the entry, read without it to hide the expired entries.
+    */
+   private final ConcurrentMap<String, Long> deadlines = new ConcurrentHashMap<String, Long>();
+   /**
+    * Set once the first entry with a ttl is written, until then lookups and writes skip
+    * {@link #deadlines}.
+    */
+   private volatile boolean anyDeadlines;
+   /**
+    * Keys of {@link #deadlines} by their expiration time, an entry whose ttl was changed leaves a
+    * stale item that is ignored when it comes due.
+    */
+   private final TimingWheel<String> expiry = new TimingWheel<String>(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+   /**
+    * Removes the expired entries once a tick, null when stopped.
+    */
+   private volatile ScheduledExecutorService expirer;
+   private final AtomicLong expired = new AtomicLong();
+   private final ChangeNotifier notifier;
+   /**
+    * JMX listeners, fed by a {@link DictionaryListener} subscribed with the first of them and
+    * unsubscribed with the last.
+    */
+   private final NotificationBroadcasterSupport broadcaster = new NotificationBroadcasterSupport();
+   private final AtomicLong notificationSequence = new AtomicLong();
+   /**
+    * Registrations of each JMX listener, guarded by {@link #broadcaster}.
+    */
+   private final Map<NotificationListener, Integer> jmxListeners = new HashMap<NotificationListener, Integer>();
+   private DictionaryListener broadcasting;
+
+   private volatile ObjectName objectName;
+
+   public DictionaryService() {
+      this(new DictionaryConfiguration());
+   }
+
+   public DictionaryService(DictionaryConfiguration configuration) {
+      this(null, configuration);
+   }
+
+   public DictionaryService(String name, DictionaryConfiguration configuration) {
+      this.name = name;
+      this.configuration = configuration;
+      this.dictionary = configuration.getStoreType().create(configuration, metrics);
+      // the snapshot store keeps its keys sorted
+      this.index = dictionary instanceof SnapshotStore ? (SnapshotStore) dictionary : configuration.getIndexType().create(dictionary, configuration);
+      this.dataFilePath = configuration.getDataFile();
+      this.cache = configuration.getCacheSize() > 0 ? configuration.getCacheType().create(configuration.getCacheSize()) : null;
+      this.notifier = new ChangeNotifier(configuration.getNotificationWindow(), configuration.getNotificationCapacity());
+      this.batchLock = dictionary instanceof SnapshotStore ? new ReentrantReadWriteLock() : null;
+      for (int i = 0; i < locks.length; i++) {
+         locks[i] = new Object();
+      }
+   }
 
    public static ServiceName getServiceName() {
       return SERVICE_NAME;
    }
 
-   public static void addService(ServiceTarget serviceTarget) {
-      DictionaryService service = new DictionaryService();
-      serviceTarget.addService(SERVICE_NAME, service).install();
+   /**
+    * @param name dictionary name, null for the default dictionary
+    */
+   public static ServiceName getServiceName(String name) {
+      return name == null ? SERVICE_NAME : SERVICE_NAME.append(name);
+   }
+
+   /**
+    * Installs the service of the default dictionary, initially populated with the entries.
+    */
+   public static void addService(ServiceTarget serviceTarget, DictionaryConfiguration configuration, Map<String, String> entries) {
+      addService(serviceTarget, null, configuration, entries);
+   }
+
+   /**
+    * Installs the service of a named dictionary, initially populated with the entries.
+    *
+    * @param name dictionary name, null for the default dictionary
+    */
+   public static void addService(ServiceTarget serviceTarget, String name, DictionaryConfiguration configuration, Map<String, String> entries) {
+      addService(serviceTarget, name, configuration, entries, Collections.<String, Long> emptyMap());
+   }
+
+   /**
+    * Installs the service of a named dictionary, initially populated with the entries.
+    *
+    * @param name dictionary name, null for the default dictionary
+    * @param ttls ttls of the entries that have their own in milliseconds, 0 for no expiration
+    */
+   public static void addService(ServiceTarget serviceTarget, String name, DictionaryConfiguration configuration,
+            Map<String, String> entries, Map<String, Long> ttls) {
+      DictionaryService service = new DictionaryService(name, configuration);
+      service.setInitialEntries(entries, ttls);
+      serviceTarget.addService(getServiceName(name), service).install();
+   }
+
+   /**
+    * Sets the entries applied at the next start unless the journal has content, for services
+    * created outside of {@link #addService}.
+    */
+   public void setInitialEntries(Map<String, String> entries) {
+      setInitialEntries(entries, Collections.<String, Long> emptyMap());
+   }
+
+   /**
+    * @param ttls ttls of the entries that have their own in milliseconds, 0 for no expiration
+    */
+   public void setInitialEntries(Map<String, String> entries, Map<String, Long> ttls) {
+      this.initialEntries = entries;
+      this.initialTtls = ttls;
+   }
+
+   /**
+    * @return dictionary name, null for the default dictionary
+    */
+   public String getName() {
+      return name;
    }
 
    @Override
@@ -71,10 +321,163 @@ public class DictionaryService implements Service<DictionaryService>, Dictionary
    @Override
    public void start(StartContext context) throws StartException {
       try {
-         ObjectName objectName = new ObjectName("dictionary.demo", "name", "dictionary");
+         open();
+      } catch (StartException e) {
+         close();
+         throw e;
+      } catch (RuntimeException e) {
+         close();
+         throw e;
+      }
+      Dictionaries.register(name, this);
+      log.debugf("Dictionary service %s started", getServiceName(name));
+   }
+
+   /**
+    * Opens the data file, journal, loader, replication and the threads of the service, a failure
+    * leaves what was already opened to {@link #close()}.
+    */
+   private void open() throws StartException {
+      final String threadPrefix = name == null ? "dictionary" : "dictionary-" + name;
+      if (dataFilePath != null) {
+         try {
+            MappedDictionaryFile file = MappedDictionaryFile.open(dataFilePath);
+            int count = 0;
+            Iterator<String> keys = dictionary.keys();
+            while (keys.hasNext()) {
+               if (file.contains(keys.next())) {
+                  count++;
+               }
+            }
+            shadowed.set(count);
+            dataFile = file;
+            log.debugf("Mapped %d entries from %s", file.size(), dataFilePath);
+         } catch (IOException e) {
+            throw new StartException("Couldn't open dictionary data file " + dataFilePath, e);
+         }
+      }
+      Map<String, String> entries = initialEntries;
+      Map<String, Long> ttls = initialTtls;
+      initialEntries = Collections.emptyMap();
+      initialTtls = Collections.emptyMap();
+      Replicator newReplicator = null;
+      if (configuration.getReplicationBind() != null) {
+         newReplicator = new Replicator(this, configuration.getReplicationBind(), configuration.getReplicationPeers(),
+                  configuration.getReplicationNodeId(), configuration.getReplicationWindow(),
+                  configuration.getAntiEntropyInterval());
+      }
+      // replication versions of the recovered entries and removals
+      final Map<String, Long> versions = new HashMap<String, Long>();
+      if (configuration.getJournal() != null) {
+         WriteAheadLog newJournal = new WriteAheadLog(configuration.getJournal(), configuration.getDurability(),
+                  configuration.getSnapshotInterval(), dictionary, deadlines);
+         try {
+            final long now = System.currentTimeMillis();
+            boolean recovered = newJournal.recover(new WriteAheadLog.Replay() {
+               @Override
+               public void apply(String key, String value, long deadline, long version) {
+                  // expired while the service was down
+                  boolean expiredMeanwhile = value != null && deadline != 0 && deadline <= now;
+                  DictionaryService.this.apply(key, expiredMeanwhile ? null : value);
+                  expireAt(key, expiredMeanwhile ? 0 : deadline);
+                  if (version != 0) {
+                     versions.put(key, version);
+                  } else {
+                     versions.remove(key);
+                  }
+               }
+            });
+            if (recovered) {
+               log.debugf("Recovered %d entries from journal %s", dictionary.size(), configuration.getJournal());
+            } else {
+               addAll(entries, ttls);
+            }
+            if (newReplicator != null) {
+               // before the first snapshot, which replaces the logs with the versions
+               restamp(newReplicator, versions);
+               newJournal.setVersions(newReplicator);
+            }
+            newJournal.start(threadPrefix);
+         } catch (IOException e) {
+            newJournal.close();
+            throw new StartException("Couldn't open dictionary journal " + configuration.getJournal(), e);
+         }
+         journal = newJournal;
+      } else {
+         addAll(entries, ttls);
+         if (newReplicator != null) {
+            restamp(newReplicator, versions);
+         }
+      }
+      ScheduledExecutorService newExpirer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, threadPrefix + "-expiry");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      newExpirer.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               expireDue(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+               log.error("Couldn't remove expired dictionary entries", e);
+            }
+         }
+      }, EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+      expirer = newExpirer;
+      if (cache != null) {
+         DictionaryLoader newLoader = createLoader(configuration.getLoaderClass());
+         try {
+            newLoader.start(configuration.getLoaderSource());
+         } catch (IOException e) {
+            throw new StartException("Couldn't start dictionary loader " + configuration.getLoaderClass(), e);
+         }
+         loader = newLoader;
+         LoadBatcher newBatcher = new LoadBatcher(configuration.getLoadBatchSize(), configuration.getLoadBatchWindow(),
+                  new LoadBatcher.Handler() {
+                     @Override
+                     public void load(List<String> keys) {
+                        loadBatch(keys);
+                     }
+                  });
+         newBatcher.open(threadPrefix);
+         batcher = newBatcher;
+      }
+      if (configuration.getBloomFilterFpRate() > 0) {
+         ThreadPoolExecutor newFilterRebuilder = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                  new ThreadFactory() {
+                     @Override
+                     public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, threadPrefix + "-filter");
+                        thread.setDaemon(true);
+                        return thread;
+                     }
+                  });
+         newFilterRebuilder.allowCoreThreadTimeOut(true);
+         filterRebuilder = newFilterRebuilder;
+         filterCoversLoader = loader instanceof ListableDictionaryLoader;
+         rebuildFilter();
+      }
+      if (newReplicator != null) {
+         replicator = newReplicator;
+         try {
+            newReplicator.start();
+         } catch (IOException e) {
+            replicator = null;
+            newReplicator.close();
+            throw new StartException("Couldn't start dictionary replication on " + configuration.getReplicationBind(), e);
+         }
+      }
+      notifier.open(threadPrefix);
+      try {
+         ObjectName newObjectName = name == null ? new ObjectName("dictionary.demo", "name", "dictionary")
+                  : new ObjectName("dictionary.demo:name=dictionary,dictionary=" + ObjectName.quote(name));
          MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
-         mBeanServer.registerMBean(this, objectName);
-         log.debug("Dictionary service started");
+         mBeanServer.registerMBean(this, newObjectName);
+         objectName = newObjectName;
       } catch (Exception e) {
          log.error("Couldn't register DictionaryServiceMBean", e);
       }
@@ -82,42 +485,1418 @@ public class DictionaryService implements Service<DictionaryService>, Dictionary
 
    @Override
    public void stop(StopContext context) {
-      log.debug("Dictionary service stopped");
+      Dictionaries.unregister(name, this);
+      close();
+      log.debugf("Dictionary service %s stopped", getServiceName(name));
    }
 
+   /**
+    * Releases whatever {@link #open()} opened, in reverse order.
+    */
+   private void close() {
+      if (objectName != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+         } catch (Exception e) {
+            log.error("Couldn't unregister DictionaryServiceMBean", e);
+         }
+         objectName = null;
+      }
+      notifier.close();
+      if (replicator != null) {
+         replicator.close();
+         replicator = null;
+      }
+      if (batcher != null) {
+         for (String key : batcher.close()) {
+            DictionaryFuture<String> future = loading.remove(key);
+            if (future != null) {
+               future.fail(new IllegalStateException("Dictionary service stopped"));
+            }
+         }
+         batcher = null;
+      }
+      if (filterRebuilder != null) {
+         filterRebuilder.shutdownNow();
+         filterRebuilder = null;
+      }
+      filter = null;
+      filterCoversLoader = false;
+      if (loader != null) {
+         loader.stop();
+         loader = null;
+      }
+      if (expirer != null) {
+         expirer.shutdownNow();
+         expirer = null;
+      }
+      if (journal != null) {
+         journal.close();
+         journal = null;
+      }
+      dataFile = null;
+   }
+
+   /**
+    * Adds the entry with the default ttl of the dictionary. Only the entry operations of the
+    * management model call it, so the model, the configuration and the journal agree.
+    */
    public void add(String key, String value) {
-      dictionary.put(key, value);
+      write(key, value, 0, deadline(null));
+   }
+
+   /**
+    * Adds the entry that expires after the ttl.
+    *
+    * @param ttl milliseconds the entry lives, 0 if it doesn't expire
+    */
+   public void add(String key, String value, long ttl) {
+      if (ttl < 0) {
+         throw new IllegalArgumentException("Negative ttl " + ttl);
+      }
+      write(key, value, 0, deadline(ttl));
    }
 
    public void remove(String key) {
-      dictionary.remove(key);
+      write(key, null, 0, 0);
+   }
+
+   @Override
+   public String getDurability() {
+      return configuration.getJournal() == null ? "none" : configuration.getDurability().getName();
+   }
+
+   /**
+    * Applies a change replicated from another node unless the local entry is newer.
+    *
+    * @return whether the change was applied
+    */
+   boolean replicate(String key, String value, long version) {
+      // the node that made the change expires it and replicates the removal
+      return write(key, value, version, 0);
+   }
+
+   /**
+    * @return the value of the key with its replication version, null if the key was never
+    *         replicated
+    */
+   Replicator.Delta readVersioned(String key) {
+      Replicator current = replicator;
+      if (current == null) {
+         return null;
+      }
+      synchronized (lockFor(key)) {
+         Replicator.Stamp stamp = current.getStamp(key);
+         return stamp == null ? null : new Replicator.Delta(key, stamp.removed ? null : dictionary.get(key), stamp.version);
+      }
+   }
+
+   /**
+    * Journals the change, applies it and waits until it's durable.
+    *
+    * @param value new value, null for a removal
+    * @param version replication version of a change from another node, 0 for a local change
+    * @param deadline time in milliseconds the entry expires at, 0 if it doesn't
+    * @return false if a replicated change lost to the local entry
+    */
+   private boolean write(String key, String value, long version, long deadline) {
+      long start = System.nanoTime();
+      WriteAheadLog current = journal;
+      long sequence = 0;
+      Lock shared = batchLock == null ? null : batchLock.readLock();
+      if (current != null) {
+         current.beginWrite();
+      }
+      if (shared != null) {
+         shared.lock();
+      }
+      try {
+         synchronized (lockFor(key)) {
+            Replicator currentReplicator = replicator;
+            long stamped = 0;
+            if (currentReplicator != null) {
+               if (version == 0) {
+                  stamped = currentReplicator.stamp(key, value);
+               } else if (currentReplicator.accepts(key, value, version, dictionary.get(key))) {
+                  currentReplicator.restamp(key, value, version);
+                  stamped = version;
+               } else {
+                  return false;
+               }
+            }
+            if (current != null) {
+               sequence = current.append(key, value, deadline, stamped);
+            }
+            apply(key, value);
+            expireAt(key, deadline);
+            // under the lock, so the listeners get the last of the concurrent changes of the key
+            notifier.changed(key, value);
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Couldn't write to dictionary journal", e);
+      } finally {
+         if (shared != null) {
+            shared.unlock();
+         }
+         if (current != null) {
+            current.endWrite();
+         }
+      }
+      if (cache != null) {
+         cache.invalidate(key);
+      }
+      if (current != null) {
+         try {
+            current.sync(sequence);
+         } catch (IOException e) {
+            throw new IllegalStateException("Couldn't sync dictionary journal", e);
+         }
+      }
+      metrics.record(value != null ? DictionaryMetrics.Operation.ADD : DictionaryMetrics.Operation.REMOVE, start);
+      return true;
+   }
+
+   /**
+    * Gives the replicator the versions of the entries this node starts with and of the removals
+    * the journal kept. The entries without one, the configured ones, lose to any change made in
+    * the cluster.
+    *
+    * @param versions recovered versions by key
+    */
+   private void restamp(Replicator newReplicator, Map<String, Long> versions) {
+      Iterator<String> keys = dictionary.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         Long version = versions.get(key);
+         newReplicator.restamp(key, dictionary.get(key), version == null ? 0 : version);
+      }
+      for (Map.Entry<String, Long> removed : versions.entrySet()) {
+         if (dictionary.get(removed.getKey()) == null) {
+            newReplicator.restamp(removed.getKey(), null, removed.getValue());
+         }
+      }
+   }
+
+   /**
+    * Updates the store and the index, the caller holds the key's lock unless recovering.
+    */
+   private void apply(String key, String value) {
+      if (value != null) {
+         if (dictionary.put(key, value)) {
+            index.insert(key);
+            MappedDictionaryFile file = dataFile;
+            if (file != null && file.contains(key)) {
+               shadowed.incrementAndGet();
+            }
+            filterInserted(key);
+         }
+      } else if (dictionary.remove(key)) {
+         index.delete(key);
+         MappedDictionaryFile file = dataFile;
+         if (file != null && file.contains(key)) {
+            shadowed.decrementAndGet();
+         }
+         filterRemoved();
+      }
+   }
+
+   /**
+    * Puts a key just added to the store into the filter. The filter being built is read before
+    * the current one: if it's already gone, the current filter is its replacement.
+    */
+   private void filterInserted(String key) {
+      BloomFilter building = filterBuilding;
+      if (building != null) {
+         building.put(key);
+      }
+      BloomFilter current = filter;
+      if (current != null) {
+         current.put(key);
+         if (filterBuilt + filterInserts.incrementAndGet() > current.getCapacity()) {
+            scheduleFilterRebuild();
+         }
+      }
+   }
+
+   private void filterRemoved() {
+      if (filter != null && filterRemovals.incrementAndGet() > Math.max(MIN_FILTER_CAPACITY, (filterBuilt + filterInserts.get()) / 4)) {
+         scheduleFilterRebuild();
+      }
+   }
+
+   private void scheduleFilterRebuild() {
+      ThreadPoolExecutor rebuilder = filterRebuilder;
+      if (rebuilder == null || !filterRebuildScheduled.compareAndSet(false, true)) {
+         return;
+      }
+      try {
+         rebuilder.execute(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  rebuildFilter();
+               } finally {
+                  filterRebuildScheduled.set(false);
+               }
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         // stopped concurrently
+         filterRebuildScheduled.set(false);
+      }
+   }
+
+   /**
+    * Builds a new filter from the keys of the store, the data file and a listable loader while the
+    * writers keep putting their new keys into both filters, then replaces the current one.
+    */
+   private void rebuildFilter() {
+      long start = System.nanoTime();
+      MappedDictionaryFile file = dataFile;
+      ListableDictionaryLoader listable = filterCoversLoader ? (ListableDictionaryLoader) loader : null;
+      long count = dictionary.size() + (file == null ? 0 : file.size()) + (listable == null ? 0 : listable.size());
+      BloomFilter next = new BloomFilter(Math.max(MIN_FILTER_CAPACITY, 2 * count), configuration.getBloomFilterFpRate());
+      filterInserts.set(0);
+      filterRemovals.set(0);
+      filterBuilt = count;
+      filterBuilding = next;
+      // the keys stored before filterBuilding was set are in the iteration, the later ones put by their writers
+      Iterator<String> keys = dictionary.keys();
+      while (keys.hasNext()) {
+         next.put(keys.next());
+      }
+      if (file != null) {
+         keys = file.keys(null, true);
+         while (keys.hasNext()) {
+            next.put(keys.next());
+         }
+      }
+      if (listable != null) {
+         keys = listable.keys();
+         while (keys.hasNext()) {
+            next.put(keys.next());
+         }
+      }
+      filter = next;
+      filterBuilding = null;
+      log.debugf("Built bloom filter of %d keys, %d bytes, in %d ms", count, next.getMemory(), (System.nanoTime() - start) / 1000000);
+   }
+
+   /**
+    * Adds the entries with the default ttl of the dictionary.
+    */
+   public void addAll(Map<String, String> entries) {
+      addAll(entries, Collections.<String, Long> emptyMap());
+   }
+
+   /**
+    * @param ttls ttls of the entries that have their own in milliseconds, 0 for no expiration,
+    *           the other entries get the default ttl
+    */
+   public void addAll(Map<String, String> entries, Map<String, Long> ttls) {
+      if (dictionary instanceof SnapshotStore) {
+         writeBatch(entries, ttls, false);
+         return;
+      }
+      writeAll(entries, ttls);
+   }
+
+   public void removeAll(Collection<String> keys) {
+      Map<String, String> changes = new HashMap<String, String>();
+      for (String key : keys) {
+         changes.put(key, null);
+      }
+      if (dictionary instanceof SnapshotStore) {
+         writeBatch(changes, Collections.<String, Long> emptyMap(), false);
+         return;
+      }
+      writeAll(changes, Collections.<String, Long> emptyMap());
+   }
+
+   /**
+    * Replaces the entries (not the data file) with the new ones. With the snapshot storage the
+    * readers see either the old or the new entries, the other storages apply the differences key
+    * by key.
+    */
+   public void replaceAll(Map<String, String> entries) {
+      replaceAll(entries, Collections.<String, Long> emptyMap());
+   }
+
+   /**
+    * @param ttls ttls of the entries that have their own in milliseconds, 0 for no expiration,
+    *           the other entries get the default ttl
+    */
+   public void replaceAll(Map<String, String> entries, Map<String, Long> ttls) {
+      if (dictionary instanceof SnapshotStore) {
+         writeBatch(entries, ttls, true);
+         return;
+      }
+      List<String> removed = new ArrayList<String>();
+      Iterator<String> keys = dictionary.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         if (!entries.containsKey(key)) {
+            removed.add(key);
+         }
+      }
+      removeAll(removed);
+      addAll(entries, ttls);
+   }
+
+   /**
+    * Journals and applies a batch of changes key by key, waiting once for the journal at the end
+    * instead of after every key.
+    *
+    * @param changes new values by key, null values remove the key
+    * @param ttls ttls of the added entries that have their own, the others get the default ttl
+    */
+   private void writeAll(Map<String, String> changes, Map<String, Long> ttls) {
+      WriteAheadLog current = journal;
+      long sequence = 0;
+      if (current != null) {
+         current.beginWrite();
+      }
+      try {
+         Replicator currentReplicator = replicator;
+         for (Map.Entry<String, String> change : changes.entrySet()) {
+            String key = change.getKey();
+            String value = change.getValue();
+            long deadline = value == null ? 0 : deadline(ttls.get(key));
+            synchronized (lockFor(key)) {
+               long version = currentReplicator == null ? 0 : currentReplicator.stamp(key, value);
+               if (current != null) {
+                  sequence = current.append(key, value, deadline, version);
+               }
+               apply(key, value);
+               expireAt(key, deadline);
+               notifier.changed(key, value);
+            }
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Couldn't write to dictionary journal", e);
+      } finally {
+         if (current != null) {
+            current.endWrite();
+         }
+      }
+      if (cache != null) {
+         for (String key : changes.keySet()) {
+            cache.invalidate(key);
+         }
+      }
+      if (current != null) {
+         try {
+            current.sync(sequence);
+         } catch (IOException e) {
+            throw new IllegalStateException("Couldn't sync dictionary journal", e);
+         }
+      }
+   }
+
+   /**
+    * Journals and applies a batch of changes to the snapshot store as a single new version.
+    *
+    * @param changes new values by key, null values remove the key
+    * @param ttls ttls of the added entries that have their own, the others get the default ttl
+    * @param replace whether the keys missing in the changes are removed
+    */
+   private void writeBatch(Map<String, String> changes, Map<String, Long> ttls, boolean replace) {
+      SnapshotStore store = (SnapshotStore) dictionary;
+      WriteAheadLog current = journal;
+      long sequence = 0;
+      Map<String, String> batch = changes;
+      if (current != null) {
+         current.beginWrite();
+      }
+      batchLock.writeLock().lock();
+      try {
+         if (replace) {
+            batch = new HashMap<String, String>(changes);
+            Iterator<String> keys = store.keys();
+            while (keys.hasNext()) {
+               String key = keys.next();
+               if (!changes.containsKey(key)) {
+                  batch.put(key, null);
+               }
+            }
+         }
+         MappedDictionaryFile file = dataFile;
+         int shadowedDelta = 0;
+         Replicator currentReplicator = replicator;
+         Map<String, Long> batchDeadlines = new HashMap<String, Long>();
+         for (Map.Entry<String, String> change : batch.entrySet()) {
+            long deadline = change.getValue() == null ? 0 : deadline(ttls.get(change.getKey()));
+            if (deadline != 0) {
+               batchDeadlines.put(change.getKey(), deadline);
+            }
+            long version = currentReplicator == null ? 0 : currentReplicator.stamp(change.getKey(), change.getValue());
+            if (current != null) {
+               sequence = current.append(change.getKey(), change.getValue(), deadline, version);
+            }
+            if (file != null && file.contains(change.getKey())) {
+               boolean present = store.get(change.getKey()) != null;
+               if (change.getValue() != null && !present) {
+                  shadowedDelta++;
+               } else if (change.getValue() == null && present) {
+                  shadowedDelta--;
+               }
+            }
+         }
+         store.apply(batch);
+         shadowed.addAndGet(shadowedDelta);
+         for (Map.Entry<String, String> change : batch.entrySet()) {
+            if (change.getValue() != null) {
+               filterInserted(change.getKey());
+            } else {
+               filterRemoved();
+            }
+            Long deadline = batchDeadlines.get(change.getKey());
+            expireAt(change.getKey(), deadline == null ? 0 : deadline);
+         }
+         notifier.changed(batch);
+      } catch (IOException e) {
+         throw new IllegalStateException("Couldn't write to dictionary journal", e);
+      } finally {
+         batchLock.writeLock().unlock();
+         if (current != null) {
+            current.endWrite();
+         }
+      }
+      if (cache != null) {
+         for (String key : batch.keySet()) {
+            cache.invalidate(key);
+         }
+      }
+      if (current != null) {
+         try {
+            current.sync(sequence);
+         } catch (IOException e) {
+            throw new IllegalStateException("Couldn't sync dictionary journal", e);
+         }
+      }
+   }
+
+   /**
+    * @param ttl milliseconds the entry lives, 0 if it doesn't expire, null for the default ttl
+    * @return time in milliseconds the entry expires at, 0 if it doesn't
+    */
+   private long deadline(Long ttl) {
+      long millis = ttl != null ? ttl : configuration.getDefaultTtl() * 1000L;
+      return millis == 0 ? 0 : System.currentTimeMillis() + millis;
+   }
+
+   /**
+    * Sets the expiration of an entry just written, the caller holds the key's lock unless
+    * recovering.
+    *
+    * @param deadline time in milliseconds the entry expires at, 0 if it doesn't
+    */
+   private void expireAt(String key, long deadline) {
+      if (deadline == 0) {
+         if (anyDeadlines) {
+            deadlines.remove(key);
+         }
+      } else {
+         anyDeadlines = true;
+         deadlines.put(key, deadline);
+         expiry.schedule(key, deadline);
+      }
+   }
+
+   /**
+    * @return whether the key has a ttl that already passed, its entry is hidden from the readers
+    *         until the next sweep removes it
+    */
+   private boolean isExpired(String key) {
+      if (!anyDeadlines) {
+         return false;
+      }
+      Long deadline = deadlines.get(key);
+      return deadline != null && deadline <= System.currentTimeMillis();
+   }
+
+   /**
+    * @return whether the key has a ttl that passed by the time
+    */
+   private boolean isExpired(String key, long now) {
+      if (!anyDeadlines) {
+         return false;
+      }
+      Long deadline = deadlines.get(key);
+      return deadline != null && deadline <= now;
+   }
+
+   /**
+    * Advances the expiration wheel and removes the entries that came due, in batches that wait
+    * for the journal once.
+    */
+   private void expireDue(long now) {
+      List<String> due = new ArrayList<String>();
+      expiry.advance(now, due);
+      for (int i = 0; i < due.size(); i += EXPIRY_BATCH) {
+         expire(due.subList(i, Math.min(due.size(), i + EXPIRY_BATCH)), now);
+      }
+   }
+
+   /**
+    * Journals and applies the removals of the keys that are still expired, the others were
+    * written again since they were scheduled.
+    */
+   private void expire(List<String> keys, long now) {
+      WriteAheadLog current = journal;
+      long sequence = 0;
+      List<String> removed = new ArrayList<String>(keys.size());
+      if (current != null) {
+         current.beginWrite();
+      }
+      try {
+         if (dictionary instanceof SnapshotStore) {
+            // one new version for the batch, the exclusive lock keeps the keys expired until it's applied
+            batchLock.writeLock().lock();
+            try {
+               Map<String, String> batch = new HashMap<String, String>();
+               for (String key : keys) {
+                  if (isExpired(key, now)) {
+                     batch.put(key, null);
+                  }
+               }
+               if (!batch.isEmpty()) {
+                  writeBatch(batch, Collections.<String, Long> emptyMap(), false);
+               }
+               expired.addAndGet(batch.size());
+            } finally {
+               batchLock.writeLock().unlock();
+            }
+            return;
+         }
+         Replicator currentReplicator = replicator;
+         for (String key : keys) {
+            synchronized (lockFor(key)) {
+               if (!isExpired(key, now)) {
+                  continue;
+               }
+               long version = currentReplicator == null ? 0 : currentReplicator.stamp(key, null);
+               if (current != null) {
+                  sequence = current.append(key, null, 0, version);
+               }
+               apply(key, null);
+               deadlines.remove(key);
+               notifier.changed(key, null);
+               removed.add(key);
+            }
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Couldn't write to dictionary journal", e);
+      } finally {
+         if (current != null) {
+            current.endWrite();
+         }
+      }
+      if (cache != null) {
+         for (String key : removed) {
+            cache.invalidate(key);
+         }
+      }
+      if (current != null && !removed.isEmpty()) {
+         try {
+            current.sync(sequence);
+         } catch (IOException e) {
+            throw new IllegalStateException("Couldn't sync dictionary journal", e);
+         }
+      }
+      expired.addAndGet(removed.size());
+   }
+
+   @Override
+   public void addListener(DictionaryListener listener) {
+      notifier.addListener(listener);
+   }
+
+   @Override
+   public void removeListener(DictionaryListener listener) {
+      notifier.removeListener(listener);
+   }
+
+   @Override
+   public void addNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
+      synchronized (broadcaster) {
+         broadcaster.addNotificationListener(listener, filter, handback);
+         Integer registrations = jmxListeners.get(listener);
+         jmxListeners.put(listener, registrations == null ? 1 : registrations + 1);
+         if (broadcasting == null) {
+            broadcasting = new DictionaryListener() {
+               @Override
+               public void entriesChanged(Map<String, String> changes) {
+                  Notification notification = new Notification(ENTRIES_CHANGED, objectNameOrThis(),
+                           notificationSequence.incrementAndGet(), changes.size() + " entries changed");
+                  notification.setUserData(new HashMap<String, String>(changes));
+                  broadcaster.sendNotification(notification);
+               }
+
+               @Override
+               public void changesDropped() {
+                  broadcaster.sendNotification(new Notification(CHANGES_DROPPED, objectNameOrThis(),
+                           notificationSequence.incrementAndGet(), "Changes dropped, the listener didn't keep up"));
+               }
+            };
+            notifier.addListener(broadcasting);
+         }
+      }
+   }
+
+   @Override
+   public void removeNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
+      synchronized (broadcaster) {
+         broadcaster.removeNotificationListener(listener);
+         jmxListeners.remove(listener);
+         stopBroadcastingIfUnused();
+      }
+   }
+
+   @Override
+   public void removeNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback)
+            throws ListenerNotFoundException {
+      synchronized (broadcaster) {
+         broadcaster.removeNotificationListener(listener, filter, handback);
+         Integer registrations = jmxListeners.get(listener);
+         if (registrations == null || registrations == 1) {
+            jmxListeners.remove(listener);
+         } else {
+            jmxListeners.put(listener, registrations - 1);
+         }
+         stopBroadcastingIfUnused();
+      }
+   }
+
+   /**
+    * Unsubscribes from the change notifier once the last JMX listener is gone, the caller holds
+    * the lock of {@link #broadcaster}.
+    */
+   private void stopBroadcastingIfUnused() {
+      if (jmxListeners.isEmpty() && broadcasting != null) {
+         notifier.removeListener(broadcasting);
+         broadcasting = null;
+      }
+   }
+
+   @Override
+   public MBeanNotificationInfo[] getNotificationInfo() {
+      return new MBeanNotificationInfo[] { new MBeanNotificationInfo(new String[] { ENTRIES_CHANGED, CHANGES_DROPPED },
+               Notification.class.getName(), "Coalesced changes of the dictionary entries") };
+   }
+
+   private Object objectNameOrThis() {
+      ObjectName current = objectName;
+      return current != null ? current : this;
+   }
+
+   /**
+    * Current version of the snapshot storage, its lookups are consistent with each other.
+    *
+    * @throws IllegalStateException if the storage isn't snapshot
+    */
+   public SnapshotStore.Table getSnapshot() {
+      if (!(dictionary instanceof SnapshotStore)) {
+         throw new IllegalStateException("Dictionary storage is " + getStorage() + ", not snapshot");
+      }
+      return ((SnapshotStore) dictionary).getTable();
+   }
+
+   /**
+    * @return replication of the dictionary, null unless configured
+    */
+   public Replicator getReplicator() {
+      return replicator;
+   }
+
+   @Override
+   public String replicationReport() {
+      Replicator current = replicator;
+      return current == null ? "replication not configured\n" : current.report();
+   }
+
+   @Override
+   public long getBloomFilterMemory() {
+      BloomFilter current = filter;
+      return current == null ? 0 : current.getMemory();
+   }
+
+   @Override
+   public long getBloomFilterRejects() {
+      return filterRejects.sum();
+   }
+
+   @Override
+   public double getBloomFilterFalsePositiveRate() {
+      long falsePositives = filterFalsePositives.sum();
+      long absent = falsePositives + filterRejects.sum();
+      return absent == 0 ? 0 : (double) falsePositives / absent;
+   }
+
+   @Override
+   public int getExpiringEntries() {
+      return deadlines.size();
+   }
+
+   @Override
+   public long getExpiredEntries() {
+      return expired.get();
+   }
+
+   @Override
+   public double getCompressionRatio() {
+      return dictionary instanceof CompressedStore ? ((CompressedStore) dictionary).getCompressionRatio() : 1;
+   }
+
+   @Override
+   public long getVersion() {
+      return dictionary instanceof SnapshotStore ? ((SnapshotStore) dictionary).getTable().getVersion() : 0;
    }
 
    public String find(String key) {
-      return dictionary.get(key);
+      long start = System.nanoTime();
+      String value = lookup(key);
+      metrics.recordLookup(value != null);
+      metrics.record(DictionaryMetrics.Operation.FIND, start);
+      return value;
+   }
+
+   @Override
+   public String get(String key) {
+      return find(key);
+   }
+
+   @Override
+   public Map<String, String> getAll(Collection<String> keys) {
+      long start = System.nanoTime();
+      Map<String, String> result = new LinkedHashMap<String, String>((int) (keys.size() / 0.75f) + 1);
+      // one version for all the keys
+      SnapshotStore.Table snapshot = dictionary instanceof SnapshotStore ? ((SnapshotStore) dictionary).getTable() : null;
+      for (String key : keys) {
+         String value = lookup(key, snapshot);
+         metrics.recordLookup(value != null);
+         if (value != null) {
+            result.put(key, value);
+         }
+      }
+      metrics.record(DictionaryMetrics.Operation.GET_ALL, start);
+      return result;
+   }
+
+   @Override
+   public DictionaryFuture<String> findAsync(String key) {
+      final long start = System.nanoTime();
+      BloomFilter current = filter;
+      boolean rejected = current != null && !current.mightContain(key);
+      // a key let through by a filter covering the loader's keys is a false positive if the loader misses it
+      final boolean judged = current != null && !rejected && filterCoversLoader;
+      String value = null;
+      if (rejected) {
+         filterRejects.increment();
+      } else {
+         value = lookupStored(key, null, current);
+      }
+      if (value == null && cache != null && !(rejected && filterCoversLoader)) {
+         value = cache.get(key);
+         if (value != null) {
+            cacheHits.incrementAndGet();
+         } else {
+            cacheMisses.incrementAndGet();
+            DictionaryFuture<String> future = loadAsync(key);
+            future.addCallback(new DictionaryFuture.Callback<String>() {
+               @Override
+               public void completed(String loaded) {
+                  if (loaded == null && judged) {
+                     filterFalsePositives.increment();
+                  }
+                  metrics.recordLookup(loaded != null);
+                  metrics.record(DictionaryMetrics.Operation.FIND_ASYNC, start);
+               }
+
+               @Override
+               public void failed(Throwable cause) {
+                  metrics.recordLookup(false);
+                  metrics.record(DictionaryMetrics.Operation.FIND_ASYNC, start);
+               }
+            });
+            return future;
+         }
+      }
+      metrics.recordLookup(value != null);
+      metrics.record(DictionaryMetrics.Operation.FIND_ASYNC, start);
+      return DictionaryFuture.completed(value);
+   }
+
+   @Override
+   public DictionaryFuture<Map<String, String>> findAllAsync(Collection<String> keys) {
+      final String[] keyArray = keys.toArray(new String[keys.size()]);
+      final String[] values = new String[keyArray.length];
+      final AtomicInteger remaining = new AtomicInteger(keyArray.length);
+      final DictionaryFuture<Map<String, String>> result = new DictionaryFuture<Map<String, String>>();
+      if (keyArray.length == 0) {
+         result.complete(new LinkedHashMap<String, String>());
+         return result;
+      }
+      for (int i = 0; i < keyArray.length; i++) {
+         final int index = i;
+         findAsync(keyArray[i]).addCallback(new DictionaryFuture.Callback<String>() {
+            @Override
+            public void completed(String value) {
+               values[index] = value;
+               if (remaining.decrementAndGet() == 0) {
+                  Map<String, String> found = new LinkedHashMap<String, String>((int) (keyArray.length / 0.75f) + 1);
+                  for (int j = 0; j < keyArray.length; j++) {
+                     if (values[j] != null) {
+                        found.put(keyArray[j], values[j]);
+                     }
+                  }
+                  result.complete(found);
+               }
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+               result.fail(cause);
+            }
+         });
+      }
+      return result;
    }
 
-   public synchronized String list() {
-      StringBuffer sb = new StringBuffer();
-      List<Map.Entry<String, String>> list = new ArrayList<Map.Entry<String, String>>(dictionary
-               .entrySet());
-      Collections.sort(list, new Comparator<Map.Entry<String, String>>() {
+   @Override
+   public boolean containsKey(String key) {
+      return find(key) != null;
+   }
+
+   @Override
+   public String getOrDefault(String key, String defaultValue) {
+      String value = find(key);
+      return value != null ? value : defaultValue;
+   }
+
+   @Override
+   public Iterator<Map.Entry<String, String>> iterator(String prefix) {
+      final Iterator<String> keys = scan(emptyToNull(prefix), null, true, null);
+      return new Iterator<Map.Entry<String, String>>() {
+         private Map.Entry<String, String> next = advance();
+
+         private Map.Entry<String, String> advance() {
+            while (keys.hasNext()) {
+               String key = keys.next();
+               String value = findLocal(key);
+               // the key might have been removed since the index returned it
+               if (value != null) {
+                  return new AbstractMap.SimpleImmutableEntry<String, String>(key, value);
+               }
+            }
+            return null;
+         }
+
          @Override
-         public int compare(Entry<String, String> o1, Entry<String, String> o2) {
-            return o1.getKey().compareTo(o2.getKey());
+         public boolean hasNext() {
+            return next != null;
          }
-      });
-      for (Map.Entry<String, String> entry : list) {
-         sb.append(entry.getKey());
-         sb.append(": ");
-         sb.append(entry.getValue());
+
+         @Override
+         public Map.Entry<String, String> next() {
+            if (next == null) {
+               throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> result = next;
+            next = advance();
+            return result;
+         }
+
+         @Override
+         public void remove() {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+
+   private String lookup(String key) {
+      return lookup(key, null);
+   }
+
+   /**
+    * Looks the key up in the store, skipping an expired entry, and the data file unless the
+    * filter rules it out, then in cache mode in the cache and the loader unless the filter covers
+    * the loader's keys and rules it out.
+    *
+    * @param snapshot version of the snapshot store to read, null to read the current one
+    */
+   private String lookup(String key, SnapshotStore.Table snapshot) {
+      BloomFilter current = filter;
+      if (current != null && !current.mightContain(key)) {
+         filterRejects.increment();
+         return cache == null || filterCoversLoader ? null : lookupCached(key);
+      }
+      String value = lookupStored(key, snapshot, current);
+      if (value == null && cache != null) {
+         value = lookupCached(key);
+         if (value == null && current != null && filterCoversLoader) {
+            filterFalsePositives.increment();
+         }
+      }
+      return value;
+   }
+
+   private String lookupCached(String key) {
+      String value = cache.get(key);
+      if (value != null) {
+         cacheHits.incrementAndGet();
+      } else {
+         cacheMisses.incrementAndGet();
+         value = load(key);
+      }
+      return value;
+   }
+
+   /**
+    * Looks the key up in the store, skipping an expired entry, and the data file.
+    *
+    * @param current filter that let the key through, null without one
+    */
+   private String lookupStored(String key, SnapshotStore.Table snapshot, BloomFilter current) {
+      String value = snapshot != null ? snapshot.get(key) : dictionary.get(key);
+      boolean stored = value != null;
+      if (stored && isExpired(key)) {
+         // not removed yet
+         value = null;
+      }
+      if (value == null) {
+         MappedDictionaryFile file = dataFile;
+         if (file != null) {
+            value = file.find(key);
+         }
+         // an expired entry not swept yet is still in the filter rightly, a filter covering the
+         // loader's keys is judged once the loader had its say
+         if (value == null && !stored && current != null && !filterCoversLoader) {
+            filterFalsePositives.increment();
+         }
+      }
+      return value;
+   }
+
+   /**
+    * Looks the key up in the entries and the data file, never in the loader.
+    */
+   String findLocal(String key) {
+      String value = dictionary.get(key);
+      if (value != null && isExpired(key)) {
+         value = null;
+      }
+      if (value == null) {
+         MappedDictionaryFile file = dataFile;
+         if (file != null) {
+            value = file.find(key);
+         }
+      }
+      return value;
+   }
+
+   /**
+    * Single-flight load, only the first of the concurrent callers missing the key calls the loader.
+    */
+   private String load(String key) {
+      DictionaryFuture<String> future = new DictionaryFuture<String>();
+      DictionaryFuture<String> running = loading.putIfAbsent(key, future);
+      if (running == null) {
+         running = future;
+         try {
+            DictionaryLoader current = loader;
+            String value = current == null ? null : current.load(key);
+            if (value != null) {
+               cache.put(key, value);
+            }
+            future.complete(value);
+         } catch (Throwable t) {
+            future.fail(t);
+         } finally {
+            loading.remove(key, future);
+         }
+      }
+      try {
+         return running.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return null;
+      } catch (ExecutionException e) {
+         log.warn("Couldn't load dictionary entry " + key, e.getCause());
+         return null;
+      }
+   }
+
+   /**
+    * Single-flight load of an asynchronous lookup, the first of the concurrent callers missing the
+    * key queues it for the next batch.
+    */
+   private DictionaryFuture<String> loadAsync(String key) {
+      DictionaryFuture<String> future = new DictionaryFuture<String>();
+      DictionaryFuture<String> running = loading.putIfAbsent(key, future);
+      if (running != null) {
+         return running;
+      }
+      LoadBatcher current = batcher;
+      if (current == null || !current.submit(key)) {
+         loading.remove(key, future);
+         future.fail(new IllegalStateException("Dictionary service stopped"));
+      }
+      return future;
+   }
+
+   /**
+    * Loads a batch of the asynchronous lookups, in one call if the loader supports it, and
+    * completes their futures. A failure of the loader fails the whole batch.
+    */
+   private void loadBatch(List<String> keys) {
+      Map<String, String> values = null;
+      Throwable failure = null;
+      try {
+         DictionaryLoader current = loader;
+         if (current == null) {
+            throw new IllegalStateException("Dictionary service stopped");
+         }
+         if (current instanceof BatchDictionaryLoader) {
+            values = ((BatchDictionaryLoader) current).loadAll(keys);
+         } else {
+            values = new HashMap<String, String>((int) (keys.size() / 0.75f) + 1);
+            for (String key : keys) {
+               String value = current.load(key);
+               if (value != null) {
+                  values.put(key, value);
+               }
+            }
+         }
+      } catch (Throwable t) {
+         failure = t;
+      }
+      if (failure != null) {
+         log.warn("Couldn't load " + keys.size() + " dictionary entries", failure);
+      }
+      for (String key : keys) {
+         // the lookup that queued the key owns the map entry until it's complete
+         DictionaryFuture<String> future = loading.get(key);
+         if (future == null) {
+            continue;
+         }
+         if (failure == null) {
+            String value = values.get(key);
+            if (value != null) {
+               cache.put(key, value);
+            }
+            future.complete(value);
+         } else {
+            future.fail(failure);
+         }
+         loading.remove(key, future);
+      }
+   }
+
+   private static DictionaryLoader createLoader(String className) throws StartException {
+      for (DictionaryLoader candidate : ServiceLoader.load(DictionaryLoader.class, DictionaryLoader.class.getClassLoader())) {
+         if (candidate.getClass().getName().equals(className)) {
+            return candidate;
+         }
+      }
+      throw new StartException("Dictionary loader " + className + " not found");
+   }
+
+   public String list() {
+      return entries(null, null, true, null, Integer.MAX_VALUE);
+   }
+
+   @Override
+   public String list(String fromKey, int limit) {
+      return entries(null, emptyToNull(fromKey), true, null, limit);
+   }
+
+   @Override
+   public String listAfter(String afterKey, int limit) {
+      return entries(null, emptyToNull(afterKey), false, null, limit);
+   }
+
+   @Override
+   public String listPrefix(String prefix, int limit) {
+      return entries(emptyToNull(prefix), null, true, null, limit);
+   }
+
+   @Override
+   public String range(String fromKey, String toKey, int limit) {
+      return entries(null, emptyToNull(fromKey), true, emptyToNull(toKey), limit);
+   }
+
+   @Override
+   public String keysStartingWith(String prefix, int limit) {
+      StringBuilder sb = new StringBuilder();
+      for (String key : findKeys(prefix, null, null, limit)) {
+         sb.append(key);
          sb.append("\n");
       }
       return sb.toString();
    }
 
+   @Override
+   public int count(String prefix) {
+      if (prefix == null || prefix.length() == 0) {
+         return size();
+      }
+      int count = 0;
+      Iterator<String> keys = scan(prefix, null, true, null);
+      while (keys.hasNext()) {
+         keys.next();
+         count++;
+      }
+      return count;
+   }
+
+   @Override
+   public String getStorage() {
+      return configuration.getStoreType().getName();
+   }
+
+   @Override
+   public long getMemoryFootprint() {
+      return dictionary.getMemoryFootprint();
+   }
+
+   @Override
+   public String memoryReport() {
+      int entries = dictionary.size();
+      long footprint = dictionary.getMemoryFootprint();
+      long mapFootprint = MapStore.estimateFootprint(entries, dictionary.getPayloadSize());
+      StringBuilder sb = new StringBuilder();
+      sb.append("storage: ").append(getStorage()).append("\n");
+      sb.append("entries: ").append(entries).append("\n");
+      sb.append("payload chars: ").append(dictionary.getPayloadSize()).append("\n");
+      sb.append("footprint bytes: ").append(footprint).append(perEntry(footprint, entries)).append("\n");
+      sb.append("map footprint bytes (estimated): ").append(mapFootprint).append(perEntry(mapFootprint, entries)).append("\n");
+      // map based stores hold the very key instances the index does, the compact ones decode copies
+      long indexFootprint = index.getMemoryFootprint(dictionary instanceof MapStore || dictionary instanceof CompressedStore);
+      sb.append("index: ").append(index == dictionary ? "the store itself" : configuration.getIndexType().getName()).append("\n");
+      sb.append("index bytes (estimated): ").append(indexFootprint).append(perEntry(indexFootprint, entries)).append("\n");
+      sb.append("total bytes: ").append(footprint + indexFootprint).append(perEntry(footprint + indexFootprint, entries)).append("\n");
+      sb.append("data file not included\n");
+      return sb.toString();
+   }
+
+   @Override
+   public long getCacheHits() {
+      return cacheHits.get();
+   }
+
+   @Override
+   public long getCacheMisses() {
+      return cacheMisses.get();
+   }
+
+   @Override
+   public long getCacheEvictions() {
+      return cache == null ? 0 : cache.getEvictions();
+   }
+
+   @Override
+   public int getCacheSize() {
+      return cache == null ? 0 : cache.size();
+   }
+
+   public DictionaryMetrics getMetrics() {
+      return metrics;
+   }
+
+   @Override
+   public int getEntryCount() {
+      return size();
+   }
+
+   @Override
+   public long getLookupHits() {
+      return metrics.getHits();
+   }
+
+   @Override
+   public long getLookupMisses() {
+      return metrics.getMisses();
+   }
+
+   @Override
+   public double getHitRatio() {
+      return metrics.getHitRatio();
+   }
+
+   @Override
+   public long getFindCount() {
+      return metrics.getCount(DictionaryMetrics.Operation.FIND);
+   }
+
+   @Override
+   public long getAddCount() {
+      return metrics.getCount(DictionaryMetrics.Operation.ADD);
+   }
+
+   @Override
+   public long getRemoveCount() {
+      return metrics.getCount(DictionaryMetrics.Operation.REMOVE);
+   }
+
+   @Override
+   public long getListCount() {
+      return metrics.getCount(DictionaryMetrics.Operation.LIST);
+   }
+
+   @Override
+   public long latencyPercentile(String operation, double percentile) {
+      return metrics.getLatency(DictionaryMetrics.Operation.forName(operation)).getValueAtPercentile(percentile);
+   }
+
+   @Override
+   public String metricsReport() {
+      return metrics.report();
+   }
+
+   private static String perEntry(long bytes, int entries) {
+      return entries == 0 ? "" : String.format(" (%.1f per entry)", (double) bytes / entries);
+   }
+
+   /**
+    * Ordered key lookup, all the bounds are optional.
+    *
+    * @param prefix keys starting with the prefix
+    * @param fromKey lower bound (inclusive)
+    * @param toKey upper bound (exclusive)
+    * @param limit maximum number of keys returned
+    * @return matching keys in ascending order
+    */
+   public List<String> findKeys(String prefix, String fromKey, String toKey, int limit) {
+      checkLimit(limit);
+      List<String> result = new ArrayList<String>();
+      Iterator<String> keys = scan(emptyToNull(prefix), emptyToNull(fromKey), true, emptyToNull(toKey));
+      while (result.size() < limit && keys.hasNext()) {
+         result.add(keys.next());
+      }
+      return result;
+   }
+
+   /**
+    * @return number of entries, including the ones served from the data file
+    */
    public int size() {
-      return dictionary.size();
+      MappedDictionaryFile file = dataFile;
+      return file == null ? dictionary.size() : dictionary.size() + file.size() - shadowed.get();
+   }
+
+   private Object lockFor(String key) {
+      int h = key.hashCode();
+      h ^= (h >>> 16);
+      return locks[h & (LOCK_STRIPES - 1)];
+   }
+
+   /**
+    * @return keys starting with the prefix in ascending order, including the data file
+    */
+   Iterator<String> scanKeys(String prefix) {
+      return scan(emptyToNull(prefix), null, true, null);
+   }
+
+   private Iterator<String> scan(String prefix, String fromKey, boolean inclusive, String toKey) {
+      if (prefix != null && (fromKey == null || fromKey.compareTo(prefix) < 0)) {
+         return new BoundedKeyIterator(keys(prefix, true), prefix, toKey);
+      }
+      return new BoundedKeyIterator(keys(fromKey, inclusive), prefix, toKey);
+   }
+
+   private Iterator<String> keys(String from, boolean inclusive) {
+      MappedDictionaryFile file = dataFile;
+      if (file == null) {
+         return index.keys(from, inclusive);
+      }
+      List<Iterator<String>> sources = new ArrayList<Iterator<String>>(2);
+      sources.add(index.keys(from, inclusive));
+      sources.add(file.keys(from, inclusive));
+      return new MergingIterator(sources);
+   }
+
+   private String entries(String prefix, String fromKey, boolean inclusive, String toKey, int limit) {
+      checkLimit(limit);
+      long start = System.nanoTime();
+      StringBuilder sb = new StringBuilder();
+      appendEntries(sb, scan(prefix, fromKey, inclusive, toKey), limit);
+      metrics.record(DictionaryMetrics.Operation.LIST, start);
+      return sb.toString();
+   }
+
+   private void appendEntries(StringBuilder sb, Iterator<String> keys, int limit) {
+      int count = 0;
+      while (count < limit && keys.hasNext()) {
+         String key = keys.next();
+         String value = findLocal(key);
+         // the key might have been removed since the index returned it
+         if (value != null) {
+            sb.append(key);
+            sb.append(": ");
+            sb.append(value);
+            sb.append("\n");
+            count++;
+         }
+      }
+   }
+
+   private static void checkLimit(int limit) {
+      if (limit <= 0) {
+         throw new IllegalArgumentException("Page limit must be positive: " + limit);
+      }
+   }
+
+   private static String emptyToNull(String s) {
+      return s == null || s.length() == 0 ? null : s;
+   }
+
+   /**
+    * Ends the iteration at the first key that doesn't start with the prefix or reaches the upper
+    * bound.
+    */
+   private static class BoundedKeyIterator implements Iterator<String> {
+      private final Iterator<String> keys;
+      private final String prefix;
+      private final String toKey;
+      private String next;
+
+      BoundedKeyIterator(Iterator<String> keys, String prefix, String toKey) {
+         this.keys = keys;
+         this.prefix = prefix;
+         this.toKey = toKey;
+         advance();
+      }
+
+      private void advance() {
+         next = null;
+         if (keys.hasNext()) {
+            String key = keys.next();
+            if ((prefix == null || key.startsWith(prefix)) && (toKey == null || key.compareTo(toKey) < 0)) {
+               next = key;
+            }
+         }
+      }
+
+      @Override
+      public boolean hasNext() {
+         return next != null;
+      }
+
+      @Override
+      public String next() {
+         if (next == null) {
+            throw new NoSuchElementException();
+         }
+         String result = next;
+         advance();
+         return result;
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
    }
 
 }
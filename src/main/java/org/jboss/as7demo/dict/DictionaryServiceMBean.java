@@ -29,5 +29,165 @@ package org.jboss.as7demo.dict;
 public interface DictionaryServiceMBean {
    
    String list();
-   
+
+   /**
+    * Lists at most limit entries in key order, starting with fromKey (inclusive).
+    *
+    * @param fromKey first key of the page, null or empty string to start from the beginning
+    * @param limit maximum number of entries returned
+    */
+   String list(String fromKey, int limit);
+
+   /**
+    * Lists at most limit entries in key order that follow afterKey. Passing the last key of a
+    * page returns the next page.
+    *
+    * @param afterKey cursor, null or empty string to start from the beginning
+    * @param limit maximum number of entries returned
+    */
+   String listAfter(String afterKey, int limit);
+
+   /**
+    * Lists at most limit entries whose key starts with the prefix, in key order.
+    */
+   String listPrefix(String prefix, int limit);
+
+   /**
+    * Lists at most limit entries with fromKey &lt;= key &lt; toKey, in key order. Null or empty
+    * bounds are open.
+    */
+   String range(String fromKey, String toKey, int limit);
+
+   /**
+    * Lists at most limit keys starting with the prefix, one per line.
+    */
+   String keysStartingWith(String prefix, int limit);
+
+   /**
+    * @param prefix key prefix, null or empty string counts all entries
+    * @return number of entries whose key starts with the prefix
+    */
+   int count(String prefix);
+
+   /**
+    * @return storage engine of the entries
+    */
+   String getStorage();
+
+   /**
+    * @return version of the entries with the snapshot storage, increased by every write, 0 with
+    *         the other storages
+    */
+   long getVersion();
+
+   /**
+    * @return uncompressed size of the values divided by their stored size with the compressed
+    *         storage, 1 with the other storages
+    */
+   double getCompressionRatio();
+
+   /**
+    * @return bytes of the bloom filter, 0 without one
+    */
+   long getBloomFilterMemory();
+
+   /**
+    * @return lookups the bloom filter answered without touching the storage
+    */
+   long getBloomFilterRejects();
+
+   /**
+    * @return share of the lookups of keys missing in everything the bloom filter covers (the
+    *         storage, the data file and a listable loader) that it let through
+    */
+   double getBloomFilterFalsePositiveRate();
+
+   /**
+    * @return entries waiting for their ttl to pass
+    */
+   int getExpiringEntries();
+
+   /**
+    * @return entries removed because their ttl passed
+    */
+   long getExpiredEntries();
+
+   /**
+    * @return replication peers, counters and the digest of the entries
+    */
+   String replicationReport();
+
+   /**
+    * @return estimated bytes occupied by the entries
+    */
+   long getMemoryFootprint();
+
+   /**
+    * Compares the footprint of the storage engine with the estimated footprint of the same entries
+    * kept in the default map store.
+    */
+   String memoryReport();
+
+   /**
+    * @return lookups answered by the cache of loaded values
+    */
+   long getCacheHits();
+
+   /**
+    * @return lookups that had to call the loader
+    */
+   long getCacheMisses();
+
+   long getCacheEvictions();
+
+   /**
+    * @return number of loaded values in the cache
+    */
+   int getCacheSize();
+
+   /**
+    * @return durability of the journal, none without a journal
+    */
+   String getDurability();
+
+   /**
+    * @return number of entries, including the ones served from the data file
+    */
+   int getEntryCount();
+
+   /**
+    * @return lookups that found a value
+    */
+   long getLookupHits();
+
+   long getLookupMisses();
+
+   /**
+    * @return lookup hits / all lookups
+    */
+   double getHitRatio();
+
+   long getFindCount();
+
+   long getAddCount();
+
+   long getRemoveCount();
+
+   /**
+    * @return number of list, listAfter, listPrefix and range calls
+    */
+   long getListCount();
+
+   /**
+    * @param operation find, get-all, find-async, add, remove, list, entry-add or entry-remove
+    * @param percentile 0 to 100
+    * @return latency of the operation at the percentile in nanoseconds
+    */
+   long latencyPercentile(String operation, double percentile);
+
+   /**
+    * Counts and latency percentiles of all the operations.
+    */
+   String metricsReport();
+
 }
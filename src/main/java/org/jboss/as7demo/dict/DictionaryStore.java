@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Storage engine of the dictionary entries. Implementations must allow concurrent reads and
+ * writes, {@link DictionaryService} serializes writes of the same key.
+ *
+ * @author Michal Linhard
+ */
+public interface DictionaryStore {
+
+   String get(String key);
+
+   /**
+    * @return true if the key wasn't present before
+    */
+   boolean put(String key, String value);
+
+   /**
+    * @return true if the key was present
+    */
+   boolean remove(String key);
+
+   int size();
+
+   /**
+    * @return iterator over the keys in no particular order
+    */
+   Iterator<String> keys();
+
+   /**
+    * @return total length of the keys and values in characters
+    */
+   long getPayloadSize();
+
+   /**
+    * @return estimated number of bytes occupied by the store
+    */
+   long getMemoryFootprint();
+
+   enum Type {
+      MAP {
+         @Override
+         public DictionaryStore create(DictionaryConfiguration configuration, DictionaryMetrics metrics) {
+            return new MapStore();
+         }
+      },
+      COMPACT {
+         @Override
+         public DictionaryStore create(DictionaryConfiguration configuration, DictionaryMetrics metrics) {
+            return new CompactStore(false);
+         }
+      },
+      OFF_HEAP {
+         @Override
+         public DictionaryStore create(DictionaryConfiguration configuration, DictionaryMetrics metrics) {
+            return new CompactStore(true);
+         }
+      },
+      SNAPSHOT {
+         @Override
+         public DictionaryStore create(DictionaryConfiguration configuration, DictionaryMetrics metrics) {
+            return new SnapshotStore();
+         }
+      },
+      COMPRESSED {
+         @Override
+         public DictionaryStore create(DictionaryConfiguration configuration, DictionaryMetrics metrics) {
+            return new CompressedStore(configuration.getCompressionThreshold(), configuration.getCompressionCache(),
+                     metrics.getLatency(DictionaryMetrics.Operation.DECODE));
+         }
+      };
+
+      public abstract DictionaryStore create(DictionaryConfiguration configuration, DictionaryMetrics metrics);
+
+      public String getName() {
+         return name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+      }
+
+      public static Type forName(String name) {
+         return valueOf(name.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+      }
+   }
+
+}
@@ -0,0 +1,696 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Streams the entries of a dictionary from and to a file. Memory stays bounded by a few chunks
+ * per thread whatever the size of the file:
+ * <ul>
+ * <li>import reads the file in chunks cut at record boundaries, parses them in parallel and adds
+ * the parsed chunks in file order through the batched write path, so a later record of a key wins</li>
+ * <li>export walks the keys in order, looks up and encodes chunks of them in parallel and writes
+ * the chunks in order to a temporary file renamed over the target at the end</li>
+ * </ul>
+ * The progress is logged every few seconds.
+ *
+ * @author Michal Linhard
+ */
+public class DictionaryTransfer {
+   private static final Logger log = Logger.getLogger(DictionaryTransfer.class.getPackage().getName());
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+   private static final int EXPORT_CHUNK_ENTRIES = 8192;
+   private static final long PROGRESS_INTERVAL = 5000;
+
+   /**
+    * File formats.
+    * <ul>
+    * <li>csv: one key,value record per line, fields containing a comma, a quote or a line break
+    * quoted as in RFC 4180</li>
+    * <li>binary: "DICT" and a version byte, then for each entry varint(key bytes + 1), key,
+    * varint(value bytes), value in UTF-8, then a 0 and varint(entry count), which detects
+    * truncated files</li>
+    * </ul>
+    */
+   public enum Format {
+      CSV {
+         @Override
+         Codec createCodec() {
+            return new CsvCodec();
+         }
+      },
+      BINARY {
+         @Override
+         Codec createCodec() {
+            return new BinaryCodec();
+         }
+      };
+
+      abstract Codec createCodec();
+
+      public String getName() {
+         return name().toLowerCase(Locale.ENGLISH);
+      }
+
+      public static Format forName(String name) {
+         return valueOf(name.toUpperCase(Locale.ENGLISH));
+      }
+   }
+
+   private final DictionaryService service;
+   private final File file;
+   private final Format format;
+   private final int chunkSize;
+   private final int threads;
+   private volatile long entries;
+   private volatile long bytes;
+   private long lastProgress;
+
+   public DictionaryTransfer(DictionaryService service, File file, Format format) {
+      this(service, file, format, DEFAULT_CHUNK_SIZE);
+   }
+
+   /**
+    * @param chunkSize bytes of the file parsed as one task on import
+    */
+   public DictionaryTransfer(DictionaryService service, File file, Format format, int chunkSize) {
+      if (chunkSize <= 0) {
+         throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+      }
+      this.service = service;
+      this.file = file;
+      this.format = format;
+      this.chunkSize = chunkSize;
+      this.threads = Runtime.getRuntime().availableProcessors();
+   }
+
+   /**
+    * @return entries imported or exported so far
+    */
+   public long getEntries() {
+      return entries;
+   }
+
+   /**
+    * @return bytes of the file read or written so far
+    */
+   public long getBytes() {
+      return bytes;
+   }
+
+   /**
+    * Adds the entries of the file to the dictionary. If it fails the chunks applied before the
+    * failure stay.
+    *
+    * @return number of records read
+    */
+   public long importEntries() throws IOException {
+      long start = System.currentTimeMillis();
+      lastProgress = start;
+      long total = file.length();
+      final Codec codec = format.createCodec();
+      ExecutorService pool = createPool("import");
+      InputStream in = new FileInputStream(file);
+      try {
+         LinkedList<Future<Parsed>> parsing = new LinkedList<Future<Parsed>>();
+         byte[] buffer = new byte[chunkSize];
+         int length = codec.readHeader(in);
+         long offset = length;
+         length = 0;
+         boolean eof = false;
+         while (!eof) {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+               eof = true;
+            } else {
+               length += read;
+               if (length < buffer.length) {
+                  continue;
+               }
+            }
+            int cut = codec.cut(buffer, length, eof);
+            if (cut == 0 && !eof) {
+               // a record longer than the buffer
+               buffer = Arrays.copyOf(buffer, buffer.length * 2);
+               continue;
+            }
+            final byte[] chunk = buffer;
+            final int chunkLength = cut;
+            final long chunkOffset = offset;
+            buffer = new byte[Math.max(chunkSize, (length - cut) * 2)];
+            System.arraycopy(chunk, cut, buffer, 0, length - cut);
+            length -= cut;
+            offset += cut;
+            bytes = offset;
+            if (chunkLength > 0) {
+               parsing.add(pool.submit(new Callable<Parsed>() {
+                  @Override
+                  public Parsed call() throws IOException {
+                     return codec.parse(chunk, chunkLength, chunkOffset);
+                  }
+               }));
+            }
+            if (parsing.size() >= threads * 2) {
+               apply(parsing.removeFirst(), total);
+            }
+         }
+         while (!parsing.isEmpty()) {
+            apply(parsing.removeFirst(), total);
+         }
+         codec.checkEnd();
+      } finally {
+         pool.shutdownNow();
+         in.close();
+      }
+      log.infof("Imported %d entries from %s in %d ms", entries, file, System.currentTimeMillis() - start);
+      return entries;
+   }
+
+   private void apply(Future<Parsed> parsed, long total) throws IOException {
+      Parsed chunk = get(parsed);
+      service.addAll(chunk);
+      entries += chunk.records;
+      progress("Imported", total);
+   }
+
+   /**
+    * Writes the entries of the dictionary to the file, replacing it.
+    *
+    * @param prefix only the keys starting with the prefix, null for all
+    * @return number of entries written
+    */
+   public long exportEntries(String prefix) throws IOException {
+      long start = System.currentTimeMillis();
+      lastProgress = start;
+      final Codec codec = format.createCodec();
+      File tmp = new File(file.getPath() + ".tmp");
+      ExecutorService pool = createPool("export");
+      OutputStream out = new FileOutputStream(tmp);
+      boolean written = false;
+      try {
+         bytes = codec.writeHeader(out);
+         LinkedList<Future<Encoded>> encoding = new LinkedList<Future<Encoded>>();
+         Iterator<String> keys = service.scanKeys(prefix);
+         while (keys.hasNext()) {
+            final String[] chunk = new String[EXPORT_CHUNK_ENTRIES];
+            int count = 0;
+            while (count < chunk.length && keys.hasNext()) {
+               chunk[count++] = keys.next();
+            }
+            final int chunkCount = count;
+            encoding.add(pool.submit(new Callable<Encoded>() {
+               @Override
+               public Encoded call() {
+                  Encoded encoded = new Encoded();
+                  for (int i = 0; i < chunkCount; i++) {
+                     String value = service.findLocal(chunk[i]);
+                     // the key might have been removed since the index returned it
+                     if (value != null) {
+                        codec.encode(encoded, chunk[i], value);
+                        encoded.entries++;
+                     }
+                  }
+                  return encoded;
+               }
+            }));
+            if (encoding.size() >= threads * 2) {
+               write(out, encoding.removeFirst());
+            }
+         }
+         while (!encoding.isEmpty()) {
+            write(out, encoding.removeFirst());
+         }
+         bytes += codec.writeTrailer(out, entries);
+         written = true;
+      } finally {
+         pool.shutdownNow();
+         out.close();
+         if (!written) {
+            tmp.delete();
+         }
+      }
+      if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+         throw new IOException("Couldn't replace " + file + " by " + tmp);
+      }
+      log.infof("Exported %d entries to %s in %d ms", entries, file, System.currentTimeMillis() - start);
+      return entries;
+   }
+
+   private void write(OutputStream out, Future<Encoded> encoded) throws IOException {
+      Encoded chunk = get(encoded);
+      chunk.writeTo(out);
+      entries += chunk.entries;
+      bytes += chunk.size();
+      progress("Exported", 0);
+   }
+
+   private void progress(String action, long total) {
+      long now = System.currentTimeMillis();
+      if (now - lastProgress < PROGRESS_INTERVAL) {
+         return;
+      }
+      lastProgress = now;
+      if (total > 0) {
+         log.infof("%s %d entries, %d%% of %s", action, entries, bytes * 100 / total, file);
+      } else {
+         log.infof("%s %d entries, %d bytes of %s", action, entries, bytes, file);
+      }
+   }
+
+   private ExecutorService createPool(final String task) {
+      final AtomicInteger count = new AtomicInteger();
+      return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "dictionary-" + task + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   private static <T> T get(Future<T> future) throws IOException {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted");
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+         }
+         if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+         }
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+
+   /**
+    * Parsed chunk, the last value of a key repeated in the chunk wins.
+    */
+   static final class Parsed extends HashMap<String, String> {
+      private static final long serialVersionUID = 1L;
+      int records;
+   }
+
+   /**
+    * Encoded chunk of entries.
+    */
+   private static final class Encoded extends ByteArrayOutputStream {
+      int entries;
+
+      Encoded() {
+         super(64 * 1024);
+      }
+   }
+
+   /**
+    * Reading and writing of one file format. An instance is used by one transfer, its parse and
+    * encode methods are called concurrently.
+    */
+   abstract static class Codec {
+
+      /**
+       * @return number of header bytes read
+       */
+      int readHeader(InputStream in) throws IOException {
+         return 0;
+      }
+
+      /**
+       * @return number of header bytes written
+       */
+      int writeHeader(OutputStream out) throws IOException {
+         return 0;
+      }
+
+      /**
+       * @return number of trailer bytes written
+       */
+      int writeTrailer(OutputStream out, long count) throws IOException {
+         return 0;
+      }
+
+      /**
+       * Called with the bytes from the start of a record, in file order.
+       *
+       * @param eof whether the bytes are the rest of the file
+       * @return length of the complete records at the start of the bytes
+       */
+      abstract int cut(byte[] bytes, int length, boolean eof) throws IOException;
+
+      /**
+       * @param offset position of the bytes in the file, for the error messages
+       */
+      abstract Parsed parse(byte[] bytes, int length, long offset) throws IOException;
+
+      abstract void encode(ByteArrayOutputStream out, String key, String value);
+
+      /**
+       * Checks the end of the file once all of it was cut.
+       */
+      void checkEnd() throws IOException {
+      }
+   }
+
+   static final class CsvCodec extends Codec {
+
+      @Override
+      int cut(byte[] bytes, int length, boolean eof) throws IOException {
+         // a line break ends a record unless it's inside quotes, UTF-8 sequences never contain
+         // the ASCII bytes
+         boolean quoted = false;
+         int end = 0;
+         for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b == '"') {
+               quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+               end = i + 1;
+            }
+         }
+         if (eof) {
+            if (quoted) {
+               throw new IOException("Unterminated quoted field at the end of the file");
+            }
+            return length;
+         }
+         return end;
+      }
+
+      @Override
+      Parsed parse(byte[] bytes, int length, long offset) throws IOException {
+         String text = new String(bytes, 0, length, UTF8);
+         Parsed result = new Parsed();
+         int[] pos = { 0 };
+         int n = text.length();
+         StringBuilder sb = new StringBuilder();
+         while (pos[0] < n) {
+            char c = text.charAt(pos[0]);
+            if (c == '\n' || c == '\r') {
+               pos[0]++;
+               continue;
+            }
+            int recordStart = pos[0];
+            String key = field(text, pos, sb);
+            if (pos[0] >= n || text.charAt(pos[0]) != ',') {
+               throw invalid(text, recordStart, offset);
+            }
+            pos[0]++;
+            String value = field(text, pos, sb);
+            if (pos[0] < n && text.charAt(pos[0]) != '\n' && text.charAt(pos[0]) != '\r') {
+               throw invalid(text, recordStart, offset);
+            }
+            result.put(key, value);
+            result.records++;
+         }
+         return result;
+      }
+
+      /**
+       * Reads the field at pos[0] and moves pos[0] to the character after it.
+       */
+      private static String field(String text, int[] pos, StringBuilder sb) throws IOException {
+         int i = pos[0];
+         int n = text.length();
+         if (i < n && text.charAt(i) == '"') {
+            sb.setLength(0);
+            i++;
+            while (true) {
+               if (i >= n) {
+                  throw new IOException("Unterminated quoted field");
+               }
+               char c = text.charAt(i++);
+               if (c == '"') {
+                  if (i < n && text.charAt(i) == '"') {
+                     sb.append('"');
+                     i++;
+                  } else {
+                     break;
+                  }
+               } else {
+                  sb.append(c);
+               }
+            }
+            pos[0] = i;
+            return sb.toString();
+         }
+         int start = i;
+         while (i < n) {
+            char c = text.charAt(i);
+            if (c == ',' || c == '\n' || c == '\r') {
+               break;
+            }
+            i++;
+         }
+         pos[0] = i;
+         return text.substring(start, i);
+      }
+
+      private static IOException invalid(String text, int recordStart, long offset) {
+         int end = recordStart;
+         while (end < text.length() && end - recordStart < 80 && text.charAt(end) != '\n') {
+            end++;
+         }
+         return new IOException("Invalid CSV record in the chunk at byte " + offset + ": " + text.substring(recordStart, end));
+      }
+
+      @Override
+      void encode(ByteArrayOutputStream out, String key, String value) {
+         StringBuilder sb = new StringBuilder(key.length() + value.length() + 8);
+         appendField(sb, key);
+         sb.append(',');
+         appendField(sb, value);
+         sb.append('\n');
+         byte[] bytes = sb.toString().getBytes(UTF8);
+         out.write(bytes, 0, bytes.length);
+      }
+
+      private static void appendField(StringBuilder sb, String s) {
+         boolean quote = false;
+         for (int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+         }
+         if (!quote) {
+            sb.append(s);
+            return;
+         }
+         sb.append('"');
+         for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+               sb.append('"');
+            }
+            sb.append(c);
+         }
+         sb.append('"');
+      }
+   }
+
+   static final class BinaryCodec extends Codec {
+      private static final byte[] MAGIC = { 'D', 'I', 'C', 'T', 1 };
+
+      /**
+       * Records passed by {@link #cut} and the count of the trailer once found, -1 before.
+       */
+      private long records;
+      private long trailerCount = -1;
+
+      @Override
+      int readHeader(InputStream in) throws IOException {
+         byte[] header = new byte[MAGIC.length];
+         int length = 0;
+         while (length < header.length) {
+            int read = in.read(header, length, header.length - length);
+            if (read < 0) {
+               break;
+            }
+            length += read;
+         }
+         if (!Arrays.equals(header, MAGIC)) {
+            throw new IOException("Not a binary dictionary file");
+         }
+         return MAGIC.length;
+      }
+
+      @Override
+      int writeHeader(OutputStream out) throws IOException {
+         out.write(MAGIC);
+         return MAGIC.length;
+      }
+
+      @Override
+      int writeTrailer(OutputStream out, long count) throws IOException {
+         ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+         trailer.write(0);
+         writeVarint(trailer, count);
+         trailer.writeTo(out);
+         return trailer.size();
+      }
+
+      @Override
+      int cut(byte[] bytes, int length, boolean eof) throws IOException {
+         if (trailerCount >= 0) {
+            if (length > 0) {
+               throw new IOException("Data after the end of the entries");
+            }
+            return 0;
+         }
+         int end = 0;
+         long[] value = new long[1];
+         while (end < length) {
+            int pos = readVarint(bytes, end, length, value);
+            if (pos < 0) {
+               break;
+            }
+            if (value[0] == 0) {
+               pos = readVarint(bytes, pos, length, value);
+               if (pos < 0) {
+                  break;
+               }
+               trailerCount = value[0];
+               if (pos < length) {
+                  throw new IOException("Data after the end of the entries");
+               }
+               // parse stops at the trailer
+               return length;
+            }
+            pos += checkLength(value[0] - 1);
+            if (pos > length) {
+               break;
+            }
+            pos = readVarint(bytes, pos, length, value);
+            if (pos < 0 || pos + checkLength(value[0]) > length) {
+               break;
+            }
+            end = pos + (int) value[0];
+            records++;
+         }
+         if (eof && end < length) {
+            throw new IOException("Truncated binary dictionary file");
+         }
+         return end;
+      }
+
+      @Override
+      Parsed parse(byte[] bytes, int length, long offset) throws IOException {
+         Parsed result = new Parsed();
+         long[] value = new long[1];
+         int pos = 0;
+         while (pos < length) {
+            pos = readVarint(bytes, pos, length, value);
+            if (value[0] == 0) {
+               // trailer at the start of the last chunk
+               break;
+            }
+            int keyLength = (int) value[0] - 1;
+            String key = new String(bytes, pos, keyLength, UTF8);
+            pos = readVarint(bytes, pos + keyLength, length, value);
+            int valueLength = (int) value[0];
+            result.put(key, new String(bytes, pos, valueLength, UTF8));
+            result.records++;
+            pos += valueLength;
+         }
+         return result;
+      }
+
+      @Override
+      void encode(ByteArrayOutputStream out, String key, String value) {
+         byte[] keyBytes = key.getBytes(UTF8);
+         byte[] valueBytes = value.getBytes(UTF8);
+         writeVarint(out, keyBytes.length + 1);
+         out.write(keyBytes, 0, keyBytes.length);
+         writeVarint(out, valueBytes.length);
+         out.write(valueBytes, 0, valueBytes.length);
+      }
+
+      @Override
+      void checkEnd() throws IOException {
+         if (trailerCount < 0) {
+            throw new IOException("Truncated binary dictionary file, no end of the entries");
+         }
+         if (trailerCount != records) {
+            throw new IOException("Binary dictionary file has " + records + " entries, " + trailerCount + " expected");
+         }
+      }
+
+      private static int checkLength(long length) throws IOException {
+         if (length > Integer.MAX_VALUE / 2) {
+            throw new IOException("Corrupted binary dictionary file, record length " + length);
+         }
+         return (int) length;
+      }
+
+      private static void writeVarint(ByteArrayOutputStream out, long value) {
+         while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+         }
+         out.write((int) value);
+      }
+
+      /**
+       * @return position after the varint, -1 if it doesn't end before the limit
+       */
+      private static int readVarint(byte[] bytes, int pos, int limit, long[] value) throws IOException {
+         long result = 0;
+         for (int shift = 0; pos < limit; shift += 7) {
+            if (shift > 63) {
+               throw new IOException("Corrupted binary dictionary file");
+            }
+            byte b = bytes[pos++];
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+               value[0] = result;
+               return pos;
+            }
+         }
+         return -1;
+      }
+   }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Configured entries of a dictionary kept outside of the subsystem XML, see the entries-file
+ * attribute. The management operations append their changes, so persisting a one entry change
+ * doesn't rewrite all the entries. The file is compacted when its records exceed twice the
+ * entries.
+ * <p>
+ * One UTF-8 line per record: '+' key TAB value, followed by TAB and the time in milliseconds the
+ * entry expires at if it has one, or '-' key for a removal. Backslash, tab, CR and LF are escaped
+ * with a backslash, an unterminated last line (interrupted append) is ignored.
+ *
+ * @author Michal Linhard
+ */
+public class EntriesFile {
+   private static final Logger log = Logger.getLogger(EntriesFile.class.getPackage().getName());
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   /**
+    * Registry key of the default dictionary, named dictionaries are registered by their name.
+    */
+   private static final String DEFAULT = "";
+   private static final int MIN_COMPACTION = 1024;
+
+   private static final ConcurrentMap<String, EntriesFile> open = new ConcurrentHashMap<String, EntriesFile>();
+
+   private final File file;
+   private Writer writer;
+   /**
+    * Records in the file and entries at the last load or compaction.
+    */
+   private long records;
+   private long live;
+   /**
+    * Whether the last load found an unterminated last record, it's dropped by the next write.
+    */
+   private boolean torn;
+
+   public EntriesFile(File file) {
+      this.file = file;
+   }
+
+   /**
+    * Makes the entries file the one the management operations of a dictionary write to,
+    * replacing the previous one.
+    *
+    * @param name dictionary name, null for the default dictionary
+    */
+   static void register(String name, EntriesFile entriesFile) {
+      EntriesFile previous = open.put(name == null ? DEFAULT : name, entriesFile);
+      if (previous != null && previous != entriesFile) {
+         previous.close();
+      }
+   }
+
+   /**
+    * @param name dictionary name, null for the default dictionary
+    * @return the open entries file of the dictionary, null if its entries are in the XML
+    */
+   static EntriesFile get(String name) {
+      return open.get(name == null ? DEFAULT : name);
+   }
+
+   static void close(String name) {
+      EntriesFile entriesFile = open.remove(name == null ? DEFAULT : name);
+      if (entriesFile != null) {
+         entriesFile.close();
+      }
+   }
+
+   public File getFile() {
+      return file;
+   }
+
+   /**
+    * Reads the file without changing it.
+    *
+    * @param expires filled with the expiration times of the entries that have one
+    * @return the entries in the order they were first added, empty if the file doesn't exist
+    */
+   public synchronized Map<String, String> load(Map<String, Long> expires) throws IOException {
+      Map<String, String> entries = new LinkedHashMap<String, String>();
+      torn = false;
+      if (!file.exists()) {
+         records = 0;
+         live = 0;
+         return entries;
+      }
+      long count = 0;
+      Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+      try {
+         StringBuilder line = new StringBuilder();
+         int c;
+         while ((c = reader.read()) != -1) {
+            if (c != '\n') {
+               line.append((char) c);
+               continue;
+            }
+            apply(line, entries, expires);
+            line.setLength(0);
+            count++;
+         }
+         if (line.length() > 0) {
+            torn = true;
+         }
+      } finally {
+         reader.close();
+      }
+      records = count;
+      live = entries.size();
+      if (torn) {
+         log.warnf("Ignoring unterminated last record of %s", file);
+      }
+      return entries;
+   }
+
+   /**
+    * Appends the changes.
+    *
+    * @param changes new values by key, null values for removals
+    * @param expires expiration times of the added entries that have one
+    */
+   public synchronized void write(Map<String, String> changes, Map<String, Long> expires) throws IOException {
+      if (changes.isEmpty()) {
+         return;
+      }
+      if (torn) {
+         // the next append would continue the broken line
+         Map<String, Long> entryExpires = new HashMap<String, Long>();
+         Map<String, String> entries = load(entryExpires);
+         for (Map.Entry<String, String> change : changes.entrySet()) {
+            String key = change.getKey();
+            if (change.getValue() == null) {
+               entries.remove(key);
+            } else {
+               entries.put(key, change.getValue());
+            }
+            if (expires.containsKey(key)) {
+               entryExpires.put(key, expires.get(key));
+            } else {
+               entryExpires.remove(key);
+            }
+         }
+         replaceAll(entries, entryExpires);
+         return;
+      }
+      for (Map.Entry<String, String> change : changes.entrySet()) {
+         append(change.getKey(), change.getValue(), expires.get(change.getKey()));
+      }
+      writer.flush();
+      if (records > 2 * Math.max(live, MIN_COMPACTION)) {
+         // amortized over the appends since the last compaction
+         Map<String, Long> entryExpires = new HashMap<String, Long>();
+         replaceAll(load(entryExpires), entryExpires);
+      }
+   }
+
+   /**
+    * Rewrites the file with the entries.
+    *
+    * @param expires expiration times of the entries that have one
+    */
+   public synchronized void replaceAll(Map<String, String> entries, Map<String, Long> expires) throws IOException {
+      close();
+      File tmp = new File(file.getPath() + ".tmp");
+      Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8));
+      try {
+         for (Map.Entry<String, String> entry : entries.entrySet()) {
+            write(out, entry.getKey(), entry.getValue(), expires.get(entry.getKey()));
+         }
+      } finally {
+         out.close();
+      }
+      if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+         throw new IOException("Couldn't replace " + file + " by " + tmp);
+      }
+      records = entries.size();
+      live = entries.size();
+      torn = false;
+   }
+
+   synchronized void close() {
+      if (writer != null) {
+         try {
+            writer.close();
+         } catch (IOException e) {
+            log.warn("Couldn't close " + file, e);
+         }
+         writer = null;
+      }
+   }
+
+   private void append(String key, String value, Long expires) throws IOException {
+      if (writer == null) {
+         File dir = file.getAbsoluteFile().getParentFile();
+         if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create directory " + dir);
+         }
+         writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8));
+      }
+      write(writer, key, value, expires);
+      records++;
+   }
+
+   private static void write(Writer out, String key, String value, Long expires) throws IOException {
+      out.write(value != null ? '+' : '-');
+      escape(out, key);
+      if (value != null) {
+         out.write('\t');
+         escape(out, value);
+         if (expires != null) {
+            out.write('\t');
+            out.write(expires.toString());
+         }
+      }
+      out.write('\n');
+   }
+
+   private static void escape(Writer out, String s) throws IOException {
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '\\':
+               out.write("\\\\");
+               break;
+            case '\t':
+               out.write("\\t");
+               break;
+            case '\n':
+               out.write("\\n");
+               break;
+            case '\r':
+               out.write("\\r");
+               break;
+            default:
+               out.write(c);
+         }
+      }
+   }
+
+   private void apply(CharSequence line, Map<String, String> entries, Map<String, Long> expires) throws IOException {
+      if (line.length() == 0 || (line.charAt(0) != '+' && line.charAt(0) != '-')) {
+         throw new IOException("Corrupt record in " + file + ": " + line);
+      }
+      StringBuilder key = new StringBuilder();
+      StringBuilder value = null;
+      StringBuilder time = null;
+      StringBuilder current = key;
+      for (int i = 1; i < line.length(); i++) {
+         char c = line.charAt(i);
+         if (c == '\t' && value == null) {
+            value = new StringBuilder();
+            current = value;
+         } else if (c == '\t' && time == null) {
+            time = new StringBuilder();
+            current = time;
+         } else if (c == '\\' && i + 1 < line.length()) {
+            char escaped = line.charAt(++i);
+            current.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+         } else {
+            current.append(c);
+         }
+      }
+      if (line.charAt(0) == '+') {
+         if (value == null) {
+            throw new IOException("Corrupt record in " + file + ": " + line);
+         }
+         entries.put(key.toString(), value.toString());
+         if (time == null) {
+            expires.remove(key.toString());
+         } else {
+            try {
+               expires.put(key.toString(), Long.parseLong(time.toString()));
+            } catch (NumberFormatException e) {
+               throw new IOException("Corrupt record in " + file + ": " + line);
+            }
+         }
+      } else {
+         entries.remove(key.toString());
+         expires.remove(key.toString());
+      }
+   }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Entries of an add operation in plain arrays, merged with the entries file and resolved against
+ * the default ttl before they become the entry sub-tree of the model and the initial entries of
+ * the service.
+ * <p>
+ * The entries carry the time they expire at rather than their ttl, so a restart doesn't give the
+ * configured entries a fresh ttl.
+ *
+ * @author Michal Linhard
+ */
+public class EntryBuffer {
+   private static final int INITIAL_CAPACITY = 16;
+
+   private String[] keys;
+   private String[] values;
+   /**
+    * Expiration times in milliseconds, 0 for the entries that don't expire, -1 for the entries
+    * that get the default ttl, null until an entry has one.
+    */
+   private long[] expires;
+   private int size;
+
+   public EntryBuffer() {
+      this(INITIAL_CAPACITY);
+   }
+
+   /**
+    * @param capacity number of entries the buffer holds without growing
+    */
+   public EntryBuffer(int capacity) {
+      keys = new String[Math.max(1, capacity)];
+      values = new String[keys.length];
+   }
+
+   /**
+    * @param ttl seconds the entry lives, 0 if it doesn't expire
+    * @return time in milliseconds an entry added now with the ttl expires at, 0 if it doesn't
+    */
+   public static long toExpires(long ttl, long now) {
+      return ttl == 0 ? 0 : now + ttl * 1000;
+   }
+
+   /**
+    * @param expires time in milliseconds the entry expires at, 0 if it doesn't
+    * @return milliseconds the entry has left, at least 1, 0 if it doesn't expire
+    */
+   public static long toTtl(long expires, long now) {
+      return expires == 0 ? 0 : Math.max(1, expires - now);
+   }
+
+   /**
+    * @param time time in milliseconds the entry expires at, 0 if it doesn't, -1 for the default
+    *           ttl of the dictionary
+    */
+   public void add(String key, String value, long time) {
+      if (size == keys.length) {
+         int capacity = size * 2;
+         String[] newKeys = new String[capacity];
+         String[] newValues = new String[capacity];
+         System.arraycopy(keys, 0, newKeys, 0, size);
+         System.arraycopy(values, 0, newValues, 0, size);
+         keys = newKeys;
+         values = newValues;
+         if (expires != null) {
+            long[] newExpires = new long[capacity];
+            System.arraycopy(expires, 0, newExpires, 0, size);
+            expires = newExpires;
+         }
+      }
+      if (time >= 0 && expires == null) {
+         expires = new long[keys.length];
+         for (int i = 0; i < size; i++) {
+            expires[i] = -1;
+         }
+      }
+      keys[size] = key;
+      values[size] = value;
+      if (expires != null) {
+         expires[size] = time;
+      }
+      size++;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public String getKey(int i) {
+      return keys[i];
+   }
+
+   public String getValue(int i) {
+      return values[i];
+   }
+
+   /**
+    * @return time in milliseconds the entry expires at, 0 if it doesn't, -1 for the default ttl
+    */
+   public long getExpires(int i) {
+      return expires == null ? -1 : expires[i];
+   }
+
+   /**
+    * Gives the entries without their own expiration time the default one and drops the entries
+    * that already expired, the ones a previous run of the server added.
+    *
+    * @param defaultExpires expiration time of the entries without their own, 0 if they don't
+    *           expire
+    * @return number of dropped entries
+    */
+   public int resolve(long defaultExpires, long now) {
+      if (expires == null && defaultExpires == 0) {
+         return 0;
+      }
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+         long time = getExpires(i);
+         if (time < 0 && defaultExpires != 0) {
+            time = defaultExpires;
+         }
+         if (time > 0 && time <= now) {
+            continue;
+         }
+         if (time >= 0 && expires == null) {
+            expires = new long[keys.length];
+            Arrays.fill(expires, -1);
+         }
+         keys[kept] = keys[i];
+         values[kept] = values[i];
+         if (expires != null) {
+            expires[kept] = time;
+         }
+         kept++;
+      }
+      int dropped = size - kept;
+      Arrays.fill(keys, kept, size, null);
+      Arrays.fill(values, kept, size, null);
+      size = kept;
+      return dropped;
+   }
+
+   /**
+    * Creates the entry resources with their value and expires attributes under the node.
+    *
+    * @param entryModel entry child of the subsystem or dictionary model
+    */
+   public void populate(ModelNode entryModel) {
+      for (int i = 0; i < size; i++) {
+         ModelNode entry = entryModel.get(keys[i]);
+         entry.get(DictionaryExtension.VALUE).set(values[i]);
+         if (expires != null && expires[i] >= 0) {
+            entry.get(DictionaryExtension.EXPIRES).set(expires[i]);
+         }
+      }
+   }
+
+   /**
+    * @return values by key, a later entry of a duplicate key wins
+    */
+   public Map<String, String> toMap() {
+      Map<String, String> map = new HashMap<String, String>((int) (size / 0.75f) + 1);
+      for (int i = 0; i < size; i++) {
+         map.put(keys[i], values[i]);
+      }
+      return map;
+   }
+
+   /**
+    * @return milliseconds the entries with their own expiration time have left, 0 for the ones
+    *         that don't expire
+    */
+   public Map<String, Long> getTtls(long now) {
+      if (expires == null) {
+         return Collections.emptyMap();
+      }
+      Map<String, Long> map = new HashMap<String, Long>();
+      for (int i = 0; i < size; i++) {
+         if (expires[i] >= 0) {
+            map.put(keys[i], toTtl(expires[i], now));
+         }
+      }
+      return map;
+   }
+
+}
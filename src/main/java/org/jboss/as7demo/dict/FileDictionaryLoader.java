@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Default loader reading the values from a dictionary data file, see {@link MappedDictionaryFile}.
+ *
+ * @author Michal Linhard
+ */
+public class FileDictionaryLoader implements BatchDictionaryLoader, ListableDictionaryLoader {
+
+   private volatile MappedDictionaryFile file;
+
+   @Override
+   public void start(String source) throws IOException {
+      if (source == null) {
+         throw new IOException("No data file configured for " + getClass().getName());
+      }
+      file = MappedDictionaryFile.open(new File(source));
+   }
+
+   @Override
+   public String load(String key) throws IOException {
+      return file().find(key);
+   }
+
+   @Override
+   public Map<String, String> loadAll(Collection<String> keys) throws IOException {
+      MappedDictionaryFile current = file();
+      Map<String, String> values = new HashMap<String, String>((int) (keys.size() / 0.75f) + 1);
+      for (String key : keys) {
+         String value = current.find(key);
+         if (value != null) {
+            values.put(key, value);
+         }
+      }
+      return values;
+   }
+
+   @Override
+   public int size() {
+      return started().size();
+   }
+
+   @Override
+   public Iterator<String> keys() {
+      return started().keys(null, true);
+   }
+
+   private MappedDictionaryFile started() {
+      MappedDictionaryFile current = file;
+      if (current == null) {
+         throw new IllegalStateException("Loader not started");
+      }
+      return current;
+   }
+
+   private MappedDictionaryFile file() throws IOException {
+      MappedDictionaryFile current = file;
+      if (current == null) {
+         throw new IOException("Loader not started");
+      }
+      return current;
+   }
+
+   @Override
+   public void stop() {
+      file = null;
+   }
+
+}
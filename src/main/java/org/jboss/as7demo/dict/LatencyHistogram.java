@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets, in the manner of HdrHistogram.
+ * Values below 32 have their own bucket, larger values are grouped by their highest bit into 16
+ * linear sub-buckets, so a reported value is within 1/16 of the recorded one. The bucket counts
+ * are striped like {@link StripedCounter}, but by at most {@link #STRIPES} stripes allocated with
+ * their first value, so an idle histogram costs next to nothing and a busy one at most
+ * STRIPES * BUCKETS longs. Recording doesn't allocate after that.
+ *
+ * @author Michal Linhard
+ */
+public class LatencyHistogram {
+   private static final int SUB_BUCKET_BITS = 4;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int LINEAR = 2 * SUB_BUCKETS;
+   /**
+    * Linear buckets plus sub-buckets for highest bits 5 to 62.
+    */
+   static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+   /**
+    * Stripes of the bucket counts, a stripe costs BUCKETS longs so there are fewer than the
+    * counters have.
+    */
+   static final int STRIPES = Math.min(8, StripedCounter.STRIPES);
+
+   private final AtomicReferenceArray<AtomicLongArray> counts = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+   private final StripedCounter total = new StripedCounter();
+   private final StripedCounter sum = new StripedCounter();
+   private final AtomicLong max = new AtomicLong();
+
+   public void record(long nanos) {
+      long value = Math.max(0, nanos);
+      int stripe = StripedCounter.stripe() & (STRIPES - 1);
+      AtomicLongArray stripeCounts = counts.get(stripe);
+      if (stripeCounts == null) {
+         counts.compareAndSet(stripe, null, new AtomicLongArray(BUCKETS));
+         stripeCounts = counts.get(stripe);
+      }
+      stripeCounts.getAndIncrement(indexOf(value));
+      total.increment();
+      sum.add(value);
+      long current = max.get();
+      while (value > current && !max.compareAndSet(current, value)) {
+         current = max.get();
+      }
+   }
+
+   public long getCount() {
+      return total.sum();
+   }
+
+   public long getMax() {
+      return max.get();
+   }
+
+   public long getMean() {
+      long count = total.sum();
+      return count == 0 ? 0 : sum.sum() / count;
+   }
+
+   /**
+    * @param percentile 0 to 100
+    * @return highest value of the bucket holding the percentile, 0 if nothing was recorded
+    */
+   public long getValueAtPercentile(double percentile) {
+      long[] merged = new long[BUCKETS];
+      long count = 0;
+      for (int stripe = 0; stripe < STRIPES; stripe++) {
+         AtomicLongArray stripeCounts = counts.get(stripe);
+         if (stripeCounts == null) {
+            continue;
+         }
+         for (int i = 0; i < BUCKETS; i++) {
+            long c = stripeCounts.get(i);
+            merged[i] += c;
+            count += c;
+         }
+      }
+      if (count == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += merged[i];
+         if (seen >= rank) {
+            return Math.min(highestValueOf(i), max.get());
+         }
+      }
+      return max.get();
+   }
+
+   static int indexOf(long value) {
+      if (value < LINEAR) {
+         return (int) value;
+      }
+      int highestBit = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+      return LINEAR + (highestBit - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+   }
+
+   static long highestValueOf(int index) {
+      if (index < LINEAR) {
+         return index;
+      }
+      int highestBit = (index - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+      long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+      return ((top + 1) << (highestBit - SUB_BUCKET_BITS)) - 1;
+   }
+
+}
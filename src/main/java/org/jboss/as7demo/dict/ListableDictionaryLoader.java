@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Iterator;
+
+/**
+ * Loader that can list all keys of its backing store. A dictionary with a bloom filter puts them
+ * into the filter too, so lookups of keys neither the entries nor the backing store have skip
+ * the cache and the loader as well. The keys of the backing store mustn't change while the loader
+ * is started.
+ *
+ * @author Michal Linhard
+ */
+public interface ListableDictionaryLoader extends DictionaryLoader {
+
+   /**
+    * @return number of keys of the backing store
+    */
+   int size();
+
+   /**
+    * @return all keys of the backing store, in any order
+    */
+   Iterator<String> keys();
+
+}
@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Groups the keys of the asynchronous lookups missing in the cache into batches for the loader. A
+ * batch is dispatched once it has batchSize keys or the window since its first key is over, at
+ * most {@link #THREADS} batches are loaded at a time. While all of them are busy the keys queue
+ * up, so the batches grow with the load instead of their number.
+ *
+ * @author Michal Linhard
+ */
+public class LoadBatcher {
+   private static final Logger log = Logger.getLogger(LoadBatcher.class.getPackage().getName());
+   static final int THREADS = 4;
+   private static final long CLOSE_WARNING_SECONDS = 10;
+
+   public interface Handler {
+
+      /**
+       * Loads the keys and completes their lookups, called on a loader thread.
+       */
+      void load(List<String> keys);
+
+   }
+
+   private final int batchSize;
+   private final long windowNanos;
+   private final Handler handler;
+   private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+   private final Semaphore permits = new Semaphore(THREADS);
+   private volatile boolean open;
+   private Thread dispatcher;
+   private ThreadPoolExecutor pool;
+
+   /**
+    * @param batchSize maximum number of keys in a batch
+    * @param window milliseconds a batch waits for more keys, 0 to send the queued keys right away
+    */
+   public LoadBatcher(int batchSize, long window, Handler handler) {
+      this.batchSize = batchSize;
+      this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+      this.handler = handler;
+   }
+
+   public void open(final String name) {
+      final AtomicInteger count = new AtomicInteger();
+      ThreadPoolExecutor newPool = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                  @Override
+                  public Thread newThread(Runnable r) {
+                     Thread thread = new Thread(r, name + "-load-" + count.incrementAndGet());
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+      newPool.allowCoreThreadTimeOut(true);
+      pool = newPool;
+      open = true;
+      dispatcher = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            dispatch();
+         }
+      }, name + "-load-batch");
+      dispatcher.setDaemon(true);
+      dispatcher.start();
+   }
+
+   /**
+    * Stops taking keys and waits until the batches being loaded are finished, so that the loader
+    * can be stopped after it returns.
+    *
+    * @return keys that weren't dispatched, their lookups have to be failed by the caller
+    */
+   public List<String> close() {
+      open = false;
+      if (dispatcher != null) {
+         dispatcher.interrupt();
+         try {
+            dispatcher.join();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         dispatcher = null;
+      }
+      if (pool != null) {
+         pool.shutdown();
+         try {
+            while (!pool.awaitTermination(CLOSE_WARNING_SECONDS, TimeUnit.SECONDS)) {
+               log.warnf("Waiting for %d dictionary loads to finish", pool.getActiveCount());
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         pool = null;
+      }
+      List<String> remaining = new ArrayList<String>();
+      queue.drainTo(remaining);
+      return remaining;
+   }
+
+   /**
+    * @return false if the batcher is closed
+    */
+   public boolean submit(String key) {
+      if (!open) {
+         return false;
+      }
+      queue.add(key);
+      // raced with close, which might have drained the queue already
+      if (!open && queue.remove(key)) {
+         return false;
+      }
+      return true;
+   }
+
+   private void dispatch() {
+      List<String> batch = new ArrayList<String>(batchSize);
+      try {
+         while (open) {
+            batch.add(queue.take());
+            permits.acquire();
+            boolean dispatched = false;
+            try {
+               fill(batch);
+               final List<String> current = batch;
+               batch = new ArrayList<String>(batchSize);
+               pool.execute(new Runnable() {
+                  @Override
+                  public void run() {
+                     try {
+                        handler.load(current);
+                     } finally {
+                        permits.release();
+                     }
+                  }
+               });
+               dispatched = true;
+            } finally {
+               if (!dispatched) {
+                  permits.release();
+               }
+            }
+         }
+      } catch (InterruptedException e) {
+         // closed
+      } catch (RuntimeException e) {
+         open = false;
+         log.error("Dictionary load batching failed", e);
+      }
+      // the owner fails the lookups of the keys left over
+      queue.addAll(batch);
+   }
+
+   private void fill(List<String> batch) throws InterruptedException {
+      long deadline = System.nanoTime() + windowNanos;
+      while (batch.size() < batchSize) {
+         queue.drainTo(batch, batchSize - batch.size());
+         long remaining = deadline - System.nanoTime();
+         if (batch.size() >= batchSize || remaining <= 0) {
+            return;
+         }
+         String next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+         if (next == null) {
+            return;
+         }
+         batch.add(next);
+      }
+   }
+
+}
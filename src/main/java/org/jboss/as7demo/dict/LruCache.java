@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used eviction. The cache is split into independently locked segments, each
+ * evicting on its own.
+ *
+ * @author Michal Linhard
+ */
+public class LruCache implements DictionaryCache {
+   private static final int SEGMENTS = 16;
+
+   private final Segment[] segments = new Segment[SEGMENTS];
+   private final AtomicLong evictions = new AtomicLong();
+
+   public LruCache(int capacity) {
+      int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+      for (int i = 0; i < segments.length; i++) {
+         segments[i] = new Segment(segmentCapacity);
+      }
+   }
+
+   @Override
+   public String get(String key) {
+      Segment segment = segmentFor(key);
+      synchronized (segment) {
+         return segment.get(key);
+      }
+   }
+
+   @Override
+   public void put(String key, String value) {
+      Segment segment = segmentFor(key);
+      synchronized (segment) {
+         segment.put(key, value);
+      }
+   }
+
+   @Override
+   public void invalidate(String key) {
+      Segment segment = segmentFor(key);
+      synchronized (segment) {
+         segment.remove(key);
+      }
+   }
+
+   @Override
+   public int size() {
+      int size = 0;
+      for (Segment segment : segments) {
+         synchronized (segment) {
+            size += segment.size();
+         }
+      }
+      return size;
+   }
+
+   @Override
+   public long getEvictions() {
+      return evictions.get();
+   }
+
+   private Segment segmentFor(String key) {
+      int h = key.hashCode();
+      h ^= (h >>> 16);
+      return segments[h & (SEGMENTS - 1)];
+   }
+
+   private final class Segment extends LinkedHashMap<String, String> {
+      private static final long serialVersionUID = 1L;
+      private final int capacity;
+
+      Segment(int capacity) {
+         super(16, 0.75f, true);
+         this.capacity = capacity;
+      }
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+         if (size() > capacity) {
+            evictions.incrementAndGet();
+            return true;
+         }
+         return false;
+      }
+   }
+
+}
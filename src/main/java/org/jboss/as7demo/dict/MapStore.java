@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default store keeping the entries as strings in a {@link ConcurrentHashMap}.
+ *
+ * @author Michal Linhard
+ */
+public class MapStore implements DictionaryStore {
+   /**
+    * Estimated heap cost of a string besides the characters: the string and its char array header,
+    * assuming compressed oops.
+    */
+   static final int STRING_OVERHEAD = 24 + 16;
+   /**
+    * Estimated heap cost of an entry besides the characters: hash map node and table slot, two
+    * strings and their char arrays.
+    */
+   static final int ENTRY_OVERHEAD = 32 + 6 + 2 * STRING_OVERHEAD;
+
+   private final Map<String, String> map = new ConcurrentHashMap<String, String>();
+   private final AtomicLong payload = new AtomicLong();
+
+   @Override
+   public String get(String key) {
+      return map.get(key);
+   }
+
+   @Override
+   public boolean put(String key, String value) {
+      String old = map.put(key, value);
+      payload.addAndGet(old == null ? key.length() + value.length() : value.length() - old.length());
+      return old == null;
+   }
+
+   @Override
+   public boolean remove(String key) {
+      String old = map.remove(key);
+      if (old != null) {
+         payload.addAndGet(-key.length() - old.length());
+      }
+      return old != null;
+   }
+
+   @Override
+   public int size() {
+      return map.size();
+   }
+
+   @Override
+   public Iterator<String> keys() {
+      return map.keySet().iterator();
+   }
+
+   @Override
+   public long getPayloadSize() {
+      return payload.get();
+   }
+
+   @Override
+   public long getMemoryFootprint() {
+      return estimateFootprint(map.size(), payload.get());
+   }
+
+   static long estimateFootprint(int entries, long payload) {
+      return (long) entries * ENTRY_OVERHEAD + 2 * payload;
+   }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Read-only dictionary data file served straight from a memory mapped region. Only the values
+ * that are looked up are decoded onto the heap.
+ * <p>
+ * File layout, all integers are big endian:
+ *
+ * <pre>
+ * magic    int        0x44494354
+ * version  int        1
+ * count    int        number of entries
+ * offsets  int[count] offsets of the records, ordered by key
+ * records             key length int, key UTF-8 bytes, value length int, value UTF-8 bytes
+ * </pre>
+ *
+ * Keys are ordered the same way as {@link String#compareTo(String)} orders them.
+ *
+ * @author Michal Linhard
+ */
+public class MappedDictionaryFile {
+   static final int MAGIC = 0x44494354;
+   static final int VERSION = 1;
+   private static final int HEADER_SIZE = 12;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final File file;
+   private final ByteBuffer buffer;
+   private final int count;
+
+   private MappedDictionaryFile(File file, ByteBuffer buffer) throws IOException {
+      this.file = file;
+      this.buffer = buffer;
+      if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+         throw new IOException("Not a dictionary data file: " + file);
+      }
+      if (buffer.getInt(4) != VERSION) {
+         throw new IOException("Unsupported dictionary data file version " + buffer.getInt(4) + ": " + file);
+      }
+      this.count = buffer.getInt(8);
+   }
+
+   public static MappedDictionaryFile open(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = raf.getChannel();
+         if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary data file larger than 2GB: " + file);
+         }
+         // the mapping stays valid after the channel is closed
+         return new MappedDictionaryFile(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      } finally {
+         raf.close();
+      }
+   }
+
+   public File getFile() {
+      return file;
+   }
+
+   public int size() {
+      return count;
+   }
+
+   public String find(String key) {
+      int i = search(key);
+      return i < 0 ? null : decode(valuePosition(recordPosition(i)));
+   }
+
+   public boolean contains(String key) {
+      return search(key) >= 0;
+   }
+
+   /**
+    * @param from lower bound, null to iterate all keys
+    * @param inclusive whether the lower bound itself is returned
+    * @return ascending iterator over the keys
+    */
+   public Iterator<String> keys(String from, boolean inclusive) {
+      int start = 0;
+      if (from != null) {
+         int i = search(from);
+         start = i < 0 ? -i - 1 : (inclusive ? i : i + 1);
+      }
+      final int first = start;
+      return new Iterator<String>() {
+         private int next = first;
+
+         @Override
+         public boolean hasNext() {
+            return next < count;
+         }
+
+         @Override
+         public String next() {
+            if (next >= count) {
+               throw new NoSuchElementException();
+            }
+            return decode(recordPosition(next++));
+         }
+
+         @Override
+         public void remove() {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+
+   /**
+    * Binary search over the offset table.
+    *
+    * @return index of the key or (-(insertion point) - 1)
+    */
+   private int search(String key) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+         int pos = recordPosition(mid);
+         int cmp = compare(pos + 4, buffer.getInt(pos), key);
+         if (cmp < 0) {
+            low = mid + 1;
+         } else if (cmp > 0) {
+            high = mid - 1;
+         } else {
+            return mid;
+         }
+      }
+      return -(low + 1);
+   }
+
+   private int recordPosition(int i) {
+      return buffer.getInt(HEADER_SIZE + 4 * i);
+   }
+
+   private int valuePosition(int recordPosition) {
+      return recordPosition + 4 + buffer.getInt(recordPosition);
+   }
+
+   private String decode(int pos) {
+      int length = buffer.getInt(pos);
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+         bytes[i] = buffer.get(pos + 4 + i);
+      }
+      return new String(bytes, UTF8);
+   }
+
+   /**
+    * Compares UTF-8 encoded bytes with a string in UTF-16 code unit order without decoding the
+    * bytes into a new string.
+    */
+   private int compare(int pos, int length, String key) {
+      int end = pos + length;
+      int i = 0;
+      while (pos < end) {
+         int b = buffer.get(pos) & 0xff;
+         int cp;
+         if (b < 0x80) {
+            cp = b;
+            pos += 1;
+         } else if (b < 0xe0) {
+            cp = ((b & 0x1f) << 6) | (buffer.get(pos + 1) & 0x3f);
+            pos += 2;
+         } else if (b < 0xf0) {
+            cp = ((b & 0x0f) << 12) | ((buffer.get(pos + 1) & 0x3f) << 6) | (buffer.get(pos + 2) & 0x3f);
+            pos += 3;
+         } else {
+            cp = ((b & 0x07) << 18) | ((buffer.get(pos + 1) & 0x3f) << 12) | ((buffer.get(pos + 2) & 0x3f) << 6)
+                     | (buffer.get(pos + 3) & 0x3f);
+            pos += 4;
+         }
+         if (cp < 0x10000) {
+            if (i == key.length()) {
+               return 1;
+            }
+            int d = cp - key.charAt(i++);
+            if (d != 0) {
+               return d;
+            }
+         } else {
+            char high = (char) ((cp >>> 10) + 0xd7c0);
+            char low = (char) ((cp & 0x3ff) + 0xdc00);
+            if (i == key.length()) {
+               return 1;
+            }
+            int d = high - key.charAt(i++);
+            if (d != 0) {
+               return d;
+            }
+            if (i == key.length()) {
+               return 1;
+            }
+            d = low - key.charAt(i++);
+            if (d != 0) {
+               return d;
+            }
+         }
+      }
+      return i == key.length() ? 0 : -1;
+   }
+
+   /**
+    * Writes the entries into a new data file.
+    */
+   public static void write(File file, Map<String, String> entries) throws IOException {
+      SortedMap<String, String> sorted = new TreeMap<String, String>(entries);
+      List<byte[]> keys = new ArrayList<byte[]>(sorted.size());
+      List<byte[]> values = new ArrayList<byte[]>(sorted.size());
+      long position = HEADER_SIZE + 4L * sorted.size();
+      for (Map.Entry<String, String> entry : sorted.entrySet()) {
+         byte[] key = entry.getKey().getBytes(UTF8);
+         byte[] value = entry.getValue().getBytes(UTF8);
+         keys.add(key);
+         values.add(value);
+         position += 8 + key.length + value.length;
+      }
+      if (position > Integer.MAX_VALUE) {
+         throw new IOException("Dictionary data larger than 2GB");
+      }
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(keys.size());
+         int offset = HEADER_SIZE + 4 * keys.size();
+         for (int i = 0; i < keys.size(); i++) {
+            out.writeInt(offset);
+            offset += 8 + keys.get(i).length + values.get(i).length;
+         }
+         for (int i = 0; i < keys.size(); i++) {
+            out.writeInt(keys.get(i).length);
+            out.write(keys.get(i));
+            out.writeInt(values.get(i).length);
+            out.write(values.get(i));
+         }
+      } finally {
+         out.close();
+      }
+   }
+
+}
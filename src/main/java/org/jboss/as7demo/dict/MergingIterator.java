@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges ascending key iterators into one ascending iterator, a key present in several sources
+ * is returned once. The sources are kept in a binary heap ordered by their next key, so merging
+ * many shards costs a logarithmic number of comparisons per key.
+ *
+ * @author Michal Linhard
+ */
+public class MergingIterator implements Iterator<String> {
+   private final Iterator<String>[] sources;
+   private final String[] heads;
+   /**
+    * Indices of the sources that aren't exhausted, heap ordered by their heads.
+    */
+   private final int[] heap;
+   private int size;
+   private String next;
+
+   @SuppressWarnings({ "unchecked", "rawtypes" })
+   public MergingIterator(List<Iterator<String>> sources) {
+      this.sources = sources.toArray(new Iterator[sources.size()]);
+      this.heads = new String[this.sources.length];
+      this.heap = new int[this.sources.length];
+      for (int i = 0; i < heads.length; i++) {
+         if (this.sources[i].hasNext()) {
+            heads[i] = this.sources[i].next();
+            heap[size++] = i;
+         }
+      }
+      for (int i = size / 2 - 1; i >= 0; i--) {
+         siftDown(i);
+      }
+      advance();
+   }
+
+   private void advance() {
+      if (size == 0) {
+         next = null;
+         return;
+      }
+      next = heads[heap[0]];
+      // pop the key from every source that has it
+      while (size > 0 && next.equals(heads[heap[0]])) {
+         int source = heap[0];
+         if (sources[source].hasNext()) {
+            heads[source] = sources[source].next();
+         } else {
+            heads[source] = null;
+            heap[0] = heap[--size];
+         }
+         siftDown(0);
+      }
+   }
+
+   private void siftDown(int i) {
+      int source = heap[i];
+      String head = heads[source];
+      while (true) {
+         int child = 2 * i + 1;
+         if (child >= size) {
+            break;
+         }
+         if (child + 1 < size && heads[heap[child + 1]].compareTo(heads[heap[child]]) < 0) {
+            child++;
+         }
+         if (heads[heap[child]].compareTo(head) >= 0) {
+            break;
+         }
+         heap[i] = heap[child];
+         i = child;
+      }
+      heap[i] = source;
+   }
+
+   @Override
+   public boolean hasNext() {
+      return next != null;
+   }
+
+   @Override
+   public String next() {
+      if (next == null) {
+         throw new NoSuchElementException();
+      }
+      String result = next;
+      advance();
+      return result;
+   }
+
+   @Override
+   public void remove() {
+      throw new UnsupportedOperationException();
+   }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact (path compressed) prefix trie index. Edges of a node are kept in an immutable array
+ * that is replaced on every change, so readers walk the trie without locking while writers
+ * serialize on the index.
+ *
+ * @author Michal Linhard
+ */
+public class PrefixTrieIndex implements DictionaryIndex {
+
+   /** node object */
+   private static final int NODE_OVERHEAD = 24;
+   /** edges object and the headers of its two arrays */
+   private static final int EDGES_OVERHEAD = 16 + 2 * 16;
+
+   private final Node root = new Node();
+
+   @Override
+   public synchronized void insert(String key) {
+      Node node = root;
+      int pos = 0;
+      while (pos < key.length()) {
+         Edges edges = node.edges;
+         int i = edges.find(key.charAt(pos));
+         if (i < 0) {
+            Node leaf = new Node();
+            leaf.terminal = true;
+            node.edges = edges.insert(-i - 1, key.substring(pos), leaf);
+            return;
+         }
+         String label = edges.labels[i];
+         int common = commonPrefix(label, key, pos);
+         if (common < label.length()) {
+            // split the edge, the new middle node is complete before it gets published
+            Node middle = new Node();
+            middle.edges = new Edges(new String[] { label.substring(common) }, new Node[] { edges.nodes[i] });
+            node.edges = edges.replace(i, label.substring(0, common), middle);
+            node = middle;
+         } else {
+            node = edges.nodes[i];
+         }
+         pos += common;
+      }
+      node.terminal = true;
+   }
+
+   @Override
+   public synchronized void delete(String key) {
+      Node grandparent = null;
+      int grandparentEdge = -1;
+      Node parent = null;
+      int parentEdge = -1;
+      Node node = root;
+      int pos = 0;
+      while (pos < key.length()) {
+         Edges edges = node.edges;
+         int i = edges.find(key.charAt(pos));
+         if (i < 0 || !key.startsWith(edges.labels[i], pos)) {
+            return;
+         }
+         grandparent = parent;
+         grandparentEdge = parentEdge;
+         parent = node;
+         parentEdge = i;
+         pos += edges.labels[i].length();
+         node = edges.nodes[i];
+      }
+      if (!node.terminal) {
+         return;
+      }
+      node.terminal = false;
+      if (parent == null) {
+         return;
+      }
+      int children = node.edges.labels.length;
+      if (children == 0) {
+         parent.edges = parent.edges.remove(parentEdge);
+         if (grandparent != null && !parent.terminal && parent.edges.labels.length == 1) {
+            merge(grandparent, grandparentEdge, parent);
+         }
+      } else if (children == 1) {
+         merge(parent, parentEdge, node);
+      }
+   }
+
+   /**
+    * Replaces the edge to a non-terminal node that has a single child by an edge going straight
+    * to the child.
+    */
+   private static void merge(Node parent, int edge, Node node) {
+      Edges edges = node.edges;
+      parent.edges = parent.edges.replace(edge, parent.edges.labels[edge] + edges.labels[0], edges.nodes[0]);
+   }
+
+   @Override
+   public Iterator<String> keys(String from, boolean inclusive) {
+      return new KeyIterator(from, inclusive);
+   }
+
+   /**
+    * The edge labels are substrings of their own, so the trie holds its key characters whether
+    * the store shares the keys or not.
+    */
+   @Override
+   public long getMemoryFootprint(boolean sharedKeys) {
+      long bytes = 0;
+      List<Node> stack = new ArrayList<Node>();
+      stack.add(root);
+      while (!stack.isEmpty()) {
+         Edges edges = stack.remove(stack.size() - 1).edges;
+         bytes += NODE_OVERHEAD;
+         if (edges != Edges.EMPTY) {
+            bytes += EDGES_OVERHEAD + 8L * edges.labels.length;
+            for (int i = 0; i < edges.labels.length; i++) {
+               bytes += MapStore.STRING_OVERHEAD + 2L * edges.labels[i].length();
+               stack.add(edges.nodes[i]);
+            }
+         }
+      }
+      return bytes;
+   }
+
+   private static int commonPrefix(String label, String key, int pos) {
+      int max = Math.min(label.length(), key.length() - pos);
+      int i = 0;
+      while (i < max && label.charAt(i) == key.charAt(pos + i)) {
+         i++;
+      }
+      return i;
+   }
+
+   private static final class Node {
+      volatile Edges edges = Edges.EMPTY;
+      volatile boolean terminal;
+   }
+
+   /**
+    * Immutable edge table, sorted by the first character of the labels which is unique among
+    * siblings.
+    */
+   private static final class Edges {
+      static final Edges EMPTY = new Edges(new String[0], new Node[0]);
+
+      final String[] labels;
+      final Node[] nodes;
+
+      Edges(String[] labels, Node[] nodes) {
+         this.labels = labels;
+         this.nodes = nodes;
+      }
+
+      int find(char c) {
+         int low = 0;
+         int high = labels.length - 1;
+         while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char m = labels[mid].charAt(0);
+            if (m < c) {
+               low = mid + 1;
+            } else if (m > c) {
+               high = mid - 1;
+            } else {
+               return mid;
+            }
+         }
+         return -(low + 1);
+      }
+
+      Edges insert(int index, String label, Node node) {
+         int n = labels.length;
+         String[] newLabels = new String[n + 1];
+         Node[] newNodes = new Node[n + 1];
+         System.arraycopy(labels, 0, newLabels, 0, index);
+         System.arraycopy(nodes, 0, newNodes, 0, index);
+         newLabels[index] = label;
+         newNodes[index] = node;
+         System.arraycopy(labels, index, newLabels, index + 1, n - index);
+         System.arraycopy(nodes, index, newNodes, index + 1, n - index);
+         return new Edges(newLabels, newNodes);
+      }
+
+      Edges replace(int index, String label, Node node) {
+         String[] newLabels = labels.clone();
+         Node[] newNodes = nodes.clone();
+         newLabels[index] = label;
+         newNodes[index] = node;
+         return new Edges(newLabels, newNodes);
+      }
+
+      Edges remove(int index) {
+         int n = labels.length;
+         String[] newLabels = new String[n - 1];
+         Node[] newNodes = new Node[n - 1];
+         System.arraycopy(labels, 0, newLabels, 0, index);
+         System.arraycopy(nodes, 0, newNodes, 0, index);
+         System.arraycopy(labels, index + 1, newLabels, index, n - index - 1);
+         System.arraycopy(nodes, index + 1, newNodes, index, n - index - 1);
+         return new Edges(newLabels, newNodes);
+      }
+   }
+
+   private static final class Frame {
+      final Node node;
+      final Edges edges;
+      final String prefix;
+      boolean visited;
+      int next;
+
+      Frame(Node node, String prefix) {
+         this.node = node;
+         this.edges = node.edges;
+         this.prefix = prefix;
+      }
+   }
+
+   /**
+    * Depth-first iterator, subtrees lying entirely below the lower bound are skipped.
+    */
+   private final class KeyIterator implements Iterator<String> {
+      private final String from;
+      private final boolean inclusive;
+      private final List<Frame> stack = new ArrayList<Frame>();
+      private String next;
+
+      KeyIterator(String from, boolean inclusive) {
+         this.from = from;
+         this.inclusive = inclusive;
+         stack.add(new Frame(root, ""));
+         advance();
+      }
+
+      private void advance() {
+         next = null;
+         while (next == null && !stack.isEmpty()) {
+            Frame frame = stack.get(stack.size() - 1);
+            if (!frame.visited) {
+               frame.visited = true;
+               if (frame.node.terminal && accept(frame.prefix)) {
+                  next = frame.prefix;
+               }
+            } else if (frame.next == frame.edges.labels.length) {
+               stack.remove(stack.size() - 1);
+            } else {
+               int i = frame.next++;
+               String prefix = frame.prefix + frame.edges.labels[i];
+               if (from == null || prefix.compareTo(from) >= 0 || from.startsWith(prefix)) {
+                  stack.add(new Frame(frame.edges.nodes[i], prefix));
+               }
+            }
+         }
+      }
+
+      private boolean accept(String key) {
+         if (from == null) {
+            return true;
+         }
+         int cmp = key.compareTo(from);
+         return inclusive ? cmp >= 0 : cmp > 0;
+      }
+
+      @Override
+      public boolean hasNext() {
+         return next != null;
+      }
+
+      @Override
+      public String next() {
+         if (next == null) {
+            throw new NoSuchElementException();
+         }
+         String result = next;
+         advance();
+         return result;
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+}
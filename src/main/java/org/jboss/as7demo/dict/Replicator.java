@@ -0,0 +1,900 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Replicates the entries of a dictionary between nodes over TCP. Every change gets a version, a
+ * Lamport clock with the node id in the low 16 bits, and the highest version of a key wins
+ * everywhere; equal versions (the entries a node started with have version 0) are decided by the
+ * greater value. Removals are kept as versioned tombstones until every peer had the time to get
+ * them, see {@link #prune()}. With a journal the versions and tombstones survive restarts, the
+ * replicator provides them to its snapshots.
+ * <p>
+ * Local changes are batched for a window and sent to all the peers without acknowledgements. What
+ * gets lost (a peer was down, a connection broke) is repaired by anti-entropy: every interval the
+ * node compares a Merkle tree of the key space with each peer, descending only into the subtrees
+ * whose digests differ, and then both exchange the entries of the differing leaves. The tree has
+ * 16 children per node and 4096 leaves, a key belongs to the leaf given by its hash and a digest
+ * is the XOR of the hashes of its present entries (key, value, version), so a change updates one
+ * path in constant time. Tombstones don't count, a node that already pruned one doesn't differ
+ * from a node that didn't.
+ * <p>
+ * Every connection starts with a handshake in which both nodes send their ids, a node whose id
+ * equals the peer's refuses to replicate with it: equal ids would make different changes look
+ * like the same version. The id is configured or derived from the bind address and port.
+ * <p>
+ * Only the hosts of the configured peers may connect, there is no other authentication: the
+ * replication port belongs on a trusted network.
+ *
+ * @author Michal Linhard
+ */
+public class Replicator implements WriteAheadLog.Versions {
+   private static final Logger log = Logger.getLogger(Replicator.class.getPackage().getName());
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   private static final int FANOUT_BITS = 4;
+   private static final int DEPTH = 3;
+   static final int LEAF_BITS = FANOUT_BITS * DEPTH;
+   /**
+    * Node ids take the low 16 bits of the versions.
+    */
+   static final int MAX_NODE_ID = 0xffff;
+   private static final int DELTAS = 1;
+   private static final int DIGEST = 2;
+   private static final int ENTRIES = 3;
+   private static final int HELLO = 4;
+   private static final int CONNECT_TIMEOUT = 1000;
+   private static final int READ_TIMEOUT = 10000;
+   private static final long RETRY_DELAY = 1000;
+   /**
+    * Milliseconds a tombstone is kept at least, and in anti-entropy intervals.
+    */
+   private static final long MIN_TOMBSTONE_AGE = 3600000;
+   private static final int TOMBSTONE_INTERVALS = 10;
+   /**
+    * Limits of what a peer may send, a message over them closes the connection.
+    */
+   private static final int MAX_STRING_BYTES = 1 << 24;
+   private static final int MAX_DELTAS = 1 << 24;
+
+   private final DictionaryService service;
+   private final InetSocketAddress bindAddress;
+   private final List<Peer> peers = new ArrayList<Peer>();
+   private final long window;
+   private final long antiEntropyInterval;
+   private final int nodeId;
+   private final AtomicLong clock = new AtomicLong();
+   /**
+    * Versions of the present and removed keys.
+    */
+   /**
+    * Hosts of the peers that sent the id of this node in the handshake.
+    */
+   private final Set<String> conflicts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+   private final ConcurrentMap<String, Stamp> stamps = new ConcurrentHashMap<String, Stamp>();
+   /**
+    * Digests by level, the root is level 0 and the leaves level {@link #DEPTH}.
+    */
+   private final AtomicLongArray[] tree = new AtomicLongArray[DEPTH + 1];
+   private final Object pendingLock = new Object();
+   private Map<String, Delta> pending = new LinkedHashMap<String, Delta>();
+   private final Set<Socket> connections = Collections.synchronizedSet(new HashSet<Socket>());
+   private volatile ServerSocket server;
+   private ScheduledExecutorService scheduler;
+   private ExecutorService handlers;
+   private final AtomicLong deltasSent = new AtomicLong();
+   private final AtomicLong deltasReceived = new AtomicLong();
+   private final AtomicLong syncs = new AtomicLong();
+   private final AtomicLong syncedEntries = new AtomicLong();
+   private final AtomicLong repairs = new AtomicLong();
+   private final AtomicLong pruned = new AtomicLong();
+
+   /**
+    * @param bind host:port the node listens on, also its identity
+    * @param peerList comma separated host:port of the other nodes
+    * @param nodeId 1 to {@link #MAX_NODE_ID}, unique among the peers, 0 to derive it from the bind
+    *           address
+    * @param window milliseconds the local changes are batched
+    * @param antiEntropyInterval seconds between the anti-entropy rounds
+    */
+   public Replicator(DictionaryService service, String bind, String peerList, int nodeId, long window,
+            long antiEntropyInterval) {
+      this.service = service;
+      this.bindAddress = parseAddress(bind);
+      this.window = Math.max(1, window);
+      this.antiEntropyInterval = Math.max(1, antiEntropyInterval);
+      if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+         throw new IllegalArgumentException("Invalid node id " + nodeId);
+      }
+      this.nodeId = nodeId == 0 ? deriveNodeId(bindAddress) : nodeId;
+      if (peerList != null) {
+         for (String peer : peerList.split(",")) {
+            if (peer.trim().length() > 0) {
+               InetSocketAddress address = parseAddress(peer.trim());
+               // the own address, possibly under another name
+               if (!address.equals(bindAddress)) {
+                  peers.add(new Peer(address));
+               }
+            }
+         }
+      }
+      for (int level = 0; level <= DEPTH; level++) {
+         tree[level] = new AtomicLongArray(1 << (FANOUT_BITS * level));
+      }
+   }
+
+   /**
+    * @throws IllegalArgumentException if the address isn't host:port
+    */
+   public static InetSocketAddress parseAddress(String address) {
+      int colon = address.lastIndexOf(':');
+      if (colon <= 0) {
+         throw new IllegalArgumentException("Expected host:port, got " + address);
+      }
+      try {
+         return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Expected host:port, got " + address);
+      }
+   }
+
+   /**
+    * Hashes the resolved address bytes and the port to 16 bits, the hostname if it isn't
+    * resolvable. 0 is never a node id, so that version 0 is below all the versions assigned to
+    * changes. Distinct addresses may still collide, the handshake detects that.
+    */
+   static int deriveNodeId(InetSocketAddress address) {
+      long h = 0xcbf29ce484222325L;
+      if (address.getAddress() != null) {
+         for (byte b : address.getAddress().getAddress()) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+         }
+      } else {
+         h = fnv(h, address.getHostName());
+      }
+      h = (h ^ address.getPort()) * 0x100000001b3L;
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      int id = (int) (h ^ (h >>> 16) ^ (h >>> 32) ^ (h >>> 48)) & MAX_NODE_ID;
+      return id == 0 ? 1 : id;
+   }
+
+   public void start() throws IOException {
+      final AtomicInteger count = new AtomicInteger();
+      final String name = "dictionary-replicator-" + bindAddress.getPort();
+      ThreadFactory threadFactory = new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+      ServerSocket newServer = new ServerSocket();
+      newServer.setReuseAddress(true);
+      newServer.bind(bindAddress);
+      server = newServer;
+      handlers = Executors.newCachedThreadPool(threadFactory);
+      handlers.execute(new Runnable() {
+         @Override
+         public void run() {
+            accept();
+         }
+      });
+      scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            flush();
+         }
+      }, window, window, TimeUnit.MILLISECONDS);
+      // right away, so that a rejoining node catches up before the first interval
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            antiEntropy();
+         }
+      }, 0, antiEntropyInterval, TimeUnit.SECONDS);
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            prune();
+         }
+      }, antiEntropyInterval, antiEntropyInterval, TimeUnit.SECONDS);
+      log.debugf("Replicating on %s to %d peers", bindAddress, peers.size());
+   }
+
+   public void close() {
+      if (scheduler != null) {
+         scheduler.shutdownNow();
+      }
+      try {
+         if (server != null) {
+            server.close();
+         }
+      } catch (IOException e) {
+         log.debug("Couldn't close replication socket", e);
+      }
+      synchronized (connections) {
+         for (Socket socket : connections) {
+            closeQuietly(socket);
+         }
+      }
+      for (Peer peer : peers) {
+         peer.close();
+      }
+      if (handlers != null) {
+         handlers.shutdownNow();
+      }
+   }
+
+   /**
+    * Versions a local change and queues it for the peers, the caller holds the key's lock.
+    *
+    * @param value new value, null for a removal
+    * @return version of the change
+    */
+   long stamp(String key, String value) {
+      long version = (clock.incrementAndGet() << 16) | nodeId;
+      restamp(key, value, version);
+      synchronized (pendingLock) {
+         pending.put(key, new Delta(key, value, version));
+      }
+      return version;
+   }
+
+   /**
+    * Records the version of an entry applied from a peer or present at the start, the caller
+    * holds the key's lock.
+    */
+   void restamp(String key, String value, long version) {
+      long hash = value == null ? 0 : entryHash(key, value, version);
+      Stamp old = stamps.put(key, new Stamp(version, hash, value == null, System.currentTimeMillis()));
+      update(key, old == null ? hash : hash ^ old.hash);
+      long time = version >>> 16;
+      long current = clock.get();
+      while (time > current && !clock.compareAndSet(current, time)) {
+         current = clock.get();
+      }
+   }
+
+   /**
+    * @param localValue current value of the key, the caller holds the key's lock
+    * @return whether a change from a peer wins over the local entry
+    */
+   boolean accepts(String key, String value, long version, String localValue) {
+      Stamp local = stamps.get(key);
+      if (local == null) {
+         // a removal of a key this node doesn't have would only bring back a pruned tombstone
+         return value != null || localValue != null;
+      }
+      if (version != local.version) {
+         return version > local.version;
+      }
+      if (value == null || localValue == null) {
+         // a present value wins over a removal
+         return value != null;
+      }
+      return value.compareTo(localValue) > 0;
+   }
+
+   Stamp getStamp(String key) {
+      return stamps.get(key);
+   }
+
+   @Override
+   public long getVersion(String key) {
+      Stamp stamp = stamps.get(key);
+      return stamp == null || stamp.removed ? 0 : stamp.version;
+   }
+
+   @Override
+   public Map<String, Long> getRemoved() {
+      Map<String, Long> removed = new HashMap<String, Long>();
+      for (Map.Entry<String, Stamp> entry : stamps.entrySet()) {
+         if (entry.getValue().removed) {
+            removed.put(entry.getKey(), entry.getValue().version);
+         }
+      }
+      return removed;
+   }
+
+   /**
+    * Forgets the tombstones older than {@link #TOMBSTONE_INTERVALS} anti-entropy intervals, at
+    * least {@link #MIN_TOMBSTONE_AGE}. By then the removal reached every peer that was up, a peer
+    * that was down longer may bring the entry back.
+    */
+   void prune() {
+      long oldest = System.currentTimeMillis() - Math.max(MIN_TOMBSTONE_AGE, TOMBSTONE_INTERVALS * antiEntropyInterval * 1000);
+      int count = 0;
+      for (Map.Entry<String, Stamp> entry : stamps.entrySet()) {
+         Stamp stamp = entry.getValue();
+         // a tombstone replaced meanwhile stays, tombstones aren't in the digests
+         if (stamp.removed && stamp.created < oldest && stamps.remove(entry.getKey(), stamp)) {
+            count++;
+         }
+      }
+      if (count > 0) {
+         pruned.addAndGet(count);
+         log.debugf("Pruned %d tombstones", count);
+      }
+   }
+
+   /**
+    * @return digest of all the entries, equal on nodes with equal entries
+    */
+   public long getDigest() {
+      return tree[0].get(0);
+   }
+
+   public String report() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("node: ").append(bindAddress).append(" (id ").append(nodeId).append(")\n");
+      for (Peer peer : peers) {
+         sb.append("peer: ").append(peer.address).append(peer.isConnected() ? " connected" : " disconnected").append("\n");
+      }
+      for (String host : conflicts) {
+         sb.append("node id conflict: ").append(host).append("\n");
+      }
+      sb.append("deltas sent: ").append(deltasSent.get()).append(", received: ").append(deltasReceived.get()).append("\n");
+      sb.append("anti-entropy rounds: ").append(syncs.get()).append(", entries exchanged: ").append(syncedEntries.get());
+      sb.append(", entries repaired: ").append(repairs.get()).append("\n");
+      sb.append("tombstones pruned: ").append(pruned.get()).append("\n");
+      sb.append(String.format("digest: %016x%n", getDigest()));
+      return sb.toString();
+   }
+
+   public long getDeltasSent() {
+      return deltasSent.get();
+   }
+
+   public long getDeltasReceived() {
+      return deltasReceived.get();
+   }
+
+   /**
+    * @return entries sent to or received from the peers by anti-entropy
+    */
+   public long getSyncedEntries() {
+      return syncedEntries.get();
+   }
+
+   /**
+    * @return entries that anti-entropy changed on this node
+    */
+   public long getRepairs() {
+      return repairs.get();
+   }
+
+   private void update(String key, long delta) {
+      int leaf = leafOf(key);
+      for (int level = DEPTH; level >= 0; level--) {
+         AtomicLongArray digests = tree[level];
+         int index = leaf >>> (FANOUT_BITS * (DEPTH - level));
+         long current;
+         do {
+            current = digests.get(index);
+         } while (!digests.compareAndSet(index, current, current ^ delta));
+      }
+   }
+
+   static int leafOf(String key) {
+      int h = key.hashCode() * 0x9E3779B9;
+      return h >>> (32 - LEAF_BITS);
+   }
+
+   static long entryHash(String key, String value, long version) {
+      long h = fnv(0xcbf29ce484222325L, key);
+      h = (h ^ version) * 0x100000001b3L;
+      h = fnv(h, value);
+      // final mix, so that similar entries don't cancel out in the XOR
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      return h ^ (h >>> 33);
+   }
+
+   private static long fnv(long h, String s) {
+      for (int i = 0; i < s.length(); i++) {
+         h = (h ^ s.charAt(i)) * 0x100000001b3L;
+      }
+      return (h ^ s.length()) * 0x100000001b3L;
+   }
+
+   private void flush() {
+      Map<String, Delta> batch;
+      synchronized (pendingLock) {
+         if (pending.isEmpty()) {
+            return;
+         }
+         batch = pending;
+         pending = new LinkedHashMap<String, Delta>();
+      }
+      for (Peer peer : peers) {
+         peer.send(batch.values());
+      }
+   }
+
+   private void accept() {
+      ServerSocket current = server;
+      while (!current.isClosed()) {
+         final Socket socket;
+         try {
+            socket = current.accept();
+         } catch (IOException e) {
+            if (!current.isClosed()) {
+               log.warn("Couldn't accept replication connection", e);
+            }
+            continue;
+         }
+         if (!isPeer(socket.getInetAddress())) {
+            log.warnf("Rejected replication connection from %s, not a configured peer", socket.getRemoteSocketAddress());
+            closeQuietly(socket);
+            continue;
+         }
+         connections.add(socket);
+         handlers.execute(new Runnable() {
+            @Override
+            public void run() {
+               serve(socket);
+            }
+         });
+      }
+   }
+
+   /**
+    * @return whether the address is the host of one of the peers, the port a peer connects from
+    *         isn't the one it listens on
+    */
+   private boolean isPeer(InetAddress address) {
+      for (Peer peer : peers) {
+         InetAddress peerAddress = peer.address.getAddress();
+         if (peerAddress == null) {
+            // wasn't resolvable when the replicator was created
+            try {
+               peerAddress = InetAddress.getByName(peer.address.getHostName());
+            } catch (UnknownHostException e) {
+               continue;
+            }
+         }
+         if (peerAddress.equals(address)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Handles the messages of a peer: delta batches, digest requests and leaf exchanges.
+    */
+   private void serve(Socket socket) {
+      try {
+         socket.setTcpNoDelay(true);
+         DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+         if (in.read() != HELLO) {
+            throw new IOException("Expected a handshake");
+         }
+         int peerId = in.readInt();
+         out.writeInt(nodeId);
+         out.flush();
+         if (!checkNodeId(socket, peerId)) {
+            return;
+         }
+         int type;
+         while ((type = in.read()) != -1) {
+            if (type == DELTAS) {
+               List<Delta> deltas = readDeltas(in);
+               deltasReceived.addAndGet(deltas.size());
+               for (Delta delta : deltas) {
+                  service.replicate(delta.key, delta.value, delta.version);
+               }
+            } else if (type == DIGEST) {
+               int level = in.readInt();
+               if (level < 0 || level > DEPTH) {
+                  throw new IOException("Invalid digest level " + level);
+               }
+               AtomicLongArray digests = tree[level];
+               int count = readCount(in, digests.length());
+               out.writeInt(count);
+               for (int i = 0; i < count; i++) {
+                  out.writeLong(digests.get(readIndex(in, digests.length())));
+               }
+               out.flush();
+            } else if (type == ENTRIES) {
+               BitSet leaves = readLeaves(in);
+               List<Delta> theirs = readDeltas(in);
+               List<Delta> mine = collect(leaves);
+               writeDeltas(out, mine);
+               out.flush();
+               applySynced(theirs);
+               syncedEntries.addAndGet(mine.size());
+            } else {
+               throw new IOException("Unknown replication message " + type);
+            }
+         }
+      } catch (IOException e) {
+         if (server != null && !server.isClosed()) {
+            log.debugf(e, "Replication connection from %s closed", socket.getRemoteSocketAddress());
+         }
+      } catch (RuntimeException e) {
+         log.warnf(e, "Replication connection from %s failed", socket.getRemoteSocketAddress());
+      } finally {
+         connections.remove(socket);
+         closeQuietly(socket);
+      }
+   }
+
+   private void antiEntropy() {
+      for (Peer peer : peers) {
+         try {
+            synchronize(peer.address);
+         } catch (IOException e) {
+            log.debugf("Anti-entropy with %s failed: %s", peer.address, e);
+         }
+      }
+   }
+
+   /**
+    * Finds the leaves whose digests differ from the peer's level by level and exchanges their
+    * entries, both sides keep the newer ones.
+    */
+   private void synchronize(InetSocketAddress address) throws IOException {
+      Socket socket = connect(address);
+      try {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+         handshake(socket, in, out);
+         int[] differing = { 0 };
+         for (int level = 0; level <= DEPTH; level++) {
+            int[] indices = differing;
+            if (level > 0) {
+               indices = new int[differing.length << FANOUT_BITS];
+               for (int i = 0; i < indices.length; i++) {
+                  indices[i] = (differing[i >>> FANOUT_BITS] << FANOUT_BITS) | (i & ((1 << FANOUT_BITS) - 1));
+               }
+            }
+            out.writeByte(DIGEST);
+            out.writeInt(level);
+            out.writeInt(indices.length);
+            for (int index : indices) {
+               out.writeInt(index);
+            }
+            out.flush();
+            if (in.readInt() != indices.length) {
+               throw new IOException("Unexpected digest response");
+            }
+            int count = 0;
+            int[] next = new int[indices.length];
+            for (int index : indices) {
+               if (in.readLong() != tree[level].get(index)) {
+                  next[count++] = index;
+               }
+            }
+            if (count == 0) {
+               return;
+            }
+            differing = new int[count];
+            System.arraycopy(next, 0, differing, 0, count);
+         }
+         BitSet leaves = new BitSet(1 << LEAF_BITS);
+         for (int leaf : differing) {
+            leaves.set(leaf);
+         }
+         List<Delta> mine = collect(leaves);
+         out.writeByte(ENTRIES);
+         out.writeInt(differing.length);
+         for (int leaf : differing) {
+            out.writeInt(leaf);
+         }
+         writeDeltas(out, mine);
+         out.flush();
+         List<Delta> theirs = readDeltas(in);
+         applySynced(theirs);
+         syncs.incrementAndGet();
+         syncedEntries.addAndGet(mine.size());
+         log.debugf("Anti-entropy with %s: %d differing leaves, %d entries sent, %d received", address, differing.length,
+                  mine.size(), theirs.size());
+      } finally {
+         closeQuietly(socket);
+      }
+   }
+
+   /**
+    * Sends the id of this node and checks the peer's.
+    *
+    * @throws IOException if the peer has the same id
+    */
+   private void handshake(Socket socket, DataInputStream in, DataOutputStream out) throws IOException {
+      out.writeByte(HELLO);
+      out.writeInt(nodeId);
+      out.flush();
+      if (!checkNodeId(socket, in.readInt())) {
+         throw new IOException("Peer " + socket.getRemoteSocketAddress() + " has the same node id " + nodeId);
+      }
+   }
+
+   /**
+    * Logs an error the first time a peer host turns out to have the id of this node.
+    *
+    * @return whether the peer's id differs
+    */
+   private boolean checkNodeId(Socket socket, int peerId) {
+      String host = socket.getInetAddress().getHostAddress();
+      if (peerId != nodeId) {
+         conflicts.remove(host);
+         return true;
+      }
+      if (conflicts.add(host)) {
+         log.errorf("Replication peer %s has the same node id %d as %s, not replicating with it, configure distinct %s",
+                  host, nodeId, bindAddress, DictionaryExtension.REPLICATION_NODE_ID);
+      }
+      return false;
+   }
+
+   private void applySynced(List<Delta> deltas) {
+      for (Delta delta : deltas) {
+         if (service.replicate(delta.key, delta.value, delta.version)) {
+            repairs.incrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * @return versioned entries of the keys in the leaves, including the removed ones
+    */
+   private List<Delta> collect(BitSet leaves) {
+      List<Delta> result = new ArrayList<Delta>();
+      for (String key : stamps.keySet()) {
+         if (leaves.get(leafOf(key))) {
+            Delta delta = service.readVersioned(key);
+            if (delta != null) {
+               result.add(delta);
+            }
+         }
+      }
+      return result;
+   }
+
+   private static Socket connect(InetSocketAddress address) throws IOException {
+      Socket socket = new Socket();
+      try {
+         socket.connect(address, CONNECT_TIMEOUT);
+         socket.setSoTimeout(READ_TIMEOUT);
+         socket.setTcpNoDelay(true);
+         return socket;
+      } catch (IOException e) {
+         closeQuietly(socket);
+         throw e;
+      }
+   }
+
+   private static void closeQuietly(Socket socket) {
+      try {
+         socket.close();
+      } catch (IOException e) {
+         // nothing to do
+      }
+   }
+
+   private static BitSet readLeaves(DataInputStream in) throws IOException {
+      int count = readCount(in, 1 << LEAF_BITS);
+      BitSet leaves = new BitSet(1 << LEAF_BITS);
+      for (int i = 0; i < count; i++) {
+         leaves.set(readIndex(in, 1 << LEAF_BITS));
+      }
+      return leaves;
+   }
+
+   /**
+    * @throws IOException if the count is negative or over the limit
+    */
+   private static int readCount(DataInputStream in, int limit) throws IOException {
+      int count = in.readInt();
+      if (count < 0 || count > limit) {
+         throw new IOException("Invalid count " + count);
+      }
+      return count;
+   }
+
+   /**
+    * @throws IOException if the index isn't below the limit
+    */
+   private static int readIndex(DataInputStream in, int limit) throws IOException {
+      int index = in.readInt();
+      if (index < 0 || index >= limit) {
+         throw new IOException("Invalid index " + index);
+      }
+      return index;
+   }
+
+   private static void writeDeltas(DataOutputStream out, Collection<Delta> deltas) throws IOException {
+      out.writeInt(deltas.size());
+      for (Delta delta : deltas) {
+         writeString(out, delta.key);
+         writeString(out, delta.value);
+         out.writeLong(delta.version);
+      }
+   }
+
+   private static List<Delta> readDeltas(DataInputStream in) throws IOException {
+      int count = readCount(in, MAX_DELTAS);
+      List<Delta> deltas = new ArrayList<Delta>(Math.min(count, 1 << 16));
+      for (int i = 0; i < count; i++) {
+         String key = readString(in);
+         if (key == null) {
+            throw new IOException("Delta without a key");
+         }
+         String value = readString(in);
+         deltas.add(new Delta(key, value, in.readLong()));
+      }
+      return deltas;
+   }
+
+   private static void writeString(DataOutputStream out, String s) throws IOException {
+      if (s == null) {
+         out.writeInt(-1);
+         return;
+      }
+      byte[] bytes = s.getBytes(UTF8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length == -1) {
+         return null;
+      }
+      if (length < 0 || length > MAX_STRING_BYTES) {
+         throw new IOException("Invalid string length " + length);
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, UTF8);
+   }
+
+   /**
+    * Version and hash of a present or removed key.
+    */
+   static final class Stamp {
+      final long version;
+      final long hash;
+      final boolean removed;
+      /**
+       * Time in milliseconds the stamp was recorded on this node.
+       */
+      final long created;
+
+      Stamp(long version, long hash, boolean removed, long created) {
+         this.version = version;
+         this.hash = hash;
+         this.removed = removed;
+         this.created = created;
+      }
+   }
+
+   /**
+    * Versioned change, a null value is a removal.
+    */
+   static final class Delta {
+      final String key;
+      final String value;
+      final long version;
+
+      Delta(String key, String value, long version) {
+         this.key = key;
+         this.value = value;
+         this.version = version;
+      }
+   }
+
+   /**
+    * Connection for the delta batches, reconnected on the next batch after a failure.
+    */
+   private class Peer {
+      private final InetSocketAddress address;
+      private Socket socket;
+      private DataOutputStream out;
+      private long retryAt;
+
+      Peer(InetSocketAddress address) {
+         this.address = address;
+      }
+
+      synchronized boolean isConnected() {
+         return socket != null;
+      }
+
+      synchronized void send(Collection<Delta> deltas) {
+         if (socket == null) {
+            if (System.currentTimeMillis() < retryAt) {
+               return;
+            }
+            try {
+               socket = connect(address);
+               out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+               handshake(socket, new DataInputStream(new BufferedInputStream(socket.getInputStream())), out);
+            } catch (IOException e) {
+               // anti-entropy repairs what the peer misses meanwhile
+               retryAt = System.currentTimeMillis() + RETRY_DELAY;
+               close();
+               return;
+            }
+         }
+         try {
+            out.writeByte(DELTAS);
+            writeDeltas(out, deltas);
+            out.flush();
+            deltasSent.addAndGet(deltas.size());
+         } catch (IOException e) {
+            log.debugf("Replication to %s failed: %s", address, e);
+            close();
+            retryAt = System.currentTimeMillis() + RETRY_DELAY;
+         }
+      }
+
+      synchronized void close() {
+         if (socket != null) {
+            closeQuietly(socket);
+            socket = null;
+            out = null;
+         }
+      }
+   }
+
+}
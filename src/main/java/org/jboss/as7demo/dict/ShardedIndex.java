@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Index split into shards by key hash, each a sorted segment of its own. Writers of different keys
+ * mostly touch different skip lists, ordered iteration merges the shards, which makes it slower
+ * than a single {@link SkipListIndex}.
+ *
+ * @author Michal Linhard
+ */
+public class ShardedIndex implements DictionaryIndex {
+
+   private final ConcurrentSkipListSet<String>[] shards;
+
+   @SuppressWarnings({ "unchecked", "rawtypes" })
+   public ShardedIndex(int shardCount) {
+      if (shardCount <= 0) {
+         throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+      }
+      shards = new ConcurrentSkipListSet[shardCount];
+      for (int i = 0; i < shardCount; i++) {
+         shards[i] = new ConcurrentSkipListSet<String>();
+      }
+   }
+
+   @Override
+   public void insert(String key) {
+      shardOf(key).add(key);
+   }
+
+   @Override
+   public void delete(String key) {
+      shardOf(key).remove(key);
+   }
+
+   @Override
+   public Iterator<String> keys(String from, boolean inclusive) {
+      if (shards.length == 1) {
+         return shardKeys(0, from, inclusive);
+      }
+      List<Iterator<String>> sources = new ArrayList<Iterator<String>>(shards.length);
+      for (int i = 0; i < shards.length; i++) {
+         sources.add(shardKeys(i, from, inclusive));
+      }
+      return new MergingIterator(sources);
+   }
+
+   @Override
+   public long getMemoryFootprint(boolean sharedKeys) {
+      long bytes = 0;
+      for (ConcurrentSkipListSet<String> shard : shards) {
+         bytes += SkipListIndex.estimateFootprint(shard, sharedKeys);
+      }
+      return bytes;
+   }
+
+   public int getShardCount() {
+      return shards.length;
+   }
+
+   /**
+    * @return ascending iterator over the keys of one shard
+    */
+   private Iterator<String> shardKeys(int shard, String from, boolean inclusive) {
+      ConcurrentSkipListSet<String> keys = shards[shard];
+      return from == null ? keys.iterator() : keys.tailSet(from, inclusive).iterator();
+   }
+
+   private ConcurrentSkipListSet<String> shardOf(String key) {
+      int h = key.hashCode();
+      h ^= (h >>> 16);
+      h *= 0x9e3779b9;
+      return shards[(h >>> 1) % shards.length];
+   }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Lock-free skip list index.
+ *
+ * @author Michal Linhard
+ */
+public class SkipListIndex implements DictionaryIndex {
+   /**
+    * Estimated heap cost of a key in the skip list: the base level node and a quarter of the
+    * index nodes above it on average.
+    */
+   static final int KEY_OVERHEAD = 24 + 8;
+
+   private final ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<String>();
+
+   @Override
+   public void insert(String key) {
+      keys.add(key);
+   }
+
+   @Override
+   public void delete(String key) {
+      keys.remove(key);
+   }
+
+   @Override
+   public Iterator<String> keys(String from, boolean inclusive) {
+      return from == null ? keys.iterator() : keys.tailSet(from, inclusive).iterator();
+   }
+
+   @Override
+   public long getMemoryFootprint(boolean sharedKeys) {
+      return estimateFootprint(keys, sharedKeys);
+   }
+
+   static long estimateFootprint(Iterable<String> keys, boolean sharedKeys) {
+      long bytes = 0;
+      for (String key : keys) {
+         bytes += sharedKeys ? KEY_OVERHEAD : KEY_OVERHEAD + MapStore.STRING_OVERHEAD + 2L * key.length();
+      }
+      return bytes;
+   }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Copy-on-write store, readers dereference an immutable {@link Table} through a single volatile
+ * reference and take no locks. Every write publishes a new table, so a write costs O(n) and
+ * writes are meant to be rare or batched with {@link #apply(Map)}. Concurrent puts and removes
+ * are queued and whichever writer gets the store's lock first publishes all of them in one new
+ * table, so n writers arriving together pay for a single copy.
+ * <p>
+ * The table keeps the keys sorted, so the store is also its own {@link DictionaryIndex} and an
+ * ordered scan sees a single version of the dictionary.
+ *
+ * @author Michal Linhard
+ */
+public class SnapshotStore implements DictionaryStore, DictionaryIndex {
+   private static final String[] NO_STRINGS = new String[0];
+
+   private volatile Table table = new Table(NO_STRINGS, NO_STRINGS, 0, 0);
+   private final Queue<Change> pending = new ConcurrentLinkedQueue<Change>();
+
+   /**
+    * @return current version of the dictionary, consistent for any number of lookups
+    */
+   public Table getTable() {
+      return table;
+   }
+
+   @Override
+   public String get(String key) {
+      return table.get(key);
+   }
+
+   @Override
+   public boolean put(String key, String value) {
+      return write(new Change(key, value));
+   }
+
+   @Override
+   public boolean remove(String key) {
+      return write(new Change(key, null));
+   }
+
+   /**
+    * Queues the change and waits until it's published, by this thread or by the one that drains
+    * the queue first.
+    *
+    * @return whether the change added or removed the key
+    */
+   private boolean write(Change change) {
+      pending.add(change);
+      synchronized (this) {
+         if (!change.done) {
+            combine();
+         }
+      }
+      return change.changed;
+   }
+
+   /**
+    * Publishes the queued changes, a single one without the merge of {@link #apply(Map)}.
+    */
+   private void combine() {
+      Change first = pending.poll();
+      Change second = pending.poll();
+      if (second == null) {
+         first.changed = first.value != null ? putOne(first.key, first.value) : removeOne(first.key);
+         first.done = true;
+         return;
+      }
+      Table current = table;
+      Map<String, String> changes = new HashMap<String, String>();
+      merge(first, changes, current);
+      merge(second, changes, current);
+      for (Change change = pending.poll(); change != null; change = pending.poll()) {
+         merge(change, changes, current);
+      }
+      if (!changes.isEmpty()) {
+         apply(changes);
+      }
+   }
+
+   private static void merge(Change change, Map<String, String> changes, Table current) {
+      boolean present = changes.containsKey(change.key) ? changes.get(change.key) != null : current.get(change.key) != null;
+      change.changed = change.value != null ? !present : present;
+      if (change.value != null || present) {
+         changes.put(change.key, change.value);
+      }
+      change.done = true;
+   }
+
+   private boolean putOne(String key, String value) {
+      Table current = table;
+      int i = Arrays.binarySearch(current.keys, key);
+      if (i >= 0) {
+         String[] values = current.values.clone();
+         long payload = current.payload - values[i].length() + value.length();
+         values[i] = value;
+         table = new Table(current, values, payload);
+         return false;
+      }
+      int at = -i - 1;
+      int n = current.keys.length;
+      String[] keys = new String[n + 1];
+      String[] values = new String[n + 1];
+      System.arraycopy(current.keys, 0, keys, 0, at);
+      System.arraycopy(current.values, 0, values, 0, at);
+      keys[at] = key;
+      values[at] = value;
+      System.arraycopy(current.keys, at, keys, at + 1, n - at);
+      System.arraycopy(current.values, at, values, at + 1, n - at);
+      table = new Table(keys, values, current.payload + key.length() + value.length(), current.version + 1);
+      return true;
+   }
+
+   private boolean removeOne(String key) {
+      Table current = table;
+      int at = Arrays.binarySearch(current.keys, key);
+      if (at < 0) {
+         return false;
+      }
+      int n = current.keys.length;
+      String[] keys = new String[n - 1];
+      String[] values = new String[n - 1];
+      System.arraycopy(current.keys, 0, keys, 0, at);
+      System.arraycopy(current.values, 0, values, 0, at);
+      System.arraycopy(current.keys, at + 1, keys, at, n - at - 1);
+      System.arraycopy(current.values, at + 1, values, at, n - at - 1);
+      long payload = current.payload - key.length() - current.values[at].length();
+      table = new Table(keys, values, payload, current.version + 1);
+      return true;
+   }
+
+   /**
+    * Applies a batch of changes as a single new version.
+    *
+    * @param changes new values by key, null values remove the key
+    */
+   public synchronized void apply(Map<String, String> changes) {
+      Table current = table;
+      String[] changed = changes.keySet().toArray(new String[changes.size()]);
+      Arrays.sort(changed);
+      int capacity = current.keys.length + changed.length;
+      String[] keys = new String[capacity];
+      String[] values = new String[capacity];
+      int n = 0;
+      long payload = 0;
+      int i = 0;
+      int j = 0;
+      while (i < current.keys.length || j < changed.length) {
+         int cmp = i == current.keys.length ? 1 : j == changed.length ? -1 : current.keys[i].compareTo(changed[j]);
+         String key;
+         String value;
+         if (cmp < 0) {
+            key = current.keys[i];
+            value = current.values[i++];
+         } else {
+            key = changed[j++];
+            value = changes.get(key);
+            if (cmp == 0) {
+               i++;
+            }
+         }
+         if (value != null) {
+            keys[n] = key;
+            values[n++] = value;
+            payload += key.length() + value.length();
+         }
+      }
+      table = new Table(Arrays.copyOf(keys, n), Arrays.copyOf(values, n), payload, current.version + 1);
+   }
+
+   @Override
+   public int size() {
+      return table.size();
+   }
+
+   @Override
+   public Iterator<String> keys() {
+      return table.keys(null, true);
+   }
+
+   @Override
+   public long getPayloadSize() {
+      return table.payload;
+   }
+
+   @Override
+   public long getMemoryFootprint() {
+      Table current = table;
+      int n = current.keys.length;
+      // two strings and two array references per entry, the hash slots
+      return n * (2L * (24 + 16) + 2 * 4) + 2 * current.payload + 4L * current.slots.length;
+   }
+
+   /**
+    * The table is maintained by the writes of the store.
+    */
+   @Override
+   public void insert(String key) {
+   }
+
+   @Override
+   public void delete(String key) {
+   }
+
+   @Override
+   public Iterator<String> keys(String from, boolean inclusive) {
+      return table.keys(from, inclusive);
+   }
+
+   /**
+    * The sorted table is the store itself, its footprint is already counted by
+    * {@link #getMemoryFootprint()}.
+    */
+   @Override
+   public long getMemoryFootprint(boolean sharedKeys) {
+      return 0;
+   }
+
+   /**
+    * Queued put or remove, its outcome is set by the writer that publishes it, under the store's
+    * lock.
+    */
+   private static final class Change {
+      final String key;
+      /** null for a removal */
+      final String value;
+      boolean changed;
+      boolean done;
+
+      Change(String key, String value) {
+         this.key = key;
+         this.value = value;
+      }
+   }
+
+   /**
+    * Immutable version of the dictionary: sorted keys and values, and an open addressing hash
+    * table of positions for the lookups.
+    */
+   public static final class Table {
+      private final String[] keys;
+      private final String[] values;
+      /**
+       * Position + 1 of the key, 0 for an empty slot.
+       */
+      private final int[] slots;
+      private final long payload;
+      private final long version;
+
+      Table(String[] keys, String[] values, long payload, long version) {
+         this.keys = keys;
+         this.values = values;
+         this.payload = payload;
+         this.version = version;
+         this.slots = new int[Math.max(2, Integer.highestOneBit(Math.max(1, keys.length) * 2 - 1) * 2)];
+         int mask = slots.length - 1;
+         for (int i = 0; i < keys.length; i++) {
+            int slot = spread(keys[i].hashCode()) & mask;
+            while (slots[slot] != 0) {
+               slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+         }
+      }
+
+      /**
+       * Same keys with new values, the hash slots are shared.
+       */
+      Table(Table table, String[] values, long payload) {
+         this.keys = table.keys;
+         this.values = values;
+         this.slots = table.slots;
+         this.payload = payload;
+         this.version = table.version + 1;
+      }
+
+      public String get(String key) {
+         int mask = slots.length - 1;
+         int slot = spread(key.hashCode()) & mask;
+         int position;
+         while ((position = slots[slot]) != 0) {
+            if (keys[position - 1].equals(key)) {
+               return values[position - 1];
+            }
+            slot = (slot + 1) & mask;
+         }
+         return null;
+      }
+
+      /**
+       * @return version number, increased by every write
+       */
+      public long getVersion() {
+         return version;
+      }
+
+      public int size() {
+         return keys.length;
+      }
+
+      /**
+       * @param from lower bound, null to iterate all keys
+       * @param inclusive whether the lower bound itself is returned
+       * @return ascending iterator over the keys of this version
+       */
+      public Iterator<String> keys(String from, boolean inclusive) {
+         int start = 0;
+         if (from != null) {
+            int i = Arrays.binarySearch(keys, from);
+            start = i >= 0 ? (inclusive ? i : i + 1) : -i - 1;
+         }
+         final int first = start;
+         return new Iterator<String>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+               return next < keys.length;
+            }
+
+            @Override
+            public String next() {
+               if (next >= keys.length) {
+                  throw new NoSuchElementException();
+               }
+               return keys[next++];
+            }
+
+            @Override
+            public void remove() {
+               throw new UnsupportedOperationException();
+            }
+         };
+      }
+
+      private static int spread(int h) {
+         return h ^ (h >>> 16);
+      }
+   }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Index that keeps nothing and orders the keys of the store on every ordered query. Saves the
+ * memory of a real index for stores that are rarely scanned. The matching keys are heapified
+ * and taken off the heap as the iterator advances, so a page of {@code limit} keys costs
+ * O(n + limit log n) rather than a full sort, still every page walks the whole store.
+ *
+ * @author Michal Linhard
+ */
+public class SortingIndex implements DictionaryIndex {
+
+   private final DictionaryStore store;
+
+   public SortingIndex(DictionaryStore store) {
+      this.store = store;
+   }
+
+   @Override
+   public void insert(String key) {
+   }
+
+   @Override
+   public void delete(String key) {
+   }
+
+   @Override
+   public Iterator<String> keys(String from, boolean inclusive) {
+      List<String> keys = new ArrayList<String>();
+      Iterator<String> all = store.keys();
+      while (all.hasNext()) {
+         String key = all.next();
+         int cmp = from == null ? 1 : key.compareTo(from);
+         if (cmp > 0 || (inclusive && cmp == 0)) {
+            keys.add(key);
+         }
+      }
+      final PriorityQueue<String> heap = new PriorityQueue<String>(keys);
+      return new Iterator<String>() {
+         @Override
+         public boolean hasNext() {
+            return !heap.isEmpty();
+         }
+
+         @Override
+         public String next() {
+            if (heap.isEmpty()) {
+               throw new NoSuchElementException();
+            }
+            return heap.poll();
+         }
+
+         @Override
+         public void remove() {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+
+   @Override
+   public long getMemoryFootprint(boolean sharedKeys) {
+      return 0;
+   }
+
+}
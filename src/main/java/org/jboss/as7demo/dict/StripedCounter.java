@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for frequently updated statistics. Threads add to one of several padded cells chosen by
+ * the thread id, so concurrent updates rarely touch the same cache line. Reading the sum is
+ * relatively expensive and not atomic with respect to the updates.
+ *
+ * @author Michal Linhard
+ */
+public class StripedCounter {
+   /**
+    * Longs between two cells, 64 bytes apart.
+    */
+   private static final int PADDING = 8;
+   static final int STRIPES = stripes();
+
+   private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+   public void increment() {
+      cells.getAndIncrement(stripe() * PADDING);
+   }
+
+   public void add(long x) {
+      cells.getAndAdd(stripe() * PADDING, x);
+   }
+
+   public long sum() {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; i++) {
+         sum += cells.get(i * PADDING);
+      }
+      return sum;
+   }
+
+   /**
+    * @return stripe of the current thread, 0 to STRIPES - 1
+    */
+   static int stripe() {
+      long id = Thread.currentThread().getId();
+      return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+   }
+
+   private static int stripes() {
+      int processors = Runtime.getRuntime().availableProcessors();
+      return Math.min(64, Integer.highestOneBit(processors * 2 - 1));
+   }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of items with deadlines, scheduling and advancing are O(1) per item
+ * however many items are waiting. Four levels of 64 slots cover 64^4 ticks, each level spanning
+ * 64 slots of the level below, items further away wait in the top level. An item moves down a
+ * level when the slot it waits in comes round, so an item within the span is placed at most four times.
+ * <p>
+ * Items are never collected before their deadline and at most one tick after it, provided
+ * {@link #advance} is called once a tick. An item can't be cancelled, the owner ignores the
+ * collected items that are no longer due. Thread safe.
+ *
+ * @author Michal Linhard
+ */
+public class TimingWheel<T> {
+   private static final int SLOT_BITS = 6;
+   private static final int SLOTS = 1 << SLOT_BITS;
+   private static final int LEVELS = 4;
+
+   private final long tickMillis;
+   private final Bucket[][] wheels = new Bucket[LEVELS][SLOTS];
+   /**
+    * Next tick to advance over.
+    */
+   private long tick;
+   private int size;
+
+   /**
+    * @param tickMillis milliseconds per tick
+    * @param now current time in milliseconds
+    */
+   public TimingWheel(long tickMillis, long now) {
+      if (tickMillis <= 0) {
+         throw new IllegalArgumentException("Tick must be positive: " + tickMillis);
+      }
+      this.tickMillis = tickMillis;
+      this.tick = now / tickMillis;
+      for (Bucket[] wheel : wheels) {
+         for (int i = 0; i < SLOTS; i++) {
+            wheel[i] = new Bucket();
+         }
+      }
+   }
+
+   public long getTickMillis() {
+      return tickMillis;
+   }
+
+   /**
+    * @param deadline time in milliseconds the item is due at
+    */
+   public synchronized void schedule(T item, long deadline) {
+      place(item, deadline);
+      size++;
+   }
+
+   /**
+    * Advances the wheel to the time and collects the items that are due by then.
+    *
+    * @param now current time in milliseconds
+    * @param due receives the due items
+    * @return number of the collected items
+    */
+   @SuppressWarnings("unchecked")
+   public synchronized int advance(long now, List<? super T> due) {
+      long last = now / tickMillis;
+      int collected = 0;
+      while (tick <= last) {
+         // the higher levels first, their items may land in a slot of a lower level cascaded at the same tick
+         for (int level = LEVELS - 1; level > 0; level--) {
+            if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+               Bucket bucket = wheels[level][slot(tick, level)];
+               Object[] items = bucket.items;
+               long[] deadlines = bucket.deadlines;
+               int count = bucket.size;
+               bucket.clear();
+               for (int i = 0; i < count; i++) {
+                  place(items[i], deadlines[i]);
+               }
+            }
+         }
+         Bucket bucket = wheels[0][slot(tick, 0)];
+         for (int i = 0; i < bucket.size; i++) {
+            due.add((T) bucket.items[i]);
+         }
+         collected += bucket.size;
+         bucket.clear();
+         tick++;
+      }
+      size -= collected;
+      return collected;
+   }
+
+   /**
+    * @return number of the scheduled items not collected yet
+    */
+   public synchronized int size() {
+      return size;
+   }
+
+   private void place(Object item, long deadline) {
+      // rounded up, an item is never collected before its deadline
+      long dueTick = Math.max(tick, deadline / tickMillis + (deadline % tickMillis == 0 ? 0 : 1));
+      long delta = dueTick - tick;
+      int level = 0;
+      while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+         level++;
+      }
+      if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+         // beyond the span of the wheel, placed again once its slot in the top level comes round
+         dueTick = tick + (1L << (SLOT_BITS * LEVELS)) - 1;
+      }
+      wheels[level][slot(dueTick, level)].add(item, deadline);
+   }
+
+   private static int slot(long tick, int level) {
+      return (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+   }
+
+   /**
+    * Items of one slot with their deadlines, in plain arrays to keep millions of them cheap.
+    */
+   private static final class Bucket {
+      private static final Object[] NO_ITEMS = new Object[0];
+      private static final long[] NO_DEADLINES = new long[0];
+
+      Object[] items = NO_ITEMS;
+      long[] deadlines = NO_DEADLINES;
+      int size;
+
+      void add(Object item, long deadline) {
+         if (size == items.length) {
+            int capacity = Math.max(8, size * 2);
+            Object[] newItems = new Object[capacity];
+            long[] newDeadlines = new long[capacity];
+            System.arraycopy(items, 0, newItems, 0, size);
+            System.arraycopy(deadlines, 0, newDeadlines, 0, size);
+            items = newItems;
+            deadlines = newDeadlines;
+         }
+         items[size] = item;
+         deadlines[size] = deadline;
+         size++;
+      }
+
+      void clear() {
+         items = NO_ITEMS;
+         deadlines = NO_DEADLINES;
+         size = 0;
+      }
+   }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * W-TinyLFU style eviction. New entries go to a small LRU window, entries leaving the window
+ * compete with the eviction victim of the main segmented LRU (probation and protected areas)
+ * and are only admitted if their estimated access frequency is higher. The frequencies come from
+ * a count-min sketch that is periodically halved so that old popularity fades.
+ * <p>
+ * The cache is split into independently locked segments.
+ *
+ * @author Michal Linhard
+ */
+public class TinyLfuCache implements DictionaryCache {
+   private static final int SEGMENTS = 16;
+
+   private final Segment[] segments = new Segment[SEGMENTS];
+   private final AtomicLong evictions = new AtomicLong();
+
+   public TinyLfuCache(int capacity) {
+      int segmentCapacity = Math.max(3, capacity / SEGMENTS);
+      for (int i = 0; i < segments.length; i++) {
+         segments[i] = new Segment(segmentCapacity);
+      }
+   }
+
+   @Override
+   public String get(String key) {
+      return segmentFor(key).get(key);
+   }
+
+   @Override
+   public void put(String key, String value) {
+      segmentFor(key).put(key, value);
+   }
+
+   @Override
+   public void invalidate(String key) {
+      segmentFor(key).invalidate(key);
+   }
+
+   @Override
+   public int size() {
+      int size = 0;
+      for (Segment segment : segments) {
+         size += segment.size();
+      }
+      return size;
+   }
+
+   @Override
+   public long getEvictions() {
+      return evictions.get();
+   }
+
+   private static int hash(String key) {
+      int h = key.hashCode();
+      return h ^ (h >>> 16);
+   }
+
+   private Segment segmentFor(String key) {
+      return segments[hash(key) & (SEGMENTS - 1)];
+   }
+
+   private final class Segment {
+      private final int windowCapacity;
+      private final int mainCapacity;
+      private final int protectedCapacity;
+      private final Map<String, String> window = new LinkedHashMap<String, String>(16, 0.75f, true);
+      private final Map<String, String> probation = new LinkedHashMap<String, String>(16, 0.75f, true);
+      private final Map<String, String> protectedArea = new LinkedHashMap<String, String>(16, 0.75f, true);
+      private final FrequencySketch sketch;
+
+      Segment(int capacity) {
+         windowCapacity = Math.max(1, capacity / 100);
+         mainCapacity = capacity - windowCapacity;
+         protectedCapacity = Math.max(1, mainCapacity * 8 / 10);
+         sketch = new FrequencySketch(capacity);
+      }
+
+      synchronized String get(String key) {
+         sketch.increment(key);
+         String value = window.get(key);
+         if (value != null) {
+            return value;
+         }
+         value = probation.remove(key);
+         if (value != null) {
+            protectedArea.put(key, value);
+            if (protectedArea.size() > protectedCapacity) {
+               Map.Entry<String, String> demoted = removeEldest(protectedArea);
+               probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return value;
+         }
+         return protectedArea.get(key);
+      }
+
+      synchronized void put(String key, String value) {
+         if (window.containsKey(key)) {
+            window.put(key, value);
+         } else if (probation.containsKey(key)) {
+            probation.put(key, value);
+         } else if (protectedArea.containsKey(key)) {
+            protectedArea.put(key, value);
+         } else {
+            window.put(key, value);
+            if (window.size() > windowCapacity) {
+               Map.Entry<String, String> candidate = removeEldest(window);
+               admit(candidate.getKey(), candidate.getValue());
+            }
+         }
+      }
+
+      synchronized void invalidate(String key) {
+         if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedArea.remove(key);
+         }
+      }
+
+      synchronized int size() {
+         return window.size() + probation.size() + protectedArea.size();
+      }
+
+      private void admit(String key, String value) {
+         if (probation.size() + protectedArea.size() < mainCapacity) {
+            probation.put(key, value);
+            return;
+         }
+         Map<String, String> victimArea = probation.isEmpty() ? protectedArea : probation;
+         String victim = victimArea.keySet().iterator().next();
+         if (sketch.frequency(key) > sketch.frequency(victim)) {
+            victimArea.remove(victim);
+            probation.put(key, value);
+         }
+         evictions.incrementAndGet();
+      }
+
+      private Map.Entry<String, String> removeEldest(Map<String, String> area) {
+         Iterator<Map.Entry<String, String>> i = area.entrySet().iterator();
+         Map.Entry<String, String> eldest = i.next();
+         Map.Entry<String, String> result = new AbstractMap.SimpleImmutableEntry<String, String>(eldest);
+         i.remove();
+         return result;
+      }
+   }
+
+   /**
+    * Count-min sketch with four rows of saturating counters.
+    */
+   private static final class FrequencySketch {
+      private static final int[] SEEDS = { 0x9e3779b1, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+      private static final int MAX_COUNT = 15;
+
+      private final byte[][] table = new byte[SEEDS.length][];
+      private final int mask;
+      private final int sampleSize;
+      private int additions;
+
+      FrequencySketch(int capacity) {
+         int width = Integer.highestOneBit(Math.max(64, capacity) - 1) << 1;
+         for (int i = 0; i < table.length; i++) {
+            table[i] = new byte[width];
+         }
+         mask = width - 1;
+         sampleSize = 10 * width;
+      }
+
+      void increment(String key) {
+         int hash = hash(key);
+         for (int i = 0; i < table.length; i++) {
+            int index = index(hash, i);
+            if (table[i][index] < MAX_COUNT) {
+               table[i][index]++;
+            }
+         }
+         if (++additions == sampleSize) {
+            age();
+         }
+      }
+
+      int frequency(String key) {
+         int hash = hash(key);
+         int frequency = MAX_COUNT;
+         for (int i = 0; i < table.length; i++) {
+            frequency = Math.min(frequency, table[i][index(hash, i)]);
+         }
+         return frequency;
+      }
+
+      private int index(int hash, int row) {
+         int h = hash * SEEDS[row];
+         return (h ^ (h >>> 15)) & mask;
+      }
+
+      private void age() {
+         for (byte[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+               row[i] >>= 1;
+            }
+         }
+         additions /= 2;
+      }
+   }
+
+}
@@ -0,0 +1,554 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as7demo.dict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Append-only journal of the dictionary changes with periodic snapshots.
+ * <p>
+ * The journal directory holds <code>snapshot-N.dat</code>, the complete content of the
+ * dictionary at the moment log generation N was started, and <code>wal-N.log</code> files with
+ * the changes made since. Both contain the same records: CRC32 int, payload length int, payload
+ * (operation byte, key length int, UTF-8 key, value length int, UTF-8 value, for an entry with a
+ * deadline followed by the deadline long, for a replicated change followed by its version long).
+ * With {@link Versions} the snapshots also keep the versions and the removals replication still
+ * remembers. Recovery loads the newest snapshot and replays the logs of the same or later
+ * generations, a torn record at the end of a log is ignored.
+ * <p>
+ * Writers call {@link #beginWrite()}, apply the change in memory, {@link #append} it and call
+ * {@link #endWrite()}, so that a snapshot never misses a change that went into an older log.
+ * {@link #sync(long)} then waits for the change to become durable according to the
+ * {@link Durability}.
+ *
+ * @author Michal Linhard
+ */
+public class WriteAheadLog {
+   private static final Logger log = Logger.getLogger(WriteAheadLog.class.getPackage().getName());
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   private static final Pattern FILE_NAME = Pattern.compile("(snapshot|wal)-(\\d+)\\.(dat|log)");
+   private static final byte PUT = 1;
+   private static final byte REMOVE = 2;
+   private static final byte PUT_EXPIRING = 3;
+   /**
+    * Flag of the operation byte of a record that ends with a replication version.
+    */
+   private static final byte VERSIONED = 0x10;
+   private static final long ASYNC_FLUSH_MILLIS = 1000;
+   /**
+    * FileChannel.open(Path, OpenOption...) of the Java 7 file API that opens the journal
+    * directory for {@link #syncDirectory(File)}, null on Java 6.
+    */
+   private static final Method OPEN;
+   /** File.toPath() */
+   private static final Method TO_PATH;
+   /** { StandardOpenOption.READ } */
+   private static final Object READ_OPTIONS;
+
+   static {
+      Method open = null;
+      Method toPath = null;
+      Object options = null;
+      try {
+         Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+         options = Array.newInstance(optionClass, 1);
+         Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+         open = FileChannel.class.getMethod("open", Class.forName("java.nio.file.Path"), options.getClass());
+         toPath = File.class.getMethod("toPath");
+      } catch (Exception e) {
+         // Java 6
+         open = null;
+      }
+      OPEN = open;
+      TO_PATH = toPath;
+      READ_OPTIONS = options;
+   }
+
+   public enum Durability {
+      /** every change is forced to disk before the write returns */
+      SYNC,
+      /** concurrent writers share one force */
+      GROUP_COMMIT,
+      /** the log is forced in the background once a second */
+      ASYNC;
+
+      public String getName() {
+         return name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+      }
+
+      public static Durability forName(String name) {
+         return valueOf(name.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+      }
+   }
+
+   /**
+    * Receives the recovered changes, a null value stands for a removal.
+    */
+   public interface Replay {
+      /**
+       * @param deadline time in milliseconds the entry expires at, 0 if it doesn't
+       * @param version replication version of the change, 0 if it has none
+       */
+      void apply(String key, String value, long deadline, long version);
+   }
+
+   /**
+    * Replication versions the snapshots keep along with the entries.
+    */
+   public interface Versions {
+      /**
+       * @return version of the present key, 0 if it has none
+       */
+      long getVersion(String key);
+
+      /**
+       * @return versions of the removed keys that are still remembered
+       */
+      Map<String, Long> getRemoved();
+   }
+
+   private final File directory;
+   private final Durability durability;
+   private final long snapshotInterval;
+   private final DictionaryStore store;
+   private final Map<String, Long> deadlines;
+   private final ReadWriteLock rotationLock = new ReentrantReadWriteLock();
+   private final Object appendLock = new Object();
+   private final Object forceLock = new Object();
+   private final Object snapshotLock = new Object();
+   private FileChannel channel;
+   private long generation;
+   private volatile long written;
+   private long synced;
+   /**
+    * Sequence number at the start of the current generation.
+    */
+   private volatile long snapshotted;
+   private ScheduledExecutorService scheduler;
+   private volatile Versions versions;
+
+   /**
+    * @param snapshotInterval seconds between snapshots, 0 disables the periodic snapshots
+    * @param store store the snapshots are taken from
+    */
+   public WriteAheadLog(File directory, Durability durability, long snapshotInterval, DictionaryStore store) {
+      this(directory, durability, snapshotInterval, store, Collections.<String, Long> emptyMap());
+   }
+
+   /**
+    * @param deadlines expiration times of the entries of the store that have one, in milliseconds
+    */
+   public WriteAheadLog(File directory, Durability durability, long snapshotInterval, DictionaryStore store, Map<String, Long> deadlines) {
+      this.directory = directory;
+      this.durability = durability;
+      this.snapshotInterval = snapshotInterval;
+      this.store = store;
+      this.deadlines = deadlines;
+   }
+
+   public Durability getDurability() {
+      return durability;
+   }
+
+   /**
+    * @param versions versions the snapshots keep, null for none
+    */
+   public void setVersions(Versions versions) {
+      this.versions = versions;
+   }
+
+   /**
+    * Replays the newest snapshot and the logs written after it.
+    *
+    * @return false if the journal is empty
+    */
+   public boolean recover(Replay replay) throws IOException {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         throw new IOException("Couldn't create journal directory " + directory);
+      }
+      SortedMap<Long, File> snapshots = new TreeMap<Long, File>();
+      SortedMap<Long, File> logs = new TreeMap<Long, File>();
+      for (File file : directory.listFiles()) {
+         Matcher m = FILE_NAME.matcher(file.getName());
+         if (m.matches()) {
+            (m.group(1).equals("wal") ? logs : snapshots).put(Long.valueOf(m.group(2)), file);
+         }
+      }
+      if (snapshots.isEmpty() && logs.isEmpty()) {
+         return false;
+      }
+      long first = 0;
+      if (!snapshots.isEmpty()) {
+         first = snapshots.lastKey();
+         replay(snapshots.get(first), replay);
+         generation = first;
+      }
+      for (File file : logs.tailMap(first).values()) {
+         replay(file, replay);
+      }
+      if (!logs.isEmpty()) {
+         generation = Math.max(generation, logs.lastKey());
+      }
+      log.debugf("Recovered dictionary journal %s up to generation %d", directory, generation);
+      return true;
+   }
+
+   /**
+    * Takes the initial snapshot and starts the background tasks.
+    *
+    * @param name prefix of the name of the journal thread
+    */
+   public void start(final String name) throws IOException {
+      snapshot();
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-journal");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      if (durability == Durability.ASYNC) {
+         scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  commit(written);
+               } catch (IOException e) {
+                  log.error("Couldn't flush dictionary journal", e);
+               }
+            }
+         }, ASYNC_FLUSH_MILLIS, ASYNC_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+      }
+      if (snapshotInterval > 0) {
+         scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  if (written != snapshotted) {
+                     snapshot();
+                  }
+               } catch (IOException e) {
+                  log.error("Couldn't take dictionary snapshot", e);
+               }
+            }
+         }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+      }
+   }
+
+   public void close() {
+      if (scheduler != null) {
+         scheduler.shutdownNow();
+         scheduler = null;
+      }
+      rotationLock.writeLock().lock();
+      try {
+         if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+         }
+      } catch (IOException e) {
+         log.error("Couldn't close dictionary journal", e);
+      } finally {
+         rotationLock.writeLock().unlock();
+      }
+   }
+
+   public void beginWrite() {
+      rotationLock.readLock().lock();
+   }
+
+   public void endWrite() {
+      rotationLock.readLock().unlock();
+   }
+
+   /**
+    * Appends a change, must be called between {@link #beginWrite()} and {@link #endWrite()}.
+    *
+    * @param value new value, null for a removal
+    * @return sequence number to {@link #commit(long)}
+    */
+   public long append(String key, String value) throws IOException {
+      return append(key, value, 0);
+   }
+
+   /**
+    * Appends a change of an entry that expires, must be called between {@link #beginWrite()} and
+    * {@link #endWrite()}.
+    *
+    * @param deadline time in milliseconds the entry expires at, 0 if it doesn't
+    * @return sequence number to {@link #commit(long)}
+    */
+   public long append(String key, String value, long deadline) throws IOException {
+      return append(key, value, deadline, 0);
+   }
+
+   /**
+    * Appends a replicated change, must be called between {@link #beginWrite()} and
+    * {@link #endWrite()}.
+    *
+    * @param deadline time in milliseconds the entry expires at, 0 if it doesn't
+    * @param version replication version of the change, 0 if it has none
+    * @return sequence number to {@link #commit(long)}
+    */
+   public long append(String key, String value, long deadline, long version) throws IOException {
+      ByteBuffer record = encode(key, value, deadline, version);
+      synchronized (appendLock) {
+         if (channel == null) {
+            throw new IOException("Journal " + directory + " is closed");
+         }
+         while (record.hasRemaining()) {
+            channel.write(record);
+         }
+         if (durability == Durability.SYNC) {
+            channel.force(false);
+         }
+         return ++written;
+      }
+   }
+
+   /**
+    * Forces the changes up to the sequence number to disk. A caller that finds its change already
+    * forced by another caller returns immediately.
+    */
+   public void commit(long sequence) throws IOException {
+      synchronized (forceLock) {
+         if (synced >= sequence) {
+            return;
+         }
+         long target = written;
+         rotationLock.readLock().lock();
+         try {
+            if (channel != null) {
+               channel.force(false);
+            }
+         } finally {
+            rotationLock.readLock().unlock();
+         }
+         synced = target;
+      }
+   }
+
+   /**
+    * Waits until the change is durable in the group commit mode, the other modes don't wait.
+    */
+   public void sync(long sequence) throws IOException {
+      if (durability == Durability.GROUP_COMMIT) {
+         commit(sequence);
+      }
+   }
+
+   /**
+    * Starts a new log generation and writes a snapshot of the store for it, then deletes the
+    * files of the older generations.
+    */
+   public void snapshot() throws IOException {
+      synchronized (snapshotLock) {
+         long newGeneration;
+         rotationLock.writeLock().lock();
+         try {
+            if (channel != null) {
+               channel.force(false);
+               channel.close();
+            }
+            newGeneration = ++generation;
+            channel = new RandomAccessFile(new File(directory, "wal-" + newGeneration + ".log"), "rw").getChannel();
+            snapshotted = written;
+         } finally {
+            rotationLock.writeLock().unlock();
+         }
+         File temp = new File(directory, "snapshot-" + newGeneration + ".tmp");
+         FileOutputStream fos = new FileOutputStream(temp);
+         try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            Versions currentVersions = versions;
+            Iterator<String> keys = store.keys();
+            while (keys.hasNext()) {
+               String key = keys.next();
+               String value = store.get(key);
+               // removed since, the removal is in the new log
+               if (value != null) {
+                  Long deadline = deadlines.get(key);
+                  long version = currentVersions == null ? 0 : currentVersions.getVersion(key);
+                  ByteBuffer record = encode(key, value, deadline == null ? 0 : deadline, version);
+                  out.write(record.array(), 0, record.limit());
+               }
+            }
+            if (currentVersions != null) {
+               for (Map.Entry<String, Long> removed : currentVersions.getRemoved().entrySet()) {
+                  // added again since, the addition is in the new log
+                  if (store.get(removed.getKey()) == null) {
+                     ByteBuffer record = encode(removed.getKey(), null, 0, removed.getValue());
+                     out.write(record.array(), 0, record.limit());
+                  }
+               }
+            }
+            out.flush();
+            fos.getFD().sync();
+         } finally {
+            fos.close();
+         }
+         if (!temp.renameTo(new File(directory, "snapshot-" + newGeneration + ".dat"))) {
+            throw new IOException("Couldn't rename " + temp);
+         }
+         // the rename and the new log have to be durable before the old generations go
+         syncDirectory(directory);
+         for (File file : directory.listFiles()) {
+            Matcher m = FILE_NAME.matcher(file.getName());
+            if (m.matches() && Long.parseLong(m.group(2)) < newGeneration && !file.delete()) {
+               log.warnf("Couldn't delete old journal file %s", file);
+            }
+         }
+      }
+   }
+
+   private static ByteBuffer encode(String key, String value, long deadline, long version) {
+      byte[] keyBytes = key.getBytes(UTF8);
+      byte[] valueBytes = value == null ? new byte[0] : value.getBytes(UTF8);
+      boolean expiring = value != null && deadline != 0;
+      int length = 9 + keyBytes.length + valueBytes.length + (expiring ? 8 : 0) + (version != 0 ? 8 : 0);
+      ByteBuffer record = ByteBuffer.allocate(8 + length);
+      record.position(8);
+      byte op = value == null ? REMOVE : expiring ? PUT_EXPIRING : PUT;
+      record.put(version != 0 ? (byte) (op | VERSIONED) : op);
+      record.putInt(keyBytes.length);
+      record.put(keyBytes);
+      record.putInt(valueBytes.length);
+      record.put(valueBytes);
+      if (expiring) {
+         record.putLong(deadline);
+      }
+      if (version != 0) {
+         record.putLong(version);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(record.array(), 8, length);
+      record.putInt(0, (int) crc.getValue());
+      record.putInt(4, length);
+      record.flip();
+      return record;
+   }
+
+   /**
+    * Forces the directory entries to disk, best effort. Java 6 has no way to open a directory, so
+    * this only happens when the Java 7 file API was found (see {@link #OPEN}), and not where
+    * directories can't be opened (Windows). Otherwise the rename is as durable as the file system
+    * makes it.
+    */
+   private static void syncDirectory(File directory) throws IOException {
+      if (OPEN == null) {
+         return;
+      }
+      FileChannel channel;
+      try {
+         channel = (FileChannel) OPEN.invoke(null, TO_PATH.invoke(directory), READ_OPTIONS);
+      } catch (InvocationTargetException e) {
+         log.debugf(e.getCause(), "Couldn't open journal directory %s for sync", directory);
+         return;
+      } catch (IllegalAccessException e) {
+         return;
+      }
+      try {
+         channel.force(true);
+      } finally {
+         channel.close();
+      }
+   }
+
+   private static void replay(File file, Replay replay) throws IOException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      // bytes after the current record header
+      long remaining = file.length();
+      try {
+         while (true) {
+            int checksum;
+            try {
+               checksum = in.readInt();
+            } catch (EOFException e) {
+               return;
+            }
+            int length = in.readInt();
+            remaining -= 8;
+            // a corrupted length mustn't allocate more than the file has
+            if (length < 9 || length > remaining) {
+               throw new EOFException();
+            }
+            remaining -= length;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+               log.warnf("Corrupted record in %s, ignoring the rest of the file", file);
+               return;
+            }
+            ByteBuffer record = ByteBuffer.wrap(payload);
+            byte flags = record.get();
+            byte op = (byte) (flags & ~VERSIONED);
+            int keyLength = record.getInt();
+            String key = new String(payload, 5, keyLength, UTF8);
+            int valueLength = record.getInt(5 + keyLength);
+            long deadline = op == PUT_EXPIRING ? record.getLong(9 + keyLength + valueLength) : 0;
+            long version = (flags & VERSIONED) != 0 ? record.getLong(length - 8) : 0;
+            replay.apply(key, op == REMOVE ? null : new String(payload, 9 + keyLength, valueLength, UTF8), deadline, version);
+         }
+      } catch (EOFException e) {
+         log.warnf("Torn record at the end of %s ignored", file);
+      } finally {
+         in.close();
+      }
+   }
+
+}